@@ -0,0 +1,96 @@
+package cmsc420.bench;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.util.ArrayList;
+
+import cmsc420.structure.City;
+import cmsc420.structure.pmquadtree.BucketPMQuadTree;
+import cmsc420.structure.pmquadtree.PMQuadTree;
+import cmsc420.structure.pmquadtree.QEdge;
+
+/**
+ * Sweeps the leaf capacity B of the bucket PM Quadtree. For each B the same
+ * cities and roads are loaded, and the memory the tree takes and the latency
+ * of rangeCities, rangeRoads and nearestRoad are reported. B = 1 is the PM3
+ * Quadtree.
+ * <p>
+ * Usage: <tt>java cmsc420.bench.LeafCapacityBenchmark [input.xml]</tt>. The
+ * input file named is loaded as it maps its cities and roads; with no
+ * argument, a random road network with as many isolated cities is used.
+ */
+public class LeafCapacityBenchmark {
+
+	/** leaf capacities swept */
+	private static final int[] CAPACITIES = { 1, 2, 4, 8, 16, 32, 64 };
+
+	/** queries timed for each leaf capacity */
+	private static final int QUERIES = 2000;
+
+	/** roads and isolated cities of the random workload */
+	private static final int ROADS = 20000;
+
+	/** side of the random spatial map */
+	private static final long SIZE = 1 << 14;
+
+	public static void main(String[] args) throws Exception {
+		final Workload workload = args.length == 0 ? Workload.random(36,
+				SIZE, ROADS, ROADS) : Workload.read(new File(args[0]));
+		final long[][] queries = workload.queries(42, QUERIES, Math.max(
+				workload.width, workload.height) >> 5);
+
+		/* a build to warm up on, so the first row is not timing the compiler */
+		workload.load(new BucketPMQuadTree(CAPACITIES[0]));
+
+		System.out.println("B\tbuild ms\tKiB\trangeCities ns"
+				+ "\trangeRoads ns\tnearestRoad ns");
+		for (int capacity : CAPACITIES) {
+			/* the previous tree is garbage by now */
+			final long before = usedMemory();
+			final long start = System.nanoTime();
+			final PMQuadTree tree = workload.load(new BucketPMQuadTree(
+					capacity));
+			final double build = (System.nanoTime() - start) / 1e6;
+			final long bytes = usedMemory() - before;
+
+			final ArrayList<City> cities = new ArrayList<City>();
+			final double rangeCities = new Timing() {
+				protected int query(long x, long y, long radius) {
+					cities.clear();
+					tree.rangeCities(x, y, radius, cities);
+					return cities.size();
+				}
+			}.nanosPerQuery(queries);
+			final ArrayList<QEdge> roads = new ArrayList<QEdge>();
+			final double rangeRoads = new Timing() {
+				protected int query(long x, long y, long radius) {
+					roads.clear();
+					tree.rangeRoads(x, y, radius, roads);
+					return roads.size();
+				}
+			}.nanosPerQuery(queries);
+			final double nearestRoad = new Timing() {
+				protected int query(long x, long y, long radius) {
+					final QEdge road = tree.nearestRoad(new Point2D.Double(x,
+							y));
+					return road == null ? 0 : 1;
+				}
+			}.nanosPerQuery(queries);
+
+			System.out.printf("%d\t%.1f\t%d\t%.0f\t%.0f\t%.0f%n", capacity,
+					build, bytes >> 10, rangeCities, rangeRoads, nearestRoad);
+		}
+	}
+
+	/**
+	 * Gets the heap in use once the collector has had a chance to free what
+	 * it can.
+	 */
+	private static long usedMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
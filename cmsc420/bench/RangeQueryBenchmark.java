@@ -0,0 +1,79 @@
+package cmsc420.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import cmsc420.structure.City;
+import cmsc420.structure.CityNameComparator;
+import cmsc420.structure.pmquadtree.PM3QuadTree;
+import cmsc420.structure.pmquadtree.PMQuadTree;
+import cmsc420.structure.pmquadtree.QEdge;
+
+/**
+ * Measures the throughput of the PM3 Quadtree's range queries: rangeCities,
+ * rangeRoads and countCitiesInRange, over query circles of a few sizes.
+ * rangeCities collects into a TreeSet ordered by name, as the rangeCities
+ * command does, and countCitiesInRange answers without collecting at all.
+ * <p>
+ * Usage: <tt>java cmsc420.bench.RangeQueryBenchmark [input.xml]</tt>. The
+ * input file named is loaded as it maps its cities and roads; with no
+ * argument, a random road network with as many isolated cities is used.
+ */
+public class RangeQueryBenchmark {
+
+	/** queries timed for each radius */
+	private static final int QUERIES = 5000;
+
+	/**
+	 * largest radius of each set of queries, as a shift of the map's larger
+	 * side: 1/256, 1/32 and 1/4 of it
+	 */
+	private static final int[] RADIUS_SHIFTS = { 8, 5, 2 };
+
+	/** roads and isolated cities of the random workload */
+	private static final int ROADS = 20000;
+
+	/** side of the random spatial map */
+	private static final long SIZE = 1 << 14;
+
+	public static void main(String[] args) throws Exception {
+		final Workload workload = args.length == 0 ? Workload.random(32,
+				SIZE, ROADS, ROADS) : Workload.read(new File(args[0]));
+		final PMQuadTree tree = workload.load(new PM3QuadTree());
+		final long side = Math.max(workload.width, workload.height);
+
+		System.out.println("max radius\trangeCities q/s"
+				+ "\tcountCitiesInRange q/s\trangeRoads q/s");
+		for (int shift : RADIUS_SHIFTS) {
+			final long[][] queries = workload.queries(shift, QUERIES,
+					side >> shift);
+
+			final TreeSet<City> cities = new TreeSet<City>(
+					new CityNameComparator());
+			final double rangeCities = new Timing() {
+				protected int query(long x, long y, long radius) {
+					cities.clear();
+					tree.rangeCities(x, y, radius, cities);
+					return cities.size();
+				}
+			}.nanosPerQuery(queries);
+			final double countCities = new Timing() {
+				protected int query(long x, long y, long radius) {
+					return tree.countCitiesInRange(x, y, radius);
+				}
+			}.nanosPerQuery(queries);
+			final ArrayList<QEdge> roads = new ArrayList<QEdge>();
+			final double rangeRoads = new Timing() {
+				protected int query(long x, long y, long radius) {
+					roads.clear();
+					tree.rangeRoads(x, y, radius, roads);
+					return roads.size();
+				}
+			}.nanosPerQuery(queries);
+
+			System.out.printf("%d\t%.0f\t%.0f\t%.0f%n", side >> shift,
+					1e9 / rangeCities, 1e9 / countCities, 1e9 / rangeRoads);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package cmsc420.bench;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import cmsc420.structure.pmquadtree.PM3QuadTree;
+import cmsc420.structure.pmquadtree.PMQuadTree;
+import cmsc420.structure.pmquadtree.QEdge;
+import cmsc420.structure.rtree.PackedRTree;
+
+/**
+ * Compares the road queries of the STR-packed R-tree with those of the PM3
+ * Quadtree. Both are loaded with the same cities and roads, then timed on
+ * the same rangeRoads and nearestRoad queries.
+ * <p>
+ * Usage: <tt>java cmsc420.bench.RoadIndexBenchmark [input.xml ...]</tt>.
+ * Each input file named is loaded as it maps its cities and roads; with no
+ * arguments, random road networks of a few sizes are used instead.
+ */
+public class RoadIndexBenchmark {
+
+	/** queries timed for each workload */
+	private static final int QUERIES = 2000;
+
+	/** sizes of the random road networks */
+	private static final int[] ROAD_COUNTS = { 1000, 10000, 50000 };
+
+	/** side of the random spatial maps */
+	private static final long SIZE = 1 << 14;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("workload\troads\tindex\tbuild ms"
+				+ "\trangeRoads ns\tnearestRoad ns");
+		if (args.length == 0) {
+			for (int roads : ROAD_COUNTS) {
+				run("random", Workload.random(roads, SIZE, roads, 0));
+			}
+		} else {
+			for (String name : args) {
+				run(new File(name).getName(), Workload.read(new File(name)));
+			}
+		}
+	}
+
+	private static void run(String name, Workload workload) {
+		final long[][] queries = workload.queries(42, QUERIES, Math.max(
+				workload.width, workload.height) >> 5);
+
+		long start = System.nanoTime();
+		final PMQuadTree tree = workload.load(new PM3QuadTree());
+		final double pmBuild = (System.nanoTime() - start) / 1e6;
+
+		start = System.nanoTime();
+		final PackedRTree rtree = (PackedRTree) workload.load(new PackedRTree());
+		/* the packed tree is built by its first road query */
+		rtree.nearestRoad(0, 0);
+		final double rtreeBuild = (System.nanoTime() - start) / 1e6;
+
+		checkAgreement(name, tree, rtree, queries);
+
+		final ArrayList<QEdge> found = new ArrayList<QEdge>();
+		final double pmRange = new Timing() {
+			protected int query(long x, long y, long radius) {
+				found.clear();
+				tree.rangeRoads(x, y, radius, found);
+				return found.size();
+			}
+		}.nanosPerQuery(queries);
+		final double pmNearest = new Timing() {
+			protected int query(long x, long y, long radius) {
+				final QEdge road = tree.nearestRoad(new Point2D.Double(x, y));
+				return road == null ? 0 : 1;
+			}
+		}.nanosPerQuery(queries);
+		final double rtreeRange = new Timing() {
+			protected int query(long x, long y, long radius) {
+				found.clear();
+				rtree.rangeRoads(x, y, radius, found);
+				return found.size();
+			}
+		}.nanosPerQuery(queries);
+		final double rtreeNearest = new Timing() {
+			protected int query(long x, long y, long radius) {
+				final QEdge road = rtree.nearestRoad(x, y);
+				return road == null ? 0 : 1;
+			}
+		}.nanosPerQuery(queries);
+
+		final int roads = workload.roads.size();
+		System.out.printf("%s\t%d\tpm3\t%.1f\t%.0f\t%.0f%n", name, roads,
+				pmBuild, pmRange, pmNearest);
+		System.out.printf("%s\t%d\tstrtree\t%.1f\t%.0f\t%.0f%n", name, roads,
+				rtreeBuild, rtreeRange, rtreeNearest);
+	}
+
+	/**
+	 * Warns if the two indexes answer any query differently, in which case
+	 * their timings are not comparable.
+	 */
+	private static void checkAgreement(String name, PMQuadTree tree,
+			PackedRTree rtree, long[][] queries) {
+		final ArrayList<QEdge> fromTree = new ArrayList<QEdge>();
+		final ArrayList<QEdge> fromRTree = new ArrayList<QEdge>();
+		for (long[] query : queries) {
+			fromTree.clear();
+			fromRTree.clear();
+			tree.rangeRoads(query[0], query[1], query[2], fromTree);
+			rtree.rangeRoads(query[0], query[1], query[2], fromRTree);
+			final QEdge nearest = tree.nearestRoad(new Point2D.Double(
+					query[0], query[1]));
+			if (fromTree.size() != fromRTree.size()
+					|| !new HashSet<QEdge>(fromTree).containsAll(fromRTree)
+					|| nearest != null
+					&& !nearest.equals(rtree.nearestRoad(query[0], query[1]))) {
+				System.err.println(name + ": the indexes disagree at ("
+						+ query[0] + ", " + query[1] + ")");
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package cmsc420.bench;
+
+/**
+ * Times one kind of query over a set of query circles. The whole set is run
+ * a few times to warm up, then timed over several rounds, of which the
+ * fastest is reported: the others are slowed by the collector or the
+ * compiler, not by the structure being measured.
+ */
+public abstract class Timing {
+
+	/** rounds run before timing starts */
+	public static final int WARMUP_ROUNDS = 3;
+
+	/** rounds timed */
+	public static final int ROUNDS = 5;
+
+	/**
+	 * sum of the query results, kept so the compiler cannot drop the queries
+	 * as dead code
+	 */
+	private long sink;
+
+	/**
+	 * Runs one query.
+	 * 
+	 * @param x
+	 *            X coordinate of the query point
+	 * @param y
+	 *            Y coordinate of the query point
+	 * @param radius
+	 *            radius of the query circle; ignored by nearest queries
+	 * @return any number that depends on the answer, such as its size
+	 */
+	protected abstract int query(long x, long y, long radius);
+
+	/**
+	 * Times the query over every query circle.
+	 * 
+	 * @param queries
+	 *            x, y and radius of each query
+	 * @return nanoseconds per query in the fastest round
+	 */
+	public double nanosPerQuery(long[][] queries) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			round(queries);
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			best = Math.min(best, round(queries));
+		}
+		return (double) best / queries.length;
+	}
+
+	private long round(long[][] queries) {
+		final long start = System.nanoTime();
+		for (long[] query : queries) {
+			sink += query(query[0], query[1], query[2]);
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,259 @@
+package cmsc420.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import cmsc420.structure.City;
+import cmsc420.structure.SpatialIndex;
+import cmsc420.structure.pmquadtree.PMQuadTree;
+import cmsc420.structure.pmquadtree.QEdge;
+import cmsc420.xml.XmlUtility;
+
+/**
+ * Cities and roads for the benchmarks to load, and the queries to run
+ * against them. A workload is either read from a MeeshQuest input file, in
+ * which case it holds what that file maps, or generated at random.
+ */
+public class Workload {
+
+	/** size of the spatial map */
+	public final long width, height;
+
+	/** isolated cities, mapped on their own */
+	public final ArrayList<City> isolated = new ArrayList<City>();
+
+	/** roads, each running from the lesser name to the greater */
+	public final ArrayList<QEdge> roads = new ArrayList<QEdge>();
+
+	private Workload(long width, long height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Reads the cities and roads a MeeshQuest input file maps with mapCity
+	 * and mapRoad. Every other command is ignored.
+	 * 
+	 * @param file
+	 *            input file
+	 * @return workload mapping the same cities and roads
+	 * @throws IOException
+	 *             problem reading the file
+	 * @throws SAXException
+	 *             the file is not well-formed XML
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public static Workload read(File file) throws IOException, SAXException,
+			ParserConfigurationException {
+		final Document document = XmlUtility.parse(file);
+		final Element commands = document.getDocumentElement();
+		final Workload workload = new Workload(Long.parseLong(commands
+				.getAttribute("spatialWidth")), Long.parseLong(commands
+				.getAttribute("spatialHeight")));
+
+		final HashMap<String, City> cities = new HashMap<String, City>();
+		final NodeList nl = commands.getChildNodes();
+		for (int i = 0; i < nl.getLength(); i++) {
+			if (nl.item(i).getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			final Element command = (Element) nl.item(i);
+			final String name = command.getNodeName();
+			if (name.equals("createCity")) {
+				final City city = new City(command.getAttribute("name"), Long
+						.parseLong(command.getAttribute("x")), Long
+						.parseLong(command.getAttribute("y")), Integer
+						.parseInt(command.getAttribute("radius")), command
+						.getAttribute("color"));
+				if (!cities.containsKey(city.getName())) {
+					cities.put(city.getName(), city);
+				}
+			} else if (name.equals("mapCity")) {
+				final City city = cities.get(command.getAttribute("name"));
+				if (city != null && workload.inBounds(city)) {
+					workload.isolated.add(city);
+				}
+			} else if (name.equals("mapRoad")) {
+				final City start = cities.get(command.getAttribute("start"));
+				final City end = cities.get(command.getAttribute("end"));
+				if (start != null && end != null && start != end
+						&& workload.inBounds(start) && workload.inBounds(end)) {
+					workload.addRoad(start, end);
+				}
+			}
+		}
+		return workload;
+	}
+
+	/**
+	 * Generates a road network at random. Roads are short compared with the
+	 * map, as in the test inputs: each new road runs from a city already
+	 * mapped, or now and then from a new one, to a new city nearby. No two
+	 * cities share a location.
+	 * 
+	 * @param seed
+	 *            seed of the random number generator
+	 * @param size
+	 *            width and height of the spatial map
+	 * @param roadCount
+	 *            number of roads
+	 * @param isolatedCount
+	 *            number of isolated cities
+	 * @return the generated workload
+	 */
+	public static Workload random(long seed, long size, int roadCount,
+			int isolatedCount) {
+		final Workload workload = new Workload(size, size);
+		final Random random = new Random(seed);
+		final ArrayList<City> roadCities = new ArrayList<City>();
+		final HashSet<String> locations = new HashSet<String>();
+		final long reach = Math.max(size >> 4, 2);
+
+		while (workload.roads.size() < roadCount) {
+			final City start;
+			if (roadCities.isEmpty() || random.nextInt(4) == 0) {
+				final long x = nextLong(random, size);
+				final long y = nextLong(random, size);
+				if (!locations.add(x + "," + y)) {
+					continue;
+				}
+				start = new City("S" + roadCities.size(), x, y, 1, "black");
+				roadCities.add(start);
+			} else {
+				start = roadCities.get(random.nextInt(roadCities.size()));
+			}
+			final long x = start.getX() + nextLong(random, reach) - reach / 2;
+			final long y = start.getY() + nextLong(random, reach) - reach / 2;
+			if (x < 0 || x >= size || y < 0 || y >= size
+					|| !locations.add(x + "," + y)) {
+				continue;
+			}
+			final City end = new City("E" + roadCities.size(), x, y, 1,
+					"black");
+			roadCities.add(end);
+			workload.addRoad(start, end);
+		}
+		while (workload.isolated.size() < isolatedCount) {
+			final long x = nextLong(random, size);
+			final long y = nextLong(random, size);
+			if (locations.add(x + "," + y)) {
+				workload.isolated.add(new City("I"
+						+ workload.isolated.size(), x, y, 1, "black"));
+			}
+		}
+		return workload;
+	}
+
+	/**
+	 * Maps every city and road into a PM Quadtree, sized to this workload.
+	 * Cities and roads the tree rejects, such as a road mapped twice, are
+	 * dropped from the workload, so that an index loaded from it afterwards
+	 * holds just what the tree does.
+	 * 
+	 * @param tree
+	 *            empty PM Quadtree
+	 * @return the tree
+	 */
+	public PMQuadTree load(PMQuadTree tree) {
+		tree.setRange(width, height);
+		for (Iterator<QEdge> it = roads.iterator(); it.hasNext();) {
+			final QEdge road = it.next();
+			try {
+				tree.addRoad(road.getStart(), road.getEnd());
+			} catch (Throwable t) {
+				/* already mapped or out of bounds */
+				it.remove();
+			}
+		}
+		for (Iterator<City> it = isolated.iterator(); it.hasNext();) {
+			final City city = it.next();
+			if (tree.contains(city.getName())) {
+				it.remove();
+				continue;
+			}
+			try {
+				tree.add(city);
+			} catch (Throwable t) {
+				/* already mapped or out of bounds */
+				it.remove();
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Adds every city and road to a spatial index, as the PM Quadtree mirrors
+	 * them: road endpoints as well as isolated cities are indexed as cities.
+	 * Load a PM Quadtree first for the two to hold the same cities and roads.
+	 * 
+	 * @param index
+	 *            empty spatial index
+	 * @return the index
+	 */
+	public SpatialIndex load(SpatialIndex index) {
+		final HashMap<String, City> cities = new HashMap<String, City>();
+		for (QEdge road : roads) {
+			cities.put(road.getStart().getName(), road.getStart());
+			cities.put(road.getEnd().getName(), road.getEnd());
+		}
+		for (City city : isolated) {
+			cities.put(city.getName(), city);
+		}
+		for (City city : cities.values()) {
+			index.addCity(city);
+		}
+		for (QEdge road : roads) {
+			index.addRoad(road);
+		}
+		return index;
+	}
+
+	/**
+	 * Generates query circles within the spatial map.
+	 * 
+	 * @param seed
+	 *            seed of the random number generator
+	 * @param count
+	 *            number of queries
+	 * @param maxRadius
+	 *            largest radius
+	 * @return x, y and radius of each query
+	 */
+	public long[][] queries(long seed, int count, long maxRadius) {
+		final Random random = new Random(seed);
+		final long[][] queries = new long[count][];
+		for (int i = 0; i < count; i++) {
+			queries[i] = new long[] { nextLong(random, width),
+					nextLong(random, height), nextLong(random, maxRadius + 1) };
+		}
+		return queries;
+	}
+
+	private void addRoad(City start, City end) {
+		roads.add(start.getName().compareTo(end.getName()) > 0 ? new QEdge(
+				end, start) : new QEdge(start, end));
+	}
+
+	private boolean inBounds(City city) {
+		return city.getX() >= 0 && city.getX() < width && city.getY() >= 0
+				&& city.getY() < height;
+	}
+
+	private static long nextLong(Random random, long bound) {
+		return (long) (random.nextDouble() * bound);
+	}
+}
@@ -29,16 +29,22 @@ import cmsc420.exception.RoadOutOfBoundsException;
 import cmsc420.geom.*;
 import cmsc420.sortedmap.AvlGTree;
 import cmsc420.structure.*;
+import cmsc420.structure.grid.GridIndex;
+import cmsc420.structure.pmquadtree.BucketPMQuadTree;
+import cmsc420.structure.pmquadtree.PM1QuadTree;
 import cmsc420.structure.pmquadtree.PM3QuadTree;
-import cmsc420.structure.pmquadtree.PM3QuadTree.Node;
-import cmsc420.structure.pmquadtree.PM3QuadTree.Black;
-import cmsc420.structure.pmquadtree.PM3QuadTree.Gray;
+import cmsc420.structure.pmquadtree.PMImage;
+import cmsc420.structure.pmquadtree.PMQuadTree;
+import cmsc420.structure.pmquadtree.PMQuadTree.Node;
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+import cmsc420.structure.pmquadtree.PMQuadTree.Gray;
 import cmsc420.structure.pmquadtree.QEdge;
-//import cmsc420.structure.prquadtree.PRQuadtree;
-//import cmsc420.structure.prquadtree.Node;
-//import cmsc420.structure.prquadtree.LeafNode;
-//import cmsc420.structure.prquadtree.InternalNode;
-
+import cmsc420.structure.prquadtree.PRQuadtreeIndex;
+import cmsc420.structure.kdtree.KdTree;
+import cmsc420.structure.rtree.PackedRTree;
+import cmsc420.structure.rtree.RTree;
+import cmsc420.xml.IntegerAttributes;
+import cmsc420.xml.ResultWriter;
 
 /**
  * Processes each command in the MeeshQuest program. Takes in an XML command
@@ -54,6 +60,9 @@ public class Command {
 	/** root node of results document */
 	protected Element resultsNode;
 
+	/** writer of each result as it is made, or null to keep them all */
+	protected ResultWriter resultWriter;
+
 	protected final AvlGTree<String, City> testing = new AvlGTree<String, City>(new Comparator<String>() {
 
 		@Override
@@ -80,13 +89,89 @@ public class Command {
 	protected final TreeSet<City> citiesByLocation = new TreeSet<City>(
 			new CityLocationComparator());
 
-	/** stores mapped cities in a spatial data structure */
-	//protected final PRQuadtree prQuadtree = new PRQuadtree();
+	protected PMQuadTree pmQuadtree = new PM3QuadTree();
+
+	/**
+	 * spatial index answering the range and nearest queries, or null to have
+	 * the PM Quadtree answer them itself
+	 */
+	protected SpatialIndex spatialIndex;
+
+	/** kind of spatial index requested, or the empty string for none */
+	protected String spatialIndexName = "";
+
+	/** first word of every state snapshot ("MQST") */
+	protected static final int SNAPSHOT_MAGIC = 0x4D515354;
+
+	/** version of the state snapshot format written */
+	protected static final int SNAPSHOT_VERSION = 1;
+
+	/** suffix of state snapshot files */
+	protected static final String SNAPSHOT_SUFFIX = ".state";
+
+	/** suffixes of write-ahead log and checkpoint files */
+	protected static final String LOG_SUFFIX = ".wal",
+			CHECKPOINT_SUFFIX = ".checkpoint";
+
+	/** mutations committed to the write-ahead log together */
+	protected static final int LOG_GROUP_SIZE = 32;
+
+	/** size of the write-ahead log past which it is compacted by default */
+	protected static final long DEFAULT_LOG_LIMIT = 1 << 20;
+
+	/** kinds of write-ahead log record */
+	protected static final int LOG_CREATE_CITY = 1, LOG_DELETE_CITY = 2,
+			LOG_CLEAR_ALL = 3, LOG_MAP_CITY = 4, LOG_MAP_ROAD = 5,
+			LOG_UNMAP_CITY = 6, LOG_UNMAP_ROAD = 7, LOG_LOAD_STATE = 8;
+
+	/**
+	 * write-ahead log of the mutating commands since the last checkpoint, or
+	 * null if the commands are not logged
+	 */
+	protected WriteAheadLog log;
 
-	protected final PM3QuadTree pmQuadtree = new PM3QuadTree();
+	/** checkpoint the write-ahead log extends */
+	protected File checkpointFile;
+
+	/** size of the write-ahead log past which it is compacted */
+	protected long logLimit;
+
+	/**
+	 * whether the state has been replaced since the write-ahead log was
+	 * opened, so that it has to be compacted rather than committed
+	 */
+	protected boolean checkpointDue;
+
+	/**
+	 * size of the write-ahead log when this run opened it, or -1 once the
+	 * run has been committed; the run's records follow this offset, and are
+	 * cut off again should the input turn out to be invalid
+	 */
+	protected long runStart = -1;
+
+	/** suffix of PM Quadtree image files */
+	protected static final String IMAGE_SUFFIX = ".pmimage";
+
+	/** suffix of the images saveMap writes */
+	protected static final String MAP_SUFFIX = ".png";
+
+	/**
+	 * put ahead of the suffix of a file this run writes, until the whole
+	 * input has been found valid and the file is moved into place
+	 */
+	protected static final String STAGED_INFIX = ".staged";
+
+	/** files written by this run under staged names, by final name */
+	protected final LinkedHashMap<File, File> stagedFiles = new LinkedHashMap<File, File>();
+
+	/**
+	 * mapped PM Quadtree image answering rangeCities, rangeRoads and
+	 * nearestCity, or null to have the live structures answer them
+	 */
+	protected PMImage image;
 
 	/** spatial width and height of the PR Quadtree */
-	protected int spatialWidth, spatialHeight;
+	protected long spatialWidth, spatialHeight;
 
 	/**
 	 * Set the DOM Document tree to send the of processed commands to.
@@ -102,6 +187,17 @@ public class Command {
 		results.appendChild(resultsNode);
 	}
 
+	/**
+	 * Has the result of each command written as soon as the command has
+	 * finished, rather than kept in the results Document.
+	 * 
+	 * @param resultWriter
+	 *            writer of the results
+	 */
+	public void setResultWriter(ResultWriter resultWriter) {
+		this.resultWriter = resultWriter;
+	}
+
 	/**
 	 * Creates a command result element. Initializes the command name.
 	 * 
@@ -147,10 +243,48 @@ public class Command {
 			parametersNode.appendChild(attributeNode);
 		}
 
-		/* return the integer value */
+		/* return the integer value, parsed already if it was scanned */
+		final IntegerAttributes parsed = IntegerAttributes.of(commandNode);
+		if (parsed != null && parsed.contains(attributeName)) {
+			final long scanned = parsed.get(attributeName);
+			if ((int) scanned == scanned) {
+				return (int) scanned;
+			}
+		}
 		return Integer.parseInt(value);
 	}
 
+	/**
+	 * Processes a long integer attribute for a command, such as a coordinate.
+	 * Appends the parameter to the parameters node of the results.
+	 * 
+	 * @param commandNode
+	 *            node containing information about the command
+	 * @param attributeName
+	 *            long integer attribute to be processed
+	 * @param parametersNode
+	 *            node to append parameter information to
+	 * @return long integer attribute value
+	 */
+	private long processLongAttribute(final Element commandNode,
+			final String attributeName, final Element parametersNode) {
+		final String value = commandNode.getAttribute(attributeName);
+
+		if (parametersNode != null) {
+			/* add the parameters to results */
+			final Element attributeNode = results.createElement(attributeName);
+			attributeNode.setAttribute("value", value);
+			parametersNode.appendChild(attributeNode);
+		}
+
+		/* return the long value, parsed already if it was scanned */
+		final IntegerAttributes parsed = IntegerAttributes.of(commandNode);
+		if (parsed != null && parsed.contains(attributeName)) {
+			return parsed.get(attributeName);
+		}
+		return Long.parseLong(value);
+	}
+
 	/**
 	 * Processes a string attribute for a command. Appends the parameter to the
 	 * parameters node of the results.
@@ -195,7 +329,7 @@ public class Command {
 		error.setAttribute("type", type);
 		error.appendChild(command);
 		error.appendChild(parameters);
-		resultsNode.appendChild(error);
+		addResult(error);
 	}
 
 	/**
@@ -215,7 +349,22 @@ public class Command {
 		success.appendChild(command);
 		success.appendChild(parameters);
 		success.appendChild(output);
-		resultsNode.appendChild(success);
+		addResult(success);
+	}
+
+	/**
+	 * Adds the result of a command to the results, writing it straight away
+	 * if there is a result writer.
+	 * 
+	 * @param result
+	 *            success or error node
+	 */
+	private void addResult(final Element result) {
+		if (resultWriter != null) {
+			resultWriter.write(result);
+		} else {
+			resultsNode.appendChild(result);
+		}
 	}
 
 	/**
@@ -225,13 +374,46 @@ public class Command {
 	 * 
 	 * @param node
 	 *            commands node to be processed
+	 * @throws IOException
+	 *             problem recovering from the write-ahead log
 	 */
-	public void processCommands(final Element node) {
-		spatialWidth = Integer.parseInt(node.getAttribute("spatialWidth"));
-		spatialHeight = Integer.parseInt(node.getAttribute("spatialHeight"));
+	public void processCommands(final Element node) throws IOException {
+		spatialWidth = Long.parseLong(node.getAttribute("spatialWidth"));
+		spatialHeight = Long.parseLong(node.getAttribute("spatialHeight"));
 		int gVal = Integer.parseInt(node.getAttribute("g"));
+
+		int pmOrder = Integer.parseInt(node.getAttribute("pmOrder"));
+
+		/* build the PM Quadtree of the requested order */
+		final String leafCapacity = node.getAttribute("leafCapacity");
+		pmQuadtree = createPMQuadtree(pmOrder, leafCapacity.equals("") ? 0
+				: Integer.parseInt(leafCapacity));
+
+		/* optional bounds on how finely the map may be partitioned */
+		if (!node.getAttribute("maxDepth").equals("")
+				|| !node.getAttribute("minCellSize").equals("")) {
+			final String maxDepth = node.getAttribute("maxDepth");
+			final String minCellSize = node.getAttribute("minCellSize");
+			pmQuadtree.setPartitionLimits(maxDepth.equals("") ? Integer.MAX_VALUE
+					: Integer.parseInt(maxDepth), minCellSize.equals("") ? 1
+					: Integer.parseInt(minCellSize));
+		}
+
+		/* optionally grow the map to fit cities mapped outside of it */
+		final String growable = node.getAttribute("growable");
+		pmQuadtree.setGrowable(growable.equals("true") || growable.equals("1"));
+
+		/*
+		 * optionally answer queries from another spatial index; the PM
+		 * Quadtree still decides what is mapped, and keeps the index in step
+		 */
+		spatialIndexName = node.getAttribute("spatialIndex");
+		spatialIndex = createSpatialIndex(spatialIndexName, pmQuadtree,
+				spatialWidth, spatialHeight);
 		/* initialize canvas */
-		Canvas.instance.setFrameSize(spatialWidth, spatialHeight);
+		Canvas.instance.setFrameSize((int) Math.min(spatialWidth,
+				Integer.MAX_VALUE), (int) Math.min(spatialHeight,
+				Integer.MAX_VALUE));
 		/* add a rectangle to show where the bounds of the map are located */
 		Canvas.instance.addRectangle(0, 0, (spatialWidth > spatialHeight) ? spatialWidth : spatialHeight, 
 				(spatialWidth > spatialHeight) ? spatialWidth : spatialHeight, Color.WHITE, true);
@@ -241,6 +423,73 @@ public class Command {
 		/* set Pm Quadtree range */
 		pmQuadtree.setRange(spatialWidth, spatialHeight);
 		testing.setG(gVal);
+
+		/* optionally log every mutation, recovering what was logged before */
+		final String logName = node.getAttribute("log");
+		if (!logName.equals("")) {
+			final String logLimit = node.getAttribute("logLimit");
+			openLog(logName, logLimit.equals("") ? DEFAULT_LOG_LIMIT : Long
+					.parseLong(logLimit));
+		}
+	}
+
+	/**
+	 * Creates an empty PM Quadtree.
+	 * 
+	 * @param pmOrder
+	 *            PM order, 1 or 3
+	 * @param leafCapacity
+	 *            cities a PM3 leaf may hold, or 0 for a plain PM3 Quadtree
+	 * @return the new PM Quadtree
+	 */
+	private static PMQuadTree createPMQuadtree(int pmOrder, int leafCapacity) {
+		if (pmOrder == 1) {
+			return new PM1QuadTree();
+		} else if (leafCapacity > 0) {
+			/* PM3 leaves may optionally hold several cities */
+			return new BucketPMQuadTree(leafCapacity);
+		}
+		return new PM3QuadTree();
+	}
+
+	/**
+	 * Creates the spatial index of a given kind, kept in step with a PM
+	 * Quadtree.
+	 * 
+	 * @param name
+	 *            kind of index, as given by the spatialIndex attribute
+	 * @param tree
+	 *            PM Quadtree holding the map
+	 * @param width
+	 *            width of the spatial map
+	 * @param height
+	 *            height of the spatial map
+	 * @return the new index, or null if the PM Quadtree answers queries
+	 *         itself
+	 * @throws IllegalArgumentException
+	 *             the kind of index is not one the schema allows
+	 */
+	private static SpatialIndex createSpatialIndex(String name,
+			PMQuadTree tree, long width, long height) {
+		if (name.equals("") || name.equals("pmquadtree")) {
+			return null;
+		}
+		final SpatialIndex index;
+		if (name.equals("prquadtree")) {
+			index = new PRQuadtreeIndex();
+		} else if (name.equals("kdtree")) {
+			index = new KdTree();
+		} else if (name.equals("strtree")) {
+			index = new PackedRTree();
+		} else if (name.equals("grid")) {
+			index = new GridIndex(width, height);
+		} else if (name.equals("rtree")) {
+			index = new RTree();
+		} else {
+			throw new IllegalArgumentException("unknown spatial index " + name);
+		}
+		tree.setMirror(index);
+		return index;
 	}
 
 	/**
@@ -250,14 +499,17 @@ public class Command {
 	 * 
 	 * @param node
 	 *            createCity node to be processed
+	 * @throws IOException
+	 *             problem writing the write-ahead log
 	 */
-	public void processCreateCity(final Element node) {
+	public void processCreateCity(final Element node)
+			throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
 		final String name = processStringAttribute(node, "name", parametersNode);
-		final int x = processIntegerAttribute(node, "x", parametersNode);
-		final int y = processIntegerAttribute(node, "y", parametersNode);
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
 		final int radius = processIntegerAttribute(node, "radius",
 				parametersNode);
 		final String color = processStringAttribute(node, "color",
@@ -277,45 +529,50 @@ public class Command {
 			/* add city to dictionary */
 			citiesByName.put(name, city);
 			citiesByLocation.add(city);
+			logMutation(node);
 
 			/* add success node to results */
 			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
 	}
-	//This one isn't being processed until Part 3
 	/**
-	 * Processes a deleteCity command. Deletes a city from the dictionary. An
-	 * error occurs if the city does not exist or is currently mapped.
+	 * Processes a deleteCity command. Deletes a city from the dictionary. If
+	 * the city is mapped, it is unmapped first, along with all of its roads.
+	 * An error occurs if the city does not exist.
 	 * 
 	 * @param node
 	 *            deleteCity node being processed
+	 * @throws IOException
+	 *             problem writing the write-ahead log
 	 */
-	/*public void processDeleteCity(final Element node) {
+	public void processDeleteCity(final Element node)
+			throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		final String name = processStringAttribute(node, "name", parametersNode);
 
 		if (!citiesByName.containsKey(name)) {
-			/* city with name does not exist * /
+			/* city with name does not exist */
 			addErrorNode("cityDoesNotExist", commandNode, parametersNode);
 		} else {
-			/* delete city * /
+			/* delete city */
 			final Element outputNode = results.createElement("output");
 			final City deletedCity = citiesByName.get(name);
 
 			if (pmQuadtree.contains(name)) {
-				/* city is mapped * /
-				pmQuadtree.remove(deletedCity);
+				/* city is mapped */
 				addCityNode(outputNode, "cityUnmapped", deletedCity);
+				unmapCity(deletedCity, outputNode);
 			}
 
 			citiesByName.remove(name);
 			citiesByLocation.remove(deletedCity);
+			logMutation(node);
 
-			/* add success node to results * /
+			/* add success node to results */
 			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
-	}*/
+	}
 
 	/**
 	 * Clears all the data structures do there are not cities or roads in
@@ -323,8 +580,11 @@ public class Command {
 	 * 
 	 * @param node
 	 *            clearAll node to be processed
+	 * @throws IOException
+	 *             problem writing the write-ahead log
 	 */
-	public void processClearAll(final Element node) {
+	public void processClearAll(final Element node)
+			throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		final Element outputNode = results.createElement("output");
@@ -333,12 +593,14 @@ public class Command {
 		citiesByName.clear();
 		citiesByLocation.clear();
 		pmQuadtree.clear();
+		closeImage();
 
 		/* clear canvas */
 		Canvas.instance.clear();
 		/* add a rectangle to show where the bounds of the map are located */
 		Canvas.instance.addRectangle(0, 0, spatialWidth, spatialHeight, Color.BLACK,
 				false);
+		logMutation(node);
 
 		/* add success node to results */
 		addSuccessNode(commandNode, parametersNode, outputNode);
@@ -397,8 +659,8 @@ public class Command {
 			final City city) {
 		final Element cityNode = results.createElement(cityNodeName);
 		cityNode.setAttribute("name", city.getName());
-		cityNode.setAttribute("x", Integer.toString((int) city.getX()));
-		cityNode.setAttribute("y", Integer.toString((int) city.getY()));
+		cityNode.setAttribute("x", Long.toString(city.getX()));
+		cityNode.setAttribute("y", Long.toString(city.getY()));
 		cityNode.setAttribute("radius", Integer
 				.toString((int) city.getRadius()));
 		cityNode.setAttribute("color", city.getColor());
@@ -432,8 +694,11 @@ public class Command {
 	 * 
 	 * @param node
 	 *            mapCity command node to be processed
+	 * @throws IOException
+	 *             problem writing the write-ahead log
 	 */
-	public void processMapCity(final Element node) {
+	public void processMapCity(final Element node)
+			throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -450,10 +715,10 @@ public class Command {
 			try {
 				/* insert city into PR Quadtree */
 				pmQuadtree.add(city);
-				pmQuadtree.addIso(city.getName());
 				/* add city to canvas */
 				Canvas.instance.addPoint(city.getName(), city.getX(), city.getY(),
 						Color.BLACK);
+				logMutation(node);
 
 				/* add success node to results */
 				addSuccessNode(commandNode, parametersNode, outputNode);
@@ -465,7 +730,8 @@ public class Command {
 		}
 	}
 
-	public void processMapRoad(final Element node) {
+	public void processMapRoad(final Element node)
+			throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -494,6 +760,7 @@ public class Command {
 				Canvas.instance.addLine(begin.getX(), begin.getY(),
 						ending.getX(), ending.getY(),
 						Color.BLACK);
+				logMutation(node);
 
 				/* add success node to results */
 				final Element createdRoad = results.createElement("roadCreated");
@@ -509,14 +776,16 @@ public class Command {
 		}
 	}
 
-	//This one isn't being worked until part 3
 	/**
-	 * Removes a city from the spatial map.
+	 * Removes a city from the spatial map, along with every road connected
+	 * to it.
 	 * 
 	 * @param node
 	 *            unmapCity command node to be processed
+	 * @throws IOException
+	 *             problem writing the write-ahead log
 	 */
-	/*public void processUnmapCity(Element node) {
+	public void processUnmapCity(Element node) throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -529,19 +798,73 @@ public class Command {
 		} else if (!pmQuadtree.contains(name)) {
 			addErrorNode("cityNotMapped", commandNode, parametersNode);
 		} else {
-			City city = citiesByName.get(name);
+			unmapCity(citiesByName.get(name), outputNode);
+			logMutation(node);
 
-			/* unmap the city in the PR Quadtree * /
-			pmQuadtree.remove(city);
+			/* add success node to results */
+			addSuccessNode(commandNode, parametersNode, outputNode);
+		}
+	}
 
-			/* remove city from canvas * /
-			Canvas.instance.removePoint(city.getName(), city.getX(), city.getY(),
+	/**
+	 * Unmaps a mapped city and its roads, reporting each road that was
+	 * unmapped.
+	 */
+	private void unmapCity(final City city, final Element outputNode) {
+		final ArrayList<QEdge> unmappedRoads = new ArrayList<QEdge>();
+		pmQuadtree.removeCity(city, unmappedRoads);
+		Collections.sort(unmappedRoads, new RoadComparator());
+
+		for (QEdge road : unmappedRoads) {
+			/* remove road from canvas */
+			Canvas.instance.removeLine(road.x1, road.y1, road.x2, road.y2,
 					Color.BLACK);
+			addRoadNode(outputNode, "roadUnmapped", road);
+		}
+	}
 
-			/* add success node to results * /
-			addSuccessNode(commandNode, parametersNode, outputNode);
+	/**
+	 * Removes a road from the spatial map. An endpoint left without any roads
+	 * is removed from the map as well.
+	 * 
+	 * @param node
+	 *            unmapRoad command node to be processed
+	 * @throws IOException
+	 *             problem writing the write-ahead log
+	 */
+	public void processUnmapRoad(final Element node)
+			throws IOException {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+
+		final String start = processStringAttribute(node, "start", parametersNode);
+		final String end = processStringAttribute(node, "end", parametersNode);
+
+		final Element outputNode = results.createElement("output");
+
+		if (!citiesByName.containsKey(start)) {
+			addErrorNode("startPointDoesNotExist", commandNode, parametersNode);
+		} else if (!citiesByName.containsKey(end)) {
+			addErrorNode("endPointDoesNotExist", commandNode, parametersNode);
+		} else if (start.equals(end)) {
+			addErrorNode("startEqualsEnd", commandNode, parametersNode);
+		} else {
+			final QEdge road = pmQuadtree.removeRoad(citiesByName.get(start),
+					citiesByName.get(end));
+			if (road == null) {
+				addErrorNode("roadNotMapped", commandNode, parametersNode);
+			} else {
+				/* remove road from canvas */
+				Canvas.instance.removeLine(road.x1, road.y1, road.x2, road.y2,
+						Color.BLACK);
+
+				logMutation(node);
+
+				addRoadNode(outputNode, "roadDeleted", road);
+				addSuccessNode(commandNode, parametersNode, outputNode);
+			}
 		}
-	}*/
+	}
 
 	/**
 	 * Processes a saveMap command. Saves the graphical map to a given file.
@@ -560,12 +883,575 @@ public class Command {
 		final Element outputNode = results.createElement("output");
 
 		/* save canvas to '<name>.png' */
-		Canvas.instance.save(name);
+		saveCanvas(name);
 
 		/* add success node to results */
 		addSuccessNode(commandNode, parametersNode, outputNode);
 	}
 
+	/**
+	 * Processes a saveState command. Writes a binary snapshot of every city,
+	 * the mapped cities and roads, and the PM Quadtree itself to
+	 * '&lt;name&gt;.state', from which loadState can restore them without
+	 * replaying any commands.
+	 * 
+	 * @param node
+	 *            saveState command to be processed
+	 */
+	public void processSaveState(final Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+
+		final String name = processStringAttribute(node, "name", parametersNode);
+
+		final Element outputNode = results.createElement("output");
+
+		final SnapshotBuffer out = new SnapshotBuffer();
+		writeSnapshot(out);
+
+		try {
+			out.write(stage(name, SNAPSHOT_SUFFIX));
+			addSuccessNode(commandNode, parametersNode, outputNode);
+		} catch (IOException e) {
+			unstage(name, SNAPSHOT_SUFFIX);
+			addErrorNode("unableToSaveState", commandNode, parametersNode);
+		}
+	}
+
+	/**
+	 * Processes a loadState command. Replaces every city, the spatial map and
+	 * the PM Quadtree with those of a snapshot written by saveState. The PM
+	 * order and bounds of the snapshot replace those of the commands node;
+	 * the spatial index requested there is kept. Nothing changes if the
+	 * snapshot cannot be read. The snapshot is logged whole, since the file
+	 * may have changed by the time the log is replayed.
+	 * 
+	 * @param node
+	 *            loadState command to be processed
+	 * @throws IOException
+	 *             problem writing the write-ahead log
+	 */
+	public void processLoadState(final Element node) throws IOException {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+
+		final String name = processStringAttribute(node, "name", parametersNode);
+
+		final Element outputNode = results.createElement("output");
+
+		SnapshotBuffer record = null;
+		try {
+			final SnapshotBuffer in = SnapshotBuffer.read(latest(name,
+					SNAPSHOT_SUFFIX));
+			if (log != null) {
+				record = new SnapshotBuffer();
+				record.putByte(LOG_LOAD_STATE);
+				record.putBuffer(in);
+			}
+			restoreSnapshot(in);
+		} catch (IOException e) {
+			addErrorNode("unableToLoadState", commandNode, parametersNode);
+			return;
+		}
+
+		closeImage();
+		if (log != null) {
+			log.append(record);
+			/* the log is better compacted than replayed from here */
+			checkpointDue = true;
+		}
+		addSuccessNode(commandNode, parametersNode, outputNode);
+	}
+
+	/**
+	 * Writes a snapshot of every city, the mapped cities and roads, and the
+	 * PM Quadtree itself.
+	 * 
+	 * @param out
+	 *            buffer the snapshot is put into
+	 */
+	private void writeSnapshot(final SnapshotBuffer out) {
+		out.putInt(SNAPSHOT_MAGIC);
+		out.putInt(SNAPSHOT_VERSION);
+		out.putLong(spatialWidth);
+		out.putLong(spatialHeight);
+		out.putInt(pmQuadtree.getOrder());
+		out.putInt(pmQuadtree instanceof BucketPMQuadTree ? ((BucketPMQuadTree) pmQuadtree)
+				.getLeafCapacity() : 0);
+
+		/* city table; everything else refers to cities by index */
+		final HashMap<String, Integer> cityIds = new HashMap<String, Integer>();
+		out.putInt(citiesByName.size());
+		for (City city : citiesByName.values()) {
+			cityIds.put(city.getName(), cityIds.size());
+			out.putString(city.getName());
+			out.putLong(city.getX());
+			out.putLong(city.getY());
+			out.putInt(city.getRadius());
+			out.putString(city.getColor());
+		}
+		pmQuadtree.writeState(out, cityIds);
+	}
+
+	/**
+	 * Replaces every city, the spatial map and the PM Quadtree with those of
+	 * a snapshot written by writeSnapshot, and redraws the canvas. The PM
+	 * order and bounds of the snapshot replace those of the commands node;
+	 * the spatial index requested there is kept. Nothing changes if the
+	 * snapshot cannot be read.
+	 * 
+	 * @param in
+	 *            buffer holding the snapshot
+	 * @throws IOException
+	 *             the snapshot is truncated or corrupt
+	 */
+	private void restoreSnapshot(final SnapshotBuffer in) throws IOException {
+		/* nothing is drawn until the snapshot has been read in full */
+		final CanvasPlus canvas = Canvas.suspend();
+		try {
+			if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION) {
+				throw new IOException("not a state snapshot");
+			}
+			final long width = in.getLong();
+			final long height = in.getLong();
+			final int pmOrder = in.getInt();
+			final int leafCapacity = in.getInt();
+			if ((pmOrder != 1 && pmOrder != 3) || leafCapacity < 0) {
+				throw new IOException("snapshot corrupt");
+			}
+
+			final City[] cities = new City[in.getIndex(Integer.MAX_VALUE)];
+			final TreeMap<String, City> byName = new TreeMap<String, City>(
+					citiesByName.comparator());
+			final TreeSet<City> byLocation = new TreeSet<City>(
+					new CityLocationComparator());
+			for (int i = 0; i < cities.length; i++) {
+				final String cityName = in.getString();
+				final long x = in.getLong();
+				final long y = in.getLong();
+				final int radius = in.getInt();
+				final String color = in.getString();
+				cities[i] = new City(cityName, x, y, radius, color);
+				if (byName.put(cityName, cities[i]) != null
+						|| !byLocation.add(cities[i])) {
+					throw new IOException("snapshot corrupt");
+				}
+			}
+
+			final PMQuadTree tree = createPMQuadtree(pmOrder, leafCapacity);
+			final SpatialIndex index = createSpatialIndex(spatialIndexName,
+					tree, width, height);
+			tree.readState(in, cities);
+			if (!in.isExhausted()) {
+				throw new IOException("snapshot corrupt");
+			}
+
+			/* the snapshot is good; switch over to it */
+			spatialWidth = width;
+			spatialHeight = height;
+			citiesByName.clear();
+			citiesByName.putAll(byName);
+			citiesByLocation.clear();
+			citiesByLocation.addAll(byLocation);
+			pmQuadtree = tree;
+			spatialIndex = index;
+		} finally {
+			Canvas.resume(canvas);
+		}
+
+		redrawCanvas();
+	}
+
+	/**
+	 * Opens the write-ahead log of a commands node, after bringing the state
+	 * up to date with it: the latest checkpoint, if any, replaces the state,
+	 * and the mutations logged since are replayed on top of it.
+	 * 
+	 * @param name
+	 *            name of the log; the log is kept in '&lt;name&gt;.wal' and
+	 *            its checkpoint in '&lt;name&gt;.checkpoint'
+	 * @param limit
+	 *            size in bytes past which the log is compacted into a new
+	 *            checkpoint
+	 * @throws IOException
+	 *             problem reading the checkpoint or the log
+	 */
+	private void openLog(final String name, final long limit)
+			throws IOException {
+		checkpointFile = new File(name + CHECKPOINT_SUFFIX);
+		logLimit = limit;
+
+		long generation = 0;
+		if (checkpointFile.exists()) {
+			final SnapshotBuffer in = SnapshotBuffer.read(checkpointFile);
+			generation = in.getLong();
+			restoreSnapshot(in);
+		}
+
+		final WriteAheadLog opened = new WriteAheadLog(new File(name
+				+ LOG_SUFFIX), LOG_GROUP_SIZE);
+		if (opened.getGeneration() == generation) {
+			/* replay quietly, with nothing logged */
+			final Element realResultsNode = resultsNode;
+			final ResultWriter realResultWriter = resultWriter;
+			resultsNode = results.createElement("results");
+			resultWriter = null;
+			try {
+				for (SnapshotBuffer record : opened.getRecovered()) {
+					replay(record);
+				}
+			} finally {
+				resultsNode = realResultsNode;
+				resultWriter = realResultWriter;
+			}
+		} else {
+			/* left over from before the checkpoint was taken */
+			opened.reset(generation);
+		}
+
+		/*
+		 * the commands from here on run before the rest of the input has
+		 * been validated; their records are committed a group at a time, so
+		 * a crash loses little, but are cut off unless commitRun is reached
+		 */
+		runStart = opened.size();
+		log = opened;
+	}
+
+	/**
+	 * Makes the run final, once the whole input has been found valid. The
+	 * records still waiting in the write-ahead log are committed, or the
+	 * log is compacted into a new checkpoint if the state has been replaced
+	 * or the log has grown past its limit; compaction waits until now,
+	 * since the run may still have to be cut off the log before this. Then
+	 * the files the run wrote are moved from their staged names into place.
+	 * 
+	 * @throws IOException
+	 *             problem writing the log or the checkpoint, or moving a
+	 *             file into place
+	 */
+	public void commitRun() throws IOException {
+		if (log != null) {
+			if (checkpointDue || log.size() > logLimit) {
+				checkpoint();
+				checkpointDue = false;
+			} else {
+				log.commit();
+			}
+			runStart = -1;
+		}
+		for (Map.Entry<File, File> staged : stagedFiles.entrySet()) {
+			/* a drawing that was never enabled leaves nothing to move */
+			if (staged.getValue().exists()
+					&& !staged.getValue().renameTo(staged.getKey())) {
+				throw new IOException("unable to replace " + staged.getKey());
+			}
+		}
+		stagedFiles.clear();
+	}
+
+	/**
+	 * Ends the run. If commitRun was not reached, the input was invalid:
+	 * the files the run wrote are deleted, and its records, committed or
+	 * not, are cut off the write-ahead log, so that recovery skips the run.
+	 * The log, if any, is closed.
+	 * 
+	 * @throws IOException
+	 *             problem writing the log
+	 */
+	public void endRun() throws IOException {
+		for (File staged : stagedFiles.values()) {
+			staged.delete();
+		}
+		stagedFiles.clear();
+		if (log != null) {
+			final WriteAheadLog closing = log;
+			log = null;
+			try {
+				if (runStart >= 0) {
+					closing.rollBack(runStart);
+					runStart = -1;
+				}
+			} finally {
+				closing.close();
+			}
+		}
+	}
+
+	/**
+	 * Compacts the write-ahead log: writes a checkpoint of the whole state
+	 * under the next generation, then empties the log. The checkpoint
+	 * replaces the previous one only once written in full; until the log is
+	 * emptied, its old generation marks it as already part of the
+	 * checkpoint.
+	 * 
+	 * @throws IOException
+	 *             problem writing the checkpoint or the log
+	 */
+	private void checkpoint() throws IOException {
+		final long generation = log.getGeneration() + 1;
+		final SnapshotBuffer out = new SnapshotBuffer();
+		out.putLong(generation);
+		writeSnapshot(out);
+
+		final File written = new File(checkpointFile.getPath() + ".tmp");
+		out.write(written);
+		if (!written.renameTo(checkpointFile)) {
+			throw new IOException("unable to replace checkpoint");
+		}
+		log.reset(generation);
+	}
+
+	/**
+	 * Appends a mutating command that succeeded to the write-ahead log, if
+	 * there is one. It is committed with the group it falls in.
+	 * 
+	 * @param node
+	 *            command that succeeded
+	 * @throws IOException
+	 *             problem writing the log
+	 */
+	private void logMutation(final Element node) throws IOException {
+		if (log == null) {
+			return;
+		}
+		final SnapshotBuffer record = new SnapshotBuffer(64);
+		final String name = node.getNodeName();
+		if (name.equals("createCity")) {
+			record.putByte(LOG_CREATE_CITY);
+			record.putString(node.getAttribute("name"));
+			record.putLong(Long.parseLong(node.getAttribute("x")));
+			record.putLong(Long.parseLong(node.getAttribute("y")));
+			record.putInt(Integer.parseInt(node.getAttribute("radius")));
+			record.putString(node.getAttribute("color"));
+		} else if (name.equals("deleteCity")) {
+			record.putByte(LOG_DELETE_CITY);
+			record.putString(node.getAttribute("name"));
+		} else if (name.equals("clearAll")) {
+			record.putByte(LOG_CLEAR_ALL);
+		} else if (name.equals("mapCity")) {
+			record.putByte(LOG_MAP_CITY);
+			record.putString(node.getAttribute("name"));
+		} else if (name.equals("mapRoad")) {
+			record.putByte(LOG_MAP_ROAD);
+			record.putString(node.getAttribute("start"));
+			record.putString(node.getAttribute("end"));
+		} else if (name.equals("unmapCity")) {
+			record.putByte(LOG_UNMAP_CITY);
+			record.putString(node.getAttribute("name"));
+		} else {
+			record.putByte(LOG_UNMAP_ROAD);
+			record.putString(node.getAttribute("start"));
+			record.putString(node.getAttribute("end"));
+		}
+		log.append(record);
+	}
+
+	/**
+	 * Performs a mutating command read back from the write-ahead log.
+	 * 
+	 * @param record
+	 *            record written by logMutation
+	 * @throws IOException
+	 *             the record is corrupt
+	 */
+	private void replay(final SnapshotBuffer record) throws IOException {
+		final int op = record.getByte();
+		final Element node;
+		if (op == LOG_CREATE_CITY) {
+			node = results.createElement("createCity");
+			node.setAttribute("name", record.getString());
+			node.setAttribute("x", Long.toString(record.getLong()));
+			node.setAttribute("y", Long.toString(record.getLong()));
+			node.setAttribute("radius", Integer.toString(record.getInt()));
+			node.setAttribute("color", record.getString());
+			processCreateCity(node);
+		} else if (op == LOG_DELETE_CITY) {
+			node = results.createElement("deleteCity");
+			node.setAttribute("name", record.getString());
+			processDeleteCity(node);
+		} else if (op == LOG_CLEAR_ALL) {
+			processClearAll(results.createElement("clearAll"));
+		} else if (op == LOG_MAP_CITY) {
+			node = results.createElement("mapCity");
+			node.setAttribute("name", record.getString());
+			processMapCity(node);
+		} else if (op == LOG_MAP_ROAD) {
+			node = results.createElement("mapRoad");
+			node.setAttribute("start", record.getString());
+			node.setAttribute("end", record.getString());
+			processMapRoad(node);
+		} else if (op == LOG_UNMAP_CITY) {
+			node = results.createElement("unmapCity");
+			node.setAttribute("name", record.getString());
+			processUnmapCity(node);
+		} else if (op == LOG_UNMAP_ROAD) {
+			node = results.createElement("unmapRoad");
+			node.setAttribute("start", record.getString());
+			node.setAttribute("end", record.getString());
+			processUnmapRoad(node);
+		} else if (op == LOG_LOAD_STATE) {
+			restoreSnapshot(record.getBuffer());
+		} else {
+			throw new IOException("log corrupt");
+		}
+	}
+
+	/**
+	 * Processes an exportImage command. Writes a read-only image of the PM
+	 * Quadtree to '&lt;name&gt;.pmimage', which openImage can later map and
+	 * query in place.
+	 * 
+	 * @param node
+	 *            exportImage command to be processed
+	 */
+	public void processExportImage(final Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+
+		final String name = processStringAttribute(node, "name", parametersNode);
+
+		final Element outputNode = results.createElement("output");
+
+		try {
+			PMImage.export(pmQuadtree, stage(name, IMAGE_SUFFIX));
+			addSuccessNode(commandNode, parametersNode, outputNode);
+		} catch (IOException e) {
+			unstage(name, IMAGE_SUFFIX);
+			addErrorNode("unableToExportImage", commandNode, parametersNode);
+		}
+	}
+
+	/**
+	 * Processes an openImage command. Maps an image written by exportImage;
+	 * from then on rangeCities, rangeRoads and nearestCity are answered from
+	 * the image, as the PM Quadtree stood when it was exported, while every
+	 * other command still works on the live structures. The image already
+	 * open, if any, stays open if the new one cannot be mapped. clearAll and
+	 * loadState close the image, since they replace the state it stood in
+	 * for.
+	 * 
+	 * @param node
+	 *            openImage command to be processed
+	 */
+	public void processOpenImage(final Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+
+		final String name = processStringAttribute(node, "name", parametersNode);
+
+		final Element outputNode = results.createElement("output");
+
+		try {
+			image = PMImage.open(latest(name, IMAGE_SUFFIX));
+			addSuccessNode(commandNode, parametersNode, outputNode);
+		} catch (IOException e) {
+			addErrorNode("unableToOpenImage", commandNode, parametersNode);
+		}
+	}
+
+	/**
+	 * Gets the staged name a file is written under until the run is
+	 * committed, and remembers to move it into place then.
+	 * 
+	 * @param name
+	 *            name of the file, without its suffix
+	 * @param suffix
+	 *            suffix of the file
+	 * @return file to write
+	 */
+	private File stage(final String name, final String suffix) {
+		final File staged = new File(name + STAGED_INFIX + suffix);
+		stagedFiles.put(new File(name + suffix), staged);
+		return staged;
+	}
+
+	/**
+	 * Forgets a file whose writing failed, and deletes what was written.
+	 */
+	private void unstage(final String name, final String suffix) {
+		final File staged = stagedFiles.remove(new File(name + suffix));
+		if (staged != null) {
+			staged.delete();
+		}
+	}
+
+	/**
+	 * Gets the file to read for a name: the one this run has staged, if
+	 * any, since it is newer than the one in place.
+	 * 
+	 * @param name
+	 *            name of the file, without its suffix
+	 * @param suffix
+	 *            suffix of the file
+	 * @return file to read
+	 */
+	private File latest(final String name, final String suffix) {
+		final File staged = stagedFiles.get(new File(name + suffix));
+		return staged != null ? staged : new File(name + suffix);
+	}
+
+	/**
+	 * Saves the canvas to '&lt;name&gt;.png', staged until the run is
+	 * committed.
+	 */
+	private void saveCanvas(final String name) throws IOException {
+		stage(name, MAP_SUFFIX);
+		/* the canvas adds the suffix itself */
+		Canvas.instance.save(name + STAGED_INFIX);
+	}
+
+	/**
+	 * Closes the open image, if any, so the live structures answer queries
+	 * again. The image's channel was closed when it was mapped; the mapping
+	 * goes once the image is collected, as Java has no call to unmap it.
+	 */
+	private void closeImage() {
+		image = null;
+	}
+
+	/**
+	 * Draws the canvas again from scratch: the bounds of the map, the
+	 * partitions of the PM Quadtree, and every mapped city and road.
+	 */
+	private void redrawCanvas() {
+		Canvas.instance.clear();
+		Canvas.instance.addRectangle(0, 0, spatialWidth, spatialHeight, Color.BLACK,
+				false);
+		drawPartitions(pmQuadtree.getRoot());
+		for (City city : citiesByName.values()) {
+			if (pmQuadtree.contains(city.getName())) {
+				Canvas.instance.addPoint(city.getName(), city.getX(), city.getY(),
+						Color.BLACK);
+			}
+		}
+		for (QEdge road : pmQuadtree.getRoads()) {
+			Canvas.instance.addLine(road.x1, road.y1, road.x2, road.y2,
+					Color.BLACK);
+		}
+	}
+
+	/**
+	 * Draws the partition lines of every internal node below a PM Quadtree
+	 * node.
+	 */
+	private void drawPartitions(final Node node) {
+		if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			final long cx = gray.getCenterX();
+			final long cy = gray.getCenterY();
+			final long halfWidth = gray.width >> 1;
+			final long halfHeight = gray.height >> 1;
+			Canvas.instance.addLine(cx - halfWidth, cy, cx + halfWidth, cy,
+					Color.GRAY);
+			Canvas.instance.addLine(cx, cy - halfHeight, cx, cy + halfHeight,
+					Color.GRAY);
+			for (int i = 0; i < 4; i++) {
+				drawPartitions(gray.getChild(i));
+			}
+		}
+	}
+
 	/**
 	 * Prints out the structure of the PR Quadtree in a human-readable format.
 	 * 
@@ -583,7 +1469,8 @@ public class Command {
 		} else {
 			/* print PR Quadtree */
 			final Element quadtreeNode = results.createElement("quadtree");
-			quadtreeNode.setAttribute("order", "3");
+			quadtreeNode.setAttribute("order", Integer.toString(pmQuadtree
+					.getOrder()));
 			printPMQuadtreeHelper(pmQuadtree.getRoot(), quadtreeNode);
 
 			outputNode.appendChild(quadtreeNode);
@@ -613,21 +1500,19 @@ public class Command {
 				int card = currentBlack.getRoadsSize();
 				final Element black = results.createElement("black");
 
-				if (currentBlack.hasCity()){
+				for (City currentCity : currentBlack.getCities()){
 					card++;
 					String title = "city";
-					if (pmQuadtree.isInIso(currentBlack.getCity())){
+					if (pmQuadtree.isInIso(currentCity)){
 						title = "isolatedCity";
 					}
 					final Element city = results.createElement(title);
-					city.setAttribute("name", currentBlack.getCity().getName());
-					city.setAttribute("color", currentBlack.getCity().getColor());
-					city.setAttribute("x", Integer.toString((int) currentBlack
-							.getCity().getX()));
-					city.setAttribute("radius", Integer.toString((int) currentBlack
-							.getCity().getRadius()));
-					city.setAttribute("y", Integer.toString((int) currentBlack
-							.getCity().getY()));
+					city.setAttribute("name", currentCity.getName());
+					city.setAttribute("color", currentCity.getColor());
+					city.setAttribute("x", Long.toString(currentCity.getX()));
+					city.setAttribute("radius", Integer.toString(currentCity
+							.getRadius()));
+					city.setAttribute("y", Long.toString(currentCity.getY()));
 					black.appendChild(city);
 				}
 
@@ -650,10 +1535,8 @@ public class Command {
 				/* internal node */
 				final Gray currentGray = (Gray) currentNode;
 				final Element gray = results.createElement("gray");
-				gray.setAttribute("x", Integer.toString((int) currentGray
-						.getCenterX()));
-				gray.setAttribute("y", Integer.toString((int) currentGray
-						.getCenterY()));
+				gray.setAttribute("x", Long.toString(currentGray.getCenterX()));
+				gray.setAttribute("y", Long.toString(currentGray.getCenterY()));
 				for (int i = 0; i < 4; i++) {
 					printPMQuadtreeHelper(currentGray.getChild(i), gray);
 				}
@@ -678,9 +1561,9 @@ public class Command {
 				new CityNameComparator());
 
 		/* extract values from command */
-		final int x = processIntegerAttribute(node, "x", parametersNode);
-		final int y = processIntegerAttribute(node, "y", parametersNode);
-		final int radius = processIntegerAttribute(node, "radius",
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
+		final long radius = processLongAttribute(node, "radius",
 				parametersNode);
 
 		String pathFile = "";
@@ -688,8 +1571,13 @@ public class Command {
 			pathFile = processStringAttribute(node, "saveMap", parametersNode);
 		}
 		/* get cities within range */
-		final Point2D.Double point = new Point2D.Double(x, y);
-		rangeCitiesHelper(point, radius, pmQuadtree.getRoot(), citiesInRange);
+		if (image != null) {
+			image.rangeCities(x, y, radius, citiesInRange);
+		} else if (spatialIndex != null) {
+			spatialIndex.rangeCities(x, y, radius, citiesInRange);
+		} else {
+			pmQuadtree.rangeCities(x, y, radius, citiesInRange);
+		}
 
 		/* print out cities within range */
 		if (citiesInRange.isEmpty()) {
@@ -710,7 +1598,7 @@ public class Command {
 				if(radius != 0) {
 					Canvas.instance.addCircle(x, y, radius, Color.BLUE, false);
 				}
-				Canvas.instance.save(pathFile);
+				saveCanvas(pathFile);
 				if(radius != 0) {
 					Canvas.instance.removeCircle(x, y, radius, Color.BLUE, false);
 				}
@@ -720,6 +1608,42 @@ public class Command {
 
 	
 
+	/**
+	 * Counts the mapped cities within the range of a given point.
+	 * 
+	 * @param node
+	 *            countCitiesInRange command to be processed
+	 */
+	public void processCountCitiesInRange(final Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+		final Element outputNode = results.createElement("output");
+
+		/* extract values from command */
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
+		final long radius = processLongAttribute(node, "radius",
+				parametersNode);
+
+		final int count;
+		if (image != null) {
+			count = image.countCitiesInRange(x, y, radius);
+		} else if (spatialIndex != null) {
+			final ArrayList<City> citiesInRange = new ArrayList<City>();
+			spatialIndex.rangeCities(x, y, radius, citiesInRange);
+			count = citiesInRange.size();
+		} else {
+			count = pmQuadtree.countCitiesInRange(x, y, radius);
+		}
+
+		final Element countNode = results.createElement("cityCount");
+		countNode.setAttribute("value", Integer.toString(count));
+		outputNode.appendChild(countNode);
+
+		/* add success node to results */
+		addSuccessNode(commandNode, parametersNode, outputNode);
+	}
+
 	/**
 	 * Finds the mapped cities within the range of a given point.
 	 * 
@@ -732,22 +1656,27 @@ public class Command {
 		final Element parametersNode = results.createElement("parameters");
 		final Element outputNode = results.createElement("output");
 
-		final TreeSet<QEdge> roadsInRange = new TreeSet<QEdge>(
-				new RoadComparator());
+		final ArrayList<QEdge> roadsInRange = new ArrayList<QEdge>();
 
 		/* extract values from command */
-		final int x = processIntegerAttribute(node, "x", parametersNode);
-		final int y = processIntegerAttribute(node, "y", parametersNode);
-		final int radius = processIntegerAttribute(node, "radius",
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
+		final long radius = processLongAttribute(node, "radius",
 				parametersNode);
 
 		String pathFile = "";
 		if (node.getAttribute("saveMap").compareTo("") != 0) {
 			pathFile = processStringAttribute(node, "saveMap", parametersNode);
 		}
-		/* get cities within range */
-		final Point2D.Double point = new Point2D.Double(x, y);
-		rangeRoadsHelper(point, radius, pmQuadtree.getRoot(), roadsInRange);
+		/* get roads within range */
+		if (image != null) {
+			image.rangeRoads(x, y, radius, roadsInRange);
+		} else if (spatialIndex != null) {
+			spatialIndex.rangeRoads(x, y, radius, roadsInRange);
+		} else {
+			pmQuadtree.rangeRoads(x, y, radius, roadsInRange);
+		}
+		Collections.sort(roadsInRange, new RoadComparator());
 
 		/* print out cities within range */
 		if (roadsInRange.isEmpty()) {
@@ -768,7 +1697,7 @@ public class Command {
 				if(radius != 0) {
 					Canvas.instance.addCircle(x, y, radius, Color.BLUE, false);
 				}
-				Canvas.instance.save(pathFile);
+				saveCanvas(pathFile);
 				if(radius != 0) {
 					Canvas.instance.removeCircle(x, y, radius, Color.BLUE, false);
 				}
@@ -776,77 +1705,6 @@ public class Command {
 		}
 	}
 
-	/**
-	 * Determines if any roads within the PM Quadtree not are within the radius
-	 * of a given point.
-	 * 
-	 * @param point
-	 *            point from which the cities are measured
-	 * @param radius
-	 *            radius from which the given points are measured
-	 * @param node
-	 *            PR Quadtree node being examined
-	 * @param citiesInRange
-	 *            a list of cities found to be in range
-	 */
-	private void rangeCitiesHelper(final Point2D.Double point,
-			final int radius, final Node node, final TreeSet<City> citiesInRange) {
-		if (node.getType() == Node.BLACK && ((Black) node).hasCity()) {
-			final Black black = (Black) node;
-			final double distance = point.distance(black.getCity().toPoint2D());
-			if (distance <= radius) {
-				/* city is in range */
-				final City city = black.getCity();
-				citiesInRange.add(city);
-			}
-		} else if (node.getType() == Node.GRAY) {
-			/* check each quadrant of internal node */
-			final Gray internal = (Gray) node;
-
-			final Circle2D.Double circle = new Circle2D.Double(point, radius);
-			for (int i = 0; i < 4; i++) {
-				if (pmQuadtree.intersects(circle, internal.getChildRegion(i))) {
-					rangeCitiesHelper(point, radius, internal.getChild(i),
-							citiesInRange);
-				}
-			}
-		}
-	}
-
-	private void rangeRoadsHelper(final Point2D.Double point,
-			final int radius, final Node node, final TreeSet<QEdge> roadsInRange) {
-		
-		final Circle2D.Double circle = new Circle2D.Double(point, radius);
-		
-		if (node.getType() == Node.BLACK && ((Black) node).getRoadsSize() > 0) {
-			final Black black = (Black) node;
-			TreeSet<QEdge> roads = black.getRoads();
-			
-			for (QEdge road : roads){
-				final double distance = road.ptLineDist(point);
-				if (distance <= radius){
-					roadsInRange.add(road);
-				}
-			}
-			/*final double distance = point.distance(black.getCity().toPoint2D());
-			if (distance <= radius) {
-				/* city is in range 
-				final City city = black.getCity();
-				roadsInRange.add(city);
-			}*/
-		} else if (node.getType() == Node.GRAY) {
-			/* check each quadrant of internal node */
-			final Gray gray = (Gray) node;
-
-			//final Circle2D.Double circle = new Circle2D.Double(point, radius);
-			for (int i = 0; i < 4; i++) {
-				if (pmQuadtree.intersects(circle, gray.getChildRegion(i))) {
-					rangeRoadsHelper(point, radius, gray.getChild(i),
-							roadsInRange);
-				}
-			}
-		}
-	}
 	/**
 	 * Finds the nearest city to a given point.
 	 * 
@@ -859,10 +1717,22 @@ public class Command {
 		final Element outputNode = results.createElement("output");
 
 		/* extract attribute values from command */
-		final int x = processIntegerAttribute(node, "x", parametersNode);
-		final int y = processIntegerAttribute(node, "y", parametersNode);
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
+
+		final Point2D.Double point = new Point2D.Double(x, y);
 
-		final Point2D.Float point = new Point2D.Float(x, y);
+		if (image != null) {
+			/* the image stands alone; the live structures do not matter */
+			final City n = image.nearestCity(x, y);
+			if (n == null) {
+				addErrorNode("cityNotFound", commandNode, parametersNode);
+			} else {
+				addCityNode(outputNode, n);
+				addSuccessNode(commandNode, parametersNode, outputNode);
+			}
+			return;
+		}
 
 		if (citiesByName.size() <= 0) {
 			addErrorNode("cityNotFound", commandNode, parametersNode);
@@ -886,7 +1756,12 @@ public class Command {
 
 			//nearestCityHelper(prQuadtree.getRoot(), point, nearCities);
 			//NearestCity nearestCity = nearCities.remove();
-			City n = nearestCityHelper2(pmQuadtree.getRoot(), point);
+			City n = spatialIndex != null ? nearestMapped(point)
+					: pmQuadtree.nearestCity(point);
+			if (n == null) {
+				addErrorNode("cityNotFound", commandNode, parametersNode);
+				return;
+			}
 			//addCityNode(outputNode, nearestCity.getCity());
 			addCityNode(outputNode, n);
 
@@ -894,6 +1769,135 @@ public class Command {
 			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
 	}
+	/**
+	 * Finds the nearest road to a given point.
+	 * 
+	 * @param node
+	 *            nearestRoad command being processed
+	 */
+	public void processNearestRoad(Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+		final Element outputNode = results.createElement("output");
+
+		/* extract attribute values from command */
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
+
+		final Point2D.Double point = new Point2D.Double(x, y);
+
+		final QEdge road = spatialIndex != null ? spatialIndex.nearestRoad(x, y)
+				: pmQuadtree.nearestRoad(point);
+		if (road == null) {
+			addErrorNode("roadNotFound", commandNode, parametersNode);
+		} else {
+			addRoadNode(outputNode, road);
+
+			/* add success node to results */
+			addSuccessNode(commandNode, parametersNode, outputNode);
+		}
+	}
+
+	/**
+	 * Finds the mapped city nearest to a given road, other than the road's
+	 * endpoints.
+	 * 
+	 * @param node
+	 *            nearestCityToRoad command being processed
+	 */
+	public void processNearestCityToRoad(Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+		final Element outputNode = results.createElement("output");
+
+		final String start = processStringAttribute(node, "start", parametersNode);
+		final String end = processStringAttribute(node, "end", parametersNode);
+
+		QEdge road = null;
+		if (citiesByName.containsKey(start) && citiesByName.containsKey(end)) {
+			road = pmQuadtree.getRoad(citiesByName.get(start),
+					citiesByName.get(end));
+		}
+
+		if (road == null) {
+			addErrorNode("roadIsNotMapped", commandNode, parametersNode);
+		} else {
+			final City city = pmQuadtree.nearestCityToRoad(road);
+			if (city == null) {
+				addErrorNode("noOtherCitiesMapped", commandNode, parametersNode);
+			} else {
+				addCityNode(outputNode, city);
+
+				/* add success node to results */
+				addSuccessNode(commandNode, parametersNode, outputNode);
+			}
+		}
+	}
+
+	/**
+	 * Finds the k cities nearest to a given point, listed from nearest to
+	 * farthest. Fewer than k cities are listed if fewer are mapped.
+	 * 
+	 * @param node
+	 *            kNearestCities command being processed
+	 */
+	public void processKNearestCities(Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+		final Element outputNode = results.createElement("output");
+
+		/* extract attribute values from command */
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
+		final int k = processIntegerAttribute(node, "k", parametersNode);
+
+		final Point2D.Double point = new Point2D.Double(x, y);
+
+		/* pull cities off the incremental search until k have been seen */
+		final Element cityListNode = results.createElement("cityList");
+		final Iterator<City> nearest = spatialIndex != null ? spatialIndex
+				.nearestCities(x, y) : pmQuadtree.nearestCities(point);
+		int found = 0;
+		while (found < k && nearest.hasNext()) {
+			final City city = nearest.next();
+			if (spatialIndex != null && pmQuadtree.isInIso(city)) {
+				/* the index also holds isolated cities */
+				continue;
+			}
+			addCityNode(cityListNode, city);
+			found++;
+		}
+
+		if (found == 0) {
+			addErrorNode("cityNotFound", commandNode, parametersNode);
+		} else {
+			outputNode.appendChild(cityListNode);
+
+			/* add success node to results */
+			addSuccessNode(commandNode, parametersNode, outputNode);
+		}
+	}
+
+	/**
+	 * Finds the mapped city nearest to a point in the spatial index, other
+	 * than the isolated cities.
+	 * 
+	 * @param point
+	 *            point
+	 * @return the nearest such city, or null if there is none
+	 */
+	private City nearestMapped(Point2D.Double point) {
+		final Iterator<City> nearest = spatialIndex.nearestCities(point.x,
+				point.y);
+		while (nearest.hasNext()) {
+			final City city = nearest.next();
+			if (!pmQuadtree.isInIso(city)) {
+				return city;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Finds the nearest city to a given point.
 	 * 
@@ -906,10 +1910,10 @@ public class Command {
 		final Element outputNode = results.createElement("output");
 
 		/* extract attribute values from command */
-		final int x = processIntegerAttribute(node, "x", parametersNode);
-		final int y = processIntegerAttribute(node, "y", parametersNode);
+		final long x = processLongAttribute(node, "x", parametersNode);
+		final long y = processLongAttribute(node, "y", parametersNode);
 
-		final Point2D.Float point = new Point2D.Float(x, y);
+		final Point2D.Double point = new Point2D.Double(x, y);
 
 		if (citiesByName.size() <= 0) {
 			addErrorNode("cityNotFound", commandNode, parametersNode);
@@ -933,7 +1937,12 @@ public class Command {
 
 			//nearestCityHelper(prQuadtree.getRoot(), point, nearCities);
 			//NearestCity nearestCity = nearCities.remove();
-			City n = nearestCityHelper3(pmQuadtree.getRoot(), point);
+			/* the PM Quadtree keeps isolated cities in an index of their own */
+			City n = pmQuadtree.nearestIsolatedCity(point);
+			if (n == null) {
+				addErrorNode("cityNotFound", commandNode, parametersNode);
+				return;
+			}
 			//addCityNode(outputNode, nearestCity.getCity());
 			addCityNode(outputNode, n);
 
@@ -941,114 +1950,6 @@ public class Command {
 			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
 	}
-	/**
-	 * 2/25/2011
-	 * @param root
-	 * @param point
-	 */
-	private City nearestCityHelper2(Node root, Point2D.Float point) {
-		PriorityQueue<QuadrantDistance> q = new PriorityQueue<QuadrantDistance>();
-		Node currNode = root;
-		while (currNode.getType() != Node.BLACK) {
-			Gray g = (Gray) currNode;
-			for (int i = 0; i < 4; i++) {
-				Node kid = g.children[i];
-
-				if (kid.getType() == Node.GRAY || 
-						(kid.getType() == Node.BLACK && ((Black) kid).hasCity() &&
-						!pmQuadtree.isInIso(((Black) kid).getCity()))) {
-					QuadrantDistance test = new QuadrantDistance(kid, point);
-					if (!q.contains(test))
-						q.add(test);
-				}
-			}
-			currNode = q.remove().quadtreeNode;
-		}
-
-		return ((Black) currNode).getCity();
-	}
-	/*
-	 * sorts for isolated cities
-	 */
-	private City nearestCityHelper3(Node root, Point2D.Float point) {
-		PriorityQueue<QuadrantDistance> q = new PriorityQueue<QuadrantDistance>();
-		Node currNode = root;
-		while (currNode.getType() != Node.BLACK) {
-			Gray g = (Gray) currNode;
-			for (int i = 0; i < 4; i++) {
-				Node kid = g.children[i];
-
-				if (kid.getType() == Node.GRAY || 
-						(kid.getType() == Node.BLACK && ((Black) kid).hasCity() &&
-						pmQuadtree.isInIso(((Black) kid).getCity()))) {
-					QuadrantDistance test = new QuadrantDistance(kid, point);
-					if (!q.contains(test))
-						q.add(test);
-				}
-			}
-			currNode = q.remove().quadtreeNode;
-		}
-
-		return ((Black) currNode).getCity();
-	}
-
-	class QuadrantDistance implements Comparable<QuadrantDistance> {
-		public Node quadtreeNode;
-		private double distance;
-
-		/*
-		public QuadrantDistance(Node node, Point2D.Float pt) {
-			quadtreeNode = node;
-			if (node.getType() == Node.GRAY) {
-				Gray gray = (Gray) node;
-				distance = Shape2DDistanceCalculator.distance(pt, 
-						new Rectangle2D.Float(gray.origin.x, gray.origin.y, gray.width, gray.height));
-			} else if (node.getType() == Node.BLACK) {
-				Black leaf = (Black) node;
-				distance = pt.distance(leaf.getCity().pt);
-			} else {
-				throw new IllegalArgumentException("Only leaf or internal node can be passed in");
-			}
-		}*/
-
-		public QuadrantDistance(Node node, Point2D.Float pt) {
-			quadtreeNode = node;
-			if (node.getType() == Node.GRAY) {
-				Gray gray = (Gray) node;
-				distance = Shape2DDistanceCalculator.distance(pt, 
-						new Rectangle2D.Float(gray.origin.x, gray.origin.y, gray.width, gray.height));
-			} else if (node.getType() == Node.BLACK) {
-				Black leaf = (Black) node;
-				distance = pt.distance(leaf.getCity().pt);
-			} else {
-				throw new IllegalArgumentException("Only leaf or internal node can be passed in");
-			}
-		}
-
-		public int compareTo(QuadrantDistance qd) {
-			if (distance < qd.distance) {
-				return -1;
-			} else if (distance > qd.distance) {
-				return 1;
-			} else {
-				if (quadtreeNode.getType() != qd.quadtreeNode.getType()) {
-					if (quadtreeNode.getType() == Node.GRAY) {
-						return -1;
-					} else {
-						return 1;
-					}
-				} else if (quadtreeNode.getType() == Node.BLACK) {
-					// both are leaves
-					return ((Black) qd.quadtreeNode).getCity().getName().compareTo(
-							((Black) quadtreeNode).getCity().getName());
-				} else {
-					// both are internals
-					return 0;
-				}
-			}
-		}
-	}
-
 	//	/**
 	//	 * Examines the distance from each city in a PR Quadtree node from the given
 	//	 * point.
@@ -1,23 +1,32 @@
 package cmsc420.meeshquest.part2;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import cmsc420.command.Command;
 import cmsc420.utils.Canvas;
+import cmsc420.xml.CommandReader;
+import cmsc420.xml.CommandScanner;
+import cmsc420.xml.CommandSource;
+import cmsc420.xml.ResultWriter;
 import cmsc420.xml.XmlUtility;
 
 /**
@@ -33,6 +42,13 @@ public class MeeshQuest {
 	 */
 	private static final boolean LOCAL_TEST = true; 
 	private static final boolean GENERATE_JUNIT_SRC = false;
+	/**
+	 * bytes of results held back from standard output, within which a fatal
+	 * error can still replace them with &lt;fatalError/&gt;; one found later
+	 * ends the results passed on with a fatalError element, and the run
+	 * exits with -1
+	 */
+	private static final int RESULT_WINDOW = 1 << 20;
 	private static String testName = "";
 	
 	/**
@@ -58,6 +74,21 @@ public class MeeshQuest {
 	 */
 	private Command command;
 
+	/**
+	 * stream the results are written to as they are made
+	 */
+	private OutputStream resultStream;
+
+	/**
+	 * writes the result of each command as soon as it has finished
+	 */
+	private ResultWriter resultWriter;
+
+	/**
+	 * whether the run has failed, so that only a fatal error is reported
+	 */
+	private boolean fatalError;
+
     public static void main(String[] args) {
         final MeeshQuest m = new MeeshQuest();
         
@@ -101,33 +132,69 @@ public class MeeshQuest {
     public void processInput() {
     	
     	Canvas.setEnabled();
+    	fatalError = false;
+    	resultStream = null;
+    	resultWriter = null;
     	
         try {
 			
 			if (LOCAL_TEST) {
 				System.out.println("Open " + "part2." + testName);
 				xmlInput = new File("testfiles/" + testName + ".input.xml");
+				xmlOutput = new File("testfiles/" + testName + ".output.xml");
 			}
-			Document doc = LOCAL_TEST ? XmlUtility.validateNoNamespace(xmlInput) : XmlUtility.validateNoNamespace(systemInput); 
 
             /* create output */
             results = XmlUtility.getDocumentBuilder().newDocument();
             command = new Command();
             command.setResults(results);
 
-            /* process commands element */
-            Element commandNode = doc.getDocumentElement();
-            processCommand(commandNode);
+            /*
+             * write each result as soon as its command has finished; on
+             * standard output, a window of results is held back so that a
+             * fatal error found early on can still replace them
+             */
+            if (LOCAL_TEST) {
+                resultStream = new FileOutputStream(xmlOutput);
+                resultWriter = new ResultWriter(resultStream);
+            } else {
+                resultStream = System.out;
+                resultWriter = new ResultWriter(resultStream, RESULT_WINDOW);
+            }
+            command.setResultWriter(resultWriter);
 
-            /* process each command */
-            final NodeList nl = commandNode.getChildNodes();
-            for (int i = 0; i < nl.getLength(); i++) {
-                if (nl.item(i).getNodeType() == Document.ELEMENT_NODE) {
-                    /* need to check if Element (ignore comments) */
-                    commandNode = (Element) nl.item(i);
+            /*
+             * validate and process the commands element, then each command,
+             * as read; the commands run speculatively, since the input may
+             * still turn out to be invalid further on
+             */
+            CommandSource source = LOCAL_TEST ? CommandScanner.open(xmlInput)
+                    : CommandScanner.open(new FileInputStream(FileDescriptor.in)
+                            .getChannel());
+            InputStream inputStream = null;
+            try {
+                if (source == null) {
+                    /* not a file the scanner can map; parse it in general */
+                    inputStream = new BufferedInputStream(
+                            LOCAL_TEST ? new FileInputStream(xmlInput) : systemInput);
+                    source = new CommandReader(inputStream);
+                }
+                Element commandNode;
+                while ((commandNode = source.next()) != null) {
                     processCommand(commandNode);
                 }
+                source.close();
+
+                /* the whole input is valid; the commands are no longer speculative */
+                command.commitRun();
+            } finally {
+                if (LOCAL_TEST && inputStream != null) {
+                    inputStream.close();
+                }
             }
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+            addFatalError();
         } catch (SAXException e) {
             e.printStackTrace();
             addFatalError();
@@ -138,25 +205,66 @@ public class MeeshQuest {
             e.printStackTrace();
             addFatalError();
         } finally {
-			if (LOCAL_TEST) {
+			/*
+			 * unless the input was found valid, this deletes the files the
+			 * run wrote and cuts the run off the log
+			 */
+			try {
+				if (command != null) {
+					command.endRun();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				addFatalError();
+			}
+			if (resultWriter != null && !fatalError) {
 				try {
-					xmlOutput = new File("testfiles/" + testName + ".output.xml");
-					XmlUtility.write(results, xmlOutput);
+					resultWriter.finish();
 				} catch (Exception e) {
 					e.printStackTrace();
+					addFatalError();
 				}
-			} else {
+			}
+			if (LOCAL_TEST && resultStream != null) {
 				try {
-					XmlUtility.print(results);
-				} catch (TransformerException e) {
+					resultStream.close();
+				} catch (IOException e) {
 					e.printStackTrace();
+					addFatalError();
+				}
+			}
+			if (fatalError) {
+				/* roll back the results written so far to the fatal error */
+				if (!LOCAL_TEST && resultWriter != null && !resultWriter.discard()) {
+					/* more than the window has already gone out; end it there */
+					try {
+						resultWriter.abort();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
 					System.exit(-1);
 				}
+				if (LOCAL_TEST) {
+					try {
+						xmlOutput = new File("testfiles/" + testName + ".output.xml");
+						XmlUtility.write(results, xmlOutput);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				} else {
+					try {
+						XmlUtility.print(results);
+					} catch (TransformerException e) {
+						e.printStackTrace();
+						System.exit(-1);
+					}
+				}
 			}
         }
     }
 
     private void addFatalError() {
+        fatalError = true;
         try {
             results = XmlUtility.getDocumentBuilder().newDocument();
             final Element fatalError = results.createElement("fatalError");
@@ -179,7 +287,7 @@ public class MeeshQuest {
 		} else if (name.equals("createCity")) {
 			command.processCreateCity(commandNode);
 		} else if (name.equals("deleteCity")) {
-			//command.processDeleteCity(commandNode);
+			command.processDeleteCity(commandNode);
 		} else if (name.equals("clearAll")) {
 			command.processClearAll(commandNode);
 		} else if (name.equals("listCities")) {
@@ -187,29 +295,43 @@ public class MeeshQuest {
 		} else if (name.equals("mapCity")) {
 			command.processMapCity(commandNode);
 		} else if (name.equals("unmapCity")) {
-			//command.processUnmapCity(commandNode);
+			command.processUnmapCity(commandNode);
+		} else if (name.equals("unmapRoad")) {
+			command.processUnmapRoad(commandNode);
 		} else if (name.equals("saveMap")) {
 			command.processSaveMap(commandNode);
 		} else if (name.equals("printPMQuadtree")) {
 			command.processPrintPMQuadtree(commandNode);
+		} else if (name.equals("saveState")) {
+			command.processSaveState(commandNode);
+		} else if (name.equals("loadState")) {
+			command.processLoadState(commandNode);
+		} else if (name.equals("exportImage")) {
+			command.processExportImage(commandNode);
+		} else if (name.equals("openImage")) {
+			command.processOpenImage(commandNode);
 		} else if (name.equals("rangeCities")) {
 			command.processRangeCities(commandNode);
+		} else if (name.equals("countCitiesInRange")) {
+			command.processCountCitiesInRange(commandNode);
 		} else if (name.equals("nearestCity")) {
 			command.processNearestCity(commandNode);
+		} else if (name.equals("kNearestCities")) {
+			command.processKNearestCities(commandNode);
 		} else if (name.equals("nearestIsolatedCity")) {
 			command.processNearestIsoCity(commandNode);
 		} else if (name.equals("printAvlTree")) {
-			//command.processNearestIsoCity(commandNode);
+			/* not part of this project */
 		} else if (name.equals("mapRoad")) {
 			command.processMapRoad(commandNode);
 		} else if (name.equals("rangeRoads")) {
 			command.processRangeRoads(commandNode);
 		} else if (name.equals("nearestRoad")) {
-			//command.processNearestRoad(commandNode);
+			command.processNearestRoad(commandNode);
 		} else if (name.equals("nearestCityToRoad")) {
-			//command.processNearestCityToRoad(commandNode);
+			command.processNearestCityToRoad(commandNode);
 		} else if (name.equals("shortestPath")) {
-			//command.processNearestCity(commandNode);
+			/* not part of this project */
 		} else {
 			if (LOCAL_TEST) System.out.println("Problem with the validator");
 			System.exit(-1);
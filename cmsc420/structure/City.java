@@ -20,8 +20,15 @@ public class City {
 	/** name of this city */
 	protected String name;
 
-	/** 2D coordinates of this city */
-	public Point2D.Float pt;
+	/** exact X and Y coordinates of this city */
+	protected long x, y;
+
+	/**
+	 * 2D coordinates of this city, for geometry. Doubles hold every
+	 * coordinate exactly up to 2^53; the exact coordinates are kept in x and
+	 * y regardless.
+	 */
+	public Point2D.Double pt;
 
 	/** radius of this city */
 	protected int radius;
@@ -43,10 +50,12 @@ public class City {
 	 * @param color
 	 *            color of the city
 	 */
-	public City(final String name, final int x, final int y, final int radius,
-			final String color) {
+	public City(final String name, final long x, final long y,
+			final int radius, final String color) {
 		this.name = name;
-		pt = new Point2D.Float(x, y);
+		this.x = x;
+		this.y = y;
+		pt = new Point2D.Double(x, y);
 		this.radius = radius;
 		this.color = color;
 	}
@@ -65,8 +74,8 @@ public class City {
 	 * 
 	 * @return X coordinate of this city
 	 */
-	public int getX() {
-		return (int) pt.x;
+	public long getX() {
+		return x;
 	}
 
 	/**
@@ -74,8 +83,8 @@ public class City {
 	 * 
 	 * @return Y coordinate of this city
 	 */
-	public int getY() {
-		return (int) pt.y;
+	public long getY() {
+		return y;
 	}
 
 	/**
@@ -111,7 +120,7 @@ public class City {
 			return true;
 		if (obj != null && (obj.getClass().equals(this.getClass()))) {
 			City c = (City) obj;
-			return (pt.equals(c.pt) && (radius == c.radius) && color
+			return (x == c.x && y == c.y && (radius == c.radius) && color
 					.equals(c.color));
 		}
 		return false;
@@ -125,15 +134,15 @@ public class City {
 	public int hashCode() {
 		int hash = 12;
 		hash = 37 * hash + name.hashCode();
-		hash = 37 * hash + pt.hashCode();
+		hash = 37 * hash + (int) (x ^ (x >>> 32));
+		hash = 37 * hash + (int) (y ^ (y >>> 32));
 		hash = 37 * hash + radius;
 		hash = 37 * hash + color.hashCode();
 		return hash;
 	}
 
 	/**
-	 * Returns an (x,y) representation of the city. Important: casts the x and y
-	 * coordinates to integers.
+	 * Returns an (x,y) representation of the city.
 	 * 
 	 * @return string representing the location of the city
 	 */
@@ -153,7 +162,7 @@ public class City {
 	 * @return location of this city
 	 */
 	public Point2D toPoint2D() {
-		return new Point2D.Float(pt.x, pt.y);
+		return new Point2D.Double(pt.x, pt.y);
 	}
 	
 	public String toString() {
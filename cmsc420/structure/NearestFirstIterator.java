@@ -0,0 +1,158 @@
+package cmsc420.structure;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Incremental nearest neighbor search (distance browsing) for the
+ * SpatialIndex backends. Nodes of the index and the items stored in it share
+ * one priority queue, keyed by squared distance; a node is expanded only when
+ * it reaches the head of the queue, so each call to next() looks at no more
+ * of the index than it needs to.
+ * <p>
+ * A node is expanded before an item at the same distance, so every item at
+ * that distance is queued before the first of them is returned. Items at the
+ * same distance are then ordered by the given comparator.
+ * 
+ * @param <T>
+ *            type of the items returned
+ */
+public abstract class NearestFirstIterator<T> implements Iterator<T> {
+
+	/** a queued node or item */
+	private static final class Entry {
+		final double distanceSq;
+		final Object value;
+		final boolean item;
+
+		Entry(double distanceSq, Object value, boolean item) {
+			this.distanceSq = distanceSq;
+			this.value = value;
+			this.item = item;
+		}
+	}
+
+	/** pending nodes and items, nearest first */
+	private final PriorityQueue<Entry> queue;
+
+	/** next item to be returned, fetched on demand */
+	private T next;
+
+	/**
+	 * Constructs an empty search.
+	 * 
+	 * @param ties
+	 *            order of items at the same distance
+	 */
+	protected NearestFirstIterator(final Comparator<? super T> ties) {
+		queue = new PriorityQueue<Entry>(64, new Comparator<Entry>() {
+			@SuppressWarnings("unchecked")
+			public int compare(Entry a, Entry b) {
+				if (a.distanceSq != b.distanceSq) {
+					return a.distanceSq < b.distanceSq ? -1 : 1;
+				}
+				if (a.item != b.item) {
+					/* nodes come before items */
+					return a.item ? 1 : -1;
+				}
+				return a.item ? ties.compare((T) a.value, (T) b.value) : 0;
+			}
+		});
+	}
+
+	/**
+	 * Queues a node of the index.
+	 * 
+	 * @param distanceSq
+	 *            squared distance from the query point to the node's bounds
+	 * @param node
+	 *            node to be expanded once it is the closest entry
+	 */
+	protected void pushNode(double distanceSq, Object node) {
+		queue.add(new Entry(distanceSq, node, false));
+	}
+
+	/**
+	 * Queues an item.
+	 * 
+	 * @param distanceSq
+	 *            squared distance from the query point to the item
+	 * @param item
+	 *            item to be returned once it is the closest entry
+	 */
+	protected void pushItem(double distanceSq, T item) {
+		queue.add(new Entry(distanceSq, item, true));
+	}
+
+	/**
+	 * Expands a node that has reached the head of the queue, queueing its
+	 * children and items.
+	 * 
+	 * @param node
+	 *            node to be expanded
+	 */
+	protected abstract void expand(Object node);
+
+	@SuppressWarnings("unchecked")
+	public boolean hasNext() {
+		while (next == null && !queue.isEmpty()) {
+			final Entry head = queue.poll();
+			if (head.item) {
+				next = (T) head.value;
+			} else {
+				expand(head.value);
+			}
+		}
+		return next != null;
+	}
+
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final T item = next;
+		next = null;
+		return item;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Gets the squared distance from a point to a rectangle, zero if the point
+	 * lies within it.
+	 * 
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @param minX
+	 *            left edge of the rectangle
+	 * @param minY
+	 *            bottom edge of the rectangle
+	 * @param maxX
+	 *            right edge of the rectangle
+	 * @param maxY
+	 *            top edge of the rectangle
+	 * @return squared distance from the point to the rectangle
+	 */
+	public static double distanceSq(double x, double y, double minX,
+			double minY, double maxX, double maxY) {
+		double dx = 0;
+		double dy = 0;
+		if (x < minX) {
+			dx = minX - x;
+		} else if (x > maxX) {
+			dx = x - maxX;
+		}
+		if (y < minY) {
+			dy = minY - y;
+		} else if (y > maxY) {
+			dy = y - maxY;
+		}
+		return dx * dx + dy * dy;
+	}
+}
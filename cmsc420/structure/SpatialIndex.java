@@ -0,0 +1,114 @@
+package cmsc420.structure;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import cmsc420.structure.pmquadtree.QEdge;
+
+/**
+ * A spatial index over mapped cities and roads. Every backend answers the
+ * same queries with the same results, ties included, so that one can be
+ * swapped for another to suit the data:
+ * <ul>
+ * <li>cities at the same distance are ordered by CityNameComparator</li>
+ * <li>roads at the same distance are ordered by RoadComparator</li>
+ * <li>a city or road on the edge of a query circle is in range</li>
+ * </ul>
+ * Cities are indexed on their own; adding a road does not add its endpoints.
+ */
+public interface SpatialIndex {
+
+	/**
+	 * Adds a city to the index.
+	 * 
+	 * @param city
+	 *            city to be added; must not already be in the index
+	 */
+	public void addCity(City city);
+
+	/**
+	 * Removes a city from the index.
+	 * 
+	 * @param city
+	 *            city to be removed
+	 * @return true if the city was in the index
+	 */
+	public boolean removeCity(City city);
+
+	/**
+	 * Adds a road to the index.
+	 * 
+	 * @param road
+	 *            road to be added; must not already be in the index
+	 */
+	public void addRoad(QEdge road);
+
+	/**
+	 * Removes a road from the index.
+	 * 
+	 * @param road
+	 *            road to be removed
+	 * @return true if the road was in the index
+	 */
+	public boolean removeRoad(QEdge road);
+
+	/**
+	 * Removes every city and road from the index.
+	 */
+	public void clear();
+
+	/**
+	 * Collects the cities within a given distance of a point.
+	 * 
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @param citiesInRange
+	 *            collection the cities found are added to
+	 */
+	public void rangeCities(long x, long y, long radius,
+			Collection<City> citiesInRange);
+
+	/**
+	 * Collects the roads that pass within a given distance of a point. Each
+	 * road is added once.
+	 * 
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @param roadsInRange
+	 *            collection the roads found are added to
+	 */
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange);
+
+	/**
+	 * Iterates over the cities in order of increasing distance from a point.
+	 * Taking the first k gives the k nearest cities. The index must not be
+	 * modified while the iterator is in use.
+	 * 
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @return iterator over the cities, nearest first
+	 */
+	public Iterator<City> nearestCities(double x, double y);
+
+	/**
+	 * Finds the road closest to a point.
+	 * 
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @return nearest road, or null if the index holds no roads
+	 */
+	public QEdge nearestRoad(double x, double y);
+}
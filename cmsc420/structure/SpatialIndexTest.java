@@ -0,0 +1,300 @@
+package cmsc420.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import cmsc420.structure.grid.GridIndex;
+import cmsc420.structure.kdtree.KdTree;
+import cmsc420.structure.pmquadtree.QEdge;
+import cmsc420.structure.prquadtree.PRQuadtreeIndex;
+import cmsc420.structure.rtree.PackedRTree;
+import cmsc420.structure.rtree.RTree;
+import cmsc420.utils.Lib;
+
+/**
+ * Conformance tests every SpatialIndex backend has to pass. Each answer is
+ * checked against a brute-force search over the cities and roads added, ties
+ * and all, so the backends are interchangeable.
+ */
+@RunWith(Parameterized.class)
+public class SpatialIndexTest {
+
+	/** side of the spatial map the tests use */
+	private static final long SIZE = 1024;
+
+	/** kind of index under test, as named by the spatialIndex attribute */
+	private final String kind;
+
+	private SpatialIndex index;
+
+	public SpatialIndexTest(String kind) {
+		this.kind = kind;
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> backends() {
+		return Arrays.asList(new Object[][] { { "prquadtree" }, { "kdtree" },
+				{ "rtree" }, { "strtree" }, { "grid" } });
+	}
+
+	@Before
+	public void createIndex() {
+		if (kind.equals("prquadtree")) {
+			index = new PRQuadtreeIndex();
+		} else if (kind.equals("kdtree")) {
+			index = new KdTree();
+		} else if (kind.equals("rtree")) {
+			index = new RTree();
+		} else if (kind.equals("strtree")) {
+			index = new PackedRTree();
+		} else {
+			index = new GridIndex(SIZE, SIZE);
+		}
+	}
+
+	@Test
+	public void emptyIndexFindsNothing() {
+		final ArrayList<City> cities = new ArrayList<City>();
+		index.rangeCities(0, 0, SIZE * 2, cities);
+		assertTrue(cities.isEmpty());
+		final ArrayList<QEdge> roads = new ArrayList<QEdge>();
+		index.rangeRoads(0, 0, SIZE * 2, roads);
+		assertTrue(roads.isEmpty());
+		assertFalse(index.nearestCities(5, 5).hasNext());
+		assertNull(index.nearestRoad(5, 5));
+	}
+
+	@Test
+	public void rangeIncludesTheEdgeOfTheCircle() {
+		final City a = new City("A", 10, 10, 1, "black");
+		final City b = new City("B", 13, 14, 1, "black");
+		index.addCity(a);
+		index.addCity(b);
+		assertEquals(set(a, b), rangeCities(10, 10, 5));
+		assertEquals(set(a), rangeCities(10, 10, 4));
+
+		final QEdge road = new QEdge(a, new City("C", 10, 30, 1, "black"));
+		index.addRoad(road);
+		assertEquals(Collections.singletonList(road), rangeRoads(15, 20, 5));
+		assertTrue(rangeRoads(15, 20, 4).isEmpty());
+	}
+
+	@Test
+	public void addingARoadDoesNotAddItsEndpoints() {
+		index.addRoad(new QEdge(new City("A", 1, 1, 1, "black"), new City(
+				"B", 9, 9, 1, "black")));
+		assertTrue(rangeCities(5, 5, SIZE).isEmpty());
+		assertFalse(index.nearestCities(5, 5).hasNext());
+	}
+
+	@Test
+	public void nearestCitiesBreaksTiesByName() {
+		final City north = new City("North", 100, 110, 1, "black");
+		final City south = new City("South", 100, 90, 1, "black");
+		final City east = new City("East", 110, 100, 1, "black");
+		final City far = new City("Far", 300, 300, 1, "black");
+		index.addCity(north);
+		index.addCity(far);
+		index.addCity(south);
+		index.addCity(east);
+		final List<City> expected = new ArrayList<City>(Arrays.asList(north,
+				south, east));
+		Collections.sort(expected, new CityNameComparator());
+		expected.add(far);
+		assertEquals(expected, drain(index.nearestCities(100, 100)));
+	}
+
+	@Test
+	public void nearestRoadBreaksTiesByRoadComparator() {
+		final City center = new City("M", 50, 50, 1, "black");
+		final QEdge left = new QEdge(new City("A", 40, 0, 1, "black"),
+				new City("B", 40, 100, 1, "black"));
+		final QEdge right = new QEdge(new City("C", 60, 0, 1, "black"),
+				new City("D", 60, 100, 1, "black"));
+		index.addRoad(left);
+		index.addRoad(right);
+		final QEdge expected = new RoadComparator().compare(left, right) < 0 ? left
+				: right;
+		assertSame(expected, index.nearestRoad(center.getX(), center.getY()));
+	}
+
+	@Test
+	public void removedItemsAreNoLongerFound() {
+		final City a = new City("A", 10, 10, 1, "black");
+		final City b = new City("B", 20, 20, 1, "black");
+		final QEdge road = new QEdge(a, b);
+		index.addCity(a);
+		index.addCity(b);
+		index.addRoad(road);
+
+		assertTrue(index.removeCity(a));
+		assertFalse(index.removeCity(a));
+		assertEquals(set(b), rangeCities(0, 0, SIZE));
+		assertSame(b, index.nearestCities(0, 0).next());
+
+		assertTrue(index.removeRoad(road));
+		assertFalse(index.removeRoad(road));
+		assertTrue(rangeRoads(15, 15, SIZE).isEmpty());
+		assertNull(index.nearestRoad(15, 15));
+	}
+
+	@Test
+	public void clearEmptiesTheIndex() {
+		final City a = new City("A", 10, 10, 1, "black");
+		final City b = new City("B", 20, 20, 1, "black");
+		index.addCity(a);
+		index.addCity(b);
+		index.addRoad(new QEdge(a, b));
+		index.clear();
+		assertTrue(rangeCities(0, 0, SIZE * 2).isEmpty());
+		assertTrue(rangeRoads(0, 0, SIZE * 2).isEmpty());
+		assertNull(index.nearestRoad(0, 0));
+
+		/* and is usable again afterwards */
+		index.addCity(b);
+		assertEquals(set(b), rangeCities(0, 0, SIZE * 2));
+	}
+
+	@Test
+	public void randomWorkloadMatchesBruteForce() {
+		final Random random = new Random(420);
+		final ArrayList<City> cities = new ArrayList<City>();
+		final ArrayList<QEdge> roads = new ArrayList<QEdge>();
+		final HashSet<String> locations = new HashSet<String>();
+
+		for (int step = 0; step < 600; step++) {
+			final int action = random.nextInt(10);
+			if (action < 4 || cities.size() < 2) {
+				final long x = random.nextInt((int) SIZE);
+				final long y = random.nextInt((int) SIZE);
+				if (locations.add(x + "," + y)) {
+					final City city = new City("C" + step, x, y, 1, "black");
+					cities.add(city);
+					index.addCity(city);
+				}
+			} else if (action < 6) {
+				final City start = cities.get(random.nextInt(cities.size()));
+				final City end = cities.get(random.nextInt(cities.size()));
+				final QEdge road = new QEdge(start, end);
+				if (start != end && !roads.contains(road)) {
+					roads.add(road);
+					index.addRoad(road);
+				}
+			} else if (action < 7) {
+				final City city = cities.remove(random.nextInt(cities.size()));
+				locations.remove(city.getX() + "," + city.getY());
+				assertTrue(index.removeCity(city));
+			} else if (action < 8 && !roads.isEmpty()) {
+				assertTrue(index.removeRoad(roads.remove(random
+						.nextInt(roads.size()))));
+			} else {
+				checkQueries(random, cities, roads);
+			}
+		}
+		checkQueries(random, cities, roads);
+	}
+
+	/**
+	 * Runs a query of each kind from a random point and compares the answers
+	 * with a brute-force search.
+	 */
+	private void checkQueries(Random random, List<City> cities,
+			List<QEdge> roads) {
+		final long x = random.nextInt((int) SIZE);
+		final long y = random.nextInt((int) SIZE);
+		final long radius = random.nextInt((int) SIZE / 4);
+
+		final HashSet<City> citiesInRange = new HashSet<City>();
+		for (City city : cities) {
+			if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+				citiesInRange.add(city);
+			}
+		}
+		assertEquals(kind, citiesInRange, rangeCities(x, y, radius));
+
+		final HashSet<QEdge> roadsInRange = new HashSet<QEdge>();
+		for (QEdge road : roads) {
+			if (Lib.segmentWithin(road, x, y, radius)) {
+				roadsInRange.add(road);
+			}
+		}
+		final List<QEdge> foundRoads = rangeRoads(x, y, radius);
+		assertEquals(kind, roadsInRange.size(), foundRoads.size());
+		assertEquals(kind, roadsInRange, new HashSet<QEdge>(foundRoads));
+
+		final ArrayList<City> byDistance = new ArrayList<City>(cities);
+		Collections.sort(byDistance, byDistanceFrom(x, y));
+		assertEquals(kind, byDistance, drain(index.nearestCities(x, y)));
+
+		QEdge nearest = null;
+		for (QEdge road : roads) {
+			if (nearest == null) {
+				nearest = road;
+				continue;
+			}
+			final int order = Double.compare(road.ptSegDistSq(x, y), nearest
+					.ptSegDistSq(x, y));
+			if (order < 0 || order == 0
+					&& new RoadComparator().compare(road, nearest) < 0) {
+				nearest = road;
+			}
+		}
+		assertEquals(kind, nearest, index.nearestRoad(x, y));
+	}
+
+	private static Comparator<City> byDistanceFrom(final long x, final long y) {
+		final CityNameComparator byName = new CityNameComparator();
+		return new Comparator<City>() {
+			public int compare(City a, City b) {
+				final int order = Double.compare(a.pt.distanceSq(x, y), b.pt
+						.distanceSq(x, y));
+				return order != 0 ? order : byName.compare(a, b);
+			}
+		};
+	}
+
+	private HashSet<City> rangeCities(long x, long y, long radius) {
+		final ArrayList<City> found = new ArrayList<City>();
+		index.rangeCities(x, y, radius, found);
+		final HashSet<City> distinct = new HashSet<City>(found);
+		assertEquals("a city was found twice", found.size(), distinct.size());
+		return distinct;
+	}
+
+	private List<QEdge> rangeRoads(long x, long y, long radius) {
+		final ArrayList<QEdge> found = new ArrayList<QEdge>();
+		index.rangeRoads(x, y, radius, found);
+		return found;
+	}
+
+	private static List<City> drain(Iterator<City> iterator) {
+		final ArrayList<City> cities = new ArrayList<City>();
+		while (iterator.hasNext()) {
+			cities.add(iterator.next());
+		}
+		return cities;
+	}
+
+	private static HashSet<City> set(City... cities) {
+		return new HashSet<City>(Arrays.asList(cities));
+	}
+}
@@ -0,0 +1,394 @@
+package cmsc420.structure.grid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import cmsc420.structure.City;
+import cmsc420.structure.CityNameComparator;
+import cmsc420.structure.NearestFirstIterator;
+import cmsc420.structure.RoadComparator;
+import cmsc420.structure.SpatialIndex;
+import cmsc420.structure.pmquadtree.QEdge;
+import cmsc420.utils.Lib;
+
+/**
+ * SpatialIndex backed by a uniform grid of square cells (a spatial hash),
+ * suited to cities scattered evenly over the map. Each city is given an
+ * integer ID, and each cell holds a plain array of the IDs of its cities.
+ * <p>
+ * Cells are sized from the extent of the map and the number of cities, so
+ * that a cell holds about LOAD cities; the grid is rebuilt with smaller
+ * cells as cities are added, and with a larger extent when a city lies
+ * outside it. Range queries look only at the cells overlapping the square
+ * around the circle. Nearest queries look at the rings of cells around the
+ * query point's cell, one ring at a time, out to the distance of the city
+ * returned.
+ * <p>
+ * Roads are kept in a list and every road query scans it.
+ */
+public class GridIndex implements SpatialIndex {
+
+	/** number of cities a cell is sized to hold */
+	static final int LOAD = 2;
+
+	/** cities per cell, on average, at which the cells are made smaller */
+	static final int MAX_LOAD = 4 * LOAD;
+
+	/** number of cities the grid is first sized for */
+	static final int INITIAL_CAPACITY = 64;
+
+	/** ordering of cities at the same distance */
+	private static final CityNameComparator CITY_ORDER = new CityNameComparator();
+
+	/** ordering of roads at the same distance */
+	private static final RoadComparator ROAD_ORDER = new RoadComparator();
+
+	/** cities by ID; null for unused IDs */
+	protected City[] cities = new City[INITIAL_CAPACITY];
+
+	/** ID of each indexed city */
+	protected final HashMap<City, Integer> ids = new HashMap<City, Integer>();
+
+	/** IDs released by removed cities, to be reused */
+	protected int[] freeIds = new int[16];
+
+	/** number of released IDs */
+	protected int freeCount;
+
+	/** lowest ID never used */
+	protected int nextId;
+
+	/** IDs of the cities in each cell, row by row */
+	protected int[][] cells;
+
+	/** number of IDs in use in each cell */
+	protected int[] cellSizes;
+
+	/** lower left corner of the grid */
+	protected long originX, originY;
+
+	/** side of a cell */
+	protected long cellSize;
+
+	/** number of columns and rows of cells */
+	protected int cols, rows;
+
+	/** extent the grid was constructed with */
+	protected final long spatialWidth, spatialHeight;
+
+	/** indexed roads */
+	protected final ArrayList<QEdge> roads = new ArrayList<QEdge>();
+
+	/**
+	 * Constructs an empty grid over a spatial map.
+	 *
+	 * @param spatialWidth
+	 *            width of the spatial map
+	 * @param spatialHeight
+	 *            height of the spatial map
+	 */
+	public GridIndex(long spatialWidth, long spatialHeight) {
+		this.spatialWidth = Math.max(1, spatialWidth);
+		this.spatialHeight = Math.max(1, spatialHeight);
+		layout(0, 0, this.spatialWidth, this.spatialHeight, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Lays out an empty grid over a region, with cells sized for a number of
+	 * cities.
+	 */
+	private void layout(long x, long y, long width, long height, int capacity) {
+		/*
+		 * side of a square holding LOAD cities at the expected density, but
+		 * no smaller than a long, thin map allows for that many cells
+		 */
+		final double cellCount = Math.max(1, capacity / LOAD);
+		final double area = (double) width * height;
+		cellSize = Math.max(1, (long) Math.ceil(Math.max(Math.sqrt(area
+				/ cellCount), Math.max(width, height) / cellCount)));
+		originX = x;
+		originY = y;
+		cols = (int) Math.max(1, (width + cellSize - 1) / cellSize);
+		rows = (int) Math.max(1, (height + cellSize - 1) / cellSize);
+		cells = new int[cols * rows][];
+		cellSizes = new int[cols * rows];
+	}
+
+	/**
+	 * Lays the grid out again over a region and puts every city back in it.
+	 */
+	private void rebuild(long x, long y, long width, long height, int capacity) {
+		layout(x, y, width, height, capacity);
+		for (int id = 0; id < nextId; id++) {
+			if (cities[id] != null) {
+				insert(id);
+			}
+		}
+	}
+
+	public void addCity(City city) {
+		if (ids.containsKey(city)) {
+			throw new IllegalArgumentException("city already indexed");
+		}
+
+		/* widen the grid to hold the city, keeping its cells where they are */
+		if (!covers(city)) {
+			final long minX = Math.min(originX, city.getX());
+			final long minY = Math.min(originY, city.getY());
+			final long maxX = Math.max(originX + cols * cellSize, city.getX() + 1);
+			final long maxY = Math.max(originY + rows * cellSize, city.getY() + 1);
+			rebuild(minX, minY, maxX - minX, maxY - minY, ids.size() + 1);
+		}
+
+		final int id;
+		if (freeCount > 0) {
+			id = freeIds[--freeCount];
+		} else {
+			if (nextId == cities.length) {
+				final City[] grown = new City[cities.length << 1];
+				System.arraycopy(cities, 0, grown, 0, nextId);
+				cities = grown;
+			}
+			id = nextId++;
+		}
+		cities[id] = city;
+		ids.put(city, id);
+		insert(id);
+
+		if (ids.size() > (long) MAX_LOAD * cols * rows) {
+			/* too crowded: smaller cells over the same extent */
+			rebuild(originX, originY, cols * cellSize, rows * cellSize,
+					ids.size());
+		}
+	}
+
+	public boolean removeCity(City city) {
+		final Integer id = ids.remove(city);
+		if (id == null) {
+			return false;
+		}
+		final int cell = cellOf(city.getX(), city.getY());
+		final int[] members = cells[cell];
+		for (int i = 0; i < cellSizes[cell]; i++) {
+			if (members[i] == id) {
+				/* order within a cell does not matter */
+				members[i] = members[--cellSizes[cell]];
+				break;
+			}
+		}
+		cities[id] = null;
+		if (freeCount == freeIds.length) {
+			final int[] grown = new int[freeIds.length << 1];
+			System.arraycopy(freeIds, 0, grown, 0, freeCount);
+			freeIds = grown;
+		}
+		freeIds[freeCount++] = id;
+		return true;
+	}
+
+	public void addRoad(QEdge road) {
+		roads.add(road);
+	}
+
+	public boolean removeRoad(QEdge road) {
+		return roads.remove(road);
+	}
+
+	public void clear() {
+		cities = new City[INITIAL_CAPACITY];
+		ids.clear();
+		freeCount = 0;
+		nextId = 0;
+		roads.clear();
+		layout(0, 0, spatialWidth, spatialHeight, INITIAL_CAPACITY);
+	}
+
+	public void rangeCities(long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		final int minCol = col(x - radius);
+		final int maxCol = col(x + radius);
+		final int minRow = row(y - radius);
+		final int maxRow = row(y + radius);
+		for (int r = minRow; r <= maxRow; r++) {
+			for (int c = minCol; c <= maxCol; c++) {
+				final int cell = r * cols + c;
+				final int[] members = cells[cell];
+				for (int i = 0; i < cellSizes[cell]; i++) {
+					final City city = cities[members[i]];
+					if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+						citiesInRange.add(city);
+					}
+				}
+			}
+		}
+	}
+
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		for (QEdge road : roads) {
+			if (Lib.segmentWithin(road, x, y, radius)) {
+				roadsInRange.add(road);
+			}
+		}
+	}
+
+	public Iterator<City> nearestCities(final double x, final double y) {
+		/* the query point, moved onto the grid if it lies outside of it */
+		final double px = Math.max(originX, Math.min(x, originX + cols
+				* (double) cellSize));
+		final double py = Math.max(originY, Math.min(y, originY + rows
+				* (double) cellSize));
+		final int centerCol = col((long) Math.floor(px));
+		final int centerRow = row((long) Math.floor(py));
+
+		return new NearestFirstIterator<City>(CITY_ORDER) {
+			{
+				pushNode(0, 0);
+			}
+
+			protected void expand(Object value) {
+				final int ring = (Integer) value;
+				final int minCol = centerCol - ring;
+				final int maxCol = centerCol + ring;
+				final int minRow = centerRow - ring;
+				final int maxRow = centerRow + ring;
+				for (int r = Math.max(minRow, 0); r <= Math.min(maxRow,
+						rows - 1); r++) {
+					if (r == minRow || r == maxRow) {
+						for (int c = Math.max(minCol, 0); c <= Math.min(
+								maxCol, cols - 1); c++) {
+							pushCell(r * cols + c);
+						}
+					} else {
+						if (minCol >= 0) {
+							pushCell(r * cols + minCol);
+						}
+						if (maxCol < cols && maxCol != minCol) {
+							pushCell(r * cols + maxCol);
+						}
+					}
+				}
+
+				/*
+				 * every cell of the next ring lies past one of the sides of
+				 * the block of cells seen so far, and the moved query point
+				 * is no farther from such a cell than the query point itself
+				 */
+				double bound = Double.POSITIVE_INFINITY;
+				if (minCol > 0) {
+					bound = Math.min(bound, px - (originX + minCol * cellSize));
+				}
+				if (maxCol < cols - 1) {
+					bound = Math.min(bound, originX + (maxCol + 1) * cellSize
+							- px);
+				}
+				if (minRow > 0) {
+					bound = Math.min(bound, py - (originY + minRow * cellSize));
+				}
+				if (maxRow < rows - 1) {
+					bound = Math.min(bound, originY + (maxRow + 1) * cellSize
+							- py);
+				}
+				if (bound != Double.POSITIVE_INFINITY) {
+					pushNode(bound * bound, ring + 1);
+				}
+			}
+
+			private void pushCell(int cell) {
+				final int[] members = cells[cell];
+				for (int i = 0; i < cellSizes[cell]; i++) {
+					final City city = cities[members[i]];
+					pushItem(city.pt.distanceSq(x, y), city);
+				}
+			}
+		};
+	}
+
+	public QEdge nearestRoad(double x, double y) {
+		QEdge nearest = null;
+		double nearestDistanceSq = Double.POSITIVE_INFINITY;
+		for (QEdge road : roads) {
+			final double d = road.ptSegDistSq(x, y);
+			if (d < nearestDistanceSq
+					|| (d == nearestDistanceSq && ROAD_ORDER.compare(road,
+							nearest) < 0)) {
+				nearest = road;
+				nearestDistanceSq = d;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Adds the city with an ID to the cell it lies in.
+	 */
+	private void insert(int id) {
+		final City city = cities[id];
+		final int cell = cellOf(city.getX(), city.getY());
+		int[] members = cells[cell];
+		if (members == null) {
+			members = cells[cell] = new int[LOAD];
+		} else if (cellSizes[cell] == members.length) {
+			members = new int[members.length << 1];
+			System.arraycopy(cells[cell], 0, members, 0, cellSizes[cell]);
+			cells[cell] = members;
+		}
+		members[cellSizes[cell]++] = id;
+	}
+
+	/**
+	 * Returns if a city lies within the cells of the grid.
+	 */
+	private boolean covers(City city) {
+		return city.getX() >= originX && city.getY() >= originY
+				&& city.getX() - originX < cols * cellSize
+				&& city.getY() - originY < rows * cellSize;
+	}
+
+	/**
+	 * Gets the index of the cell holding a point.
+	 */
+	private int cellOf(long x, long y) {
+		return row(y) * cols + col(x);
+	}
+
+	/**
+	 * Gets the column holding an X coordinate, or the nearest column if the
+	 * coordinate is off the grid.
+	 */
+	private int col(long x) {
+		return index(x - originX, x <= originX, cols);
+	}
+
+	/**
+	 * Gets the row holding a Y coordinate, or the nearest row if the
+	 * coordinate is off the grid.
+	 */
+	private int row(long y) {
+		return index(y - originY, y <= originY, rows);
+	}
+
+	/**
+	 * Gets the column or row at an offset from the origin of the grid,
+	 * clamped to the grid.
+	 *
+	 * @param offset
+	 *            offset from the origin; negative if the subtraction
+	 *            overflowed
+	 * @param before
+	 *            whether the coordinate is at or before the origin
+	 * @param count
+	 *            number of columns or rows
+	 */
+	private int index(long offset, boolean before, int count) {
+		if (before) {
+			return 0;
+		}
+		if (offset < 0 || offset / cellSize >= count) {
+			return count - 1;
+		}
+		return (int) (offset / cellSize);
+	}
+}
@@ -0,0 +1,373 @@
+package cmsc420.structure.kdtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import cmsc420.structure.City;
+import cmsc420.structure.CityNameComparator;
+import cmsc420.structure.NearestFirstIterator;
+import cmsc420.structure.RoadComparator;
+import cmsc420.structure.SpatialIndex;
+import cmsc420.structure.pmquadtree.QEdge;
+import cmsc420.utils.Lib;
+
+/**
+ * SpatialIndex backed by two k-d trees, one of cities and one of roads.
+ * <p>
+ * Each node holds one item, keyed by the center of the item's bounding box
+ * (a city's own location, a road's midpoint), and splits on X and Y in turn.
+ * A key less than a node's goes to its low side, any other key to its high
+ * side. Every node also keeps the bounding box of its whole subtree, which is
+ * what queries prune on, so roads need no special handling even though they
+ * extend past their keys.
+ * <p>
+ * The trees are kept balanced the way a scapegoat tree is: an insertion that
+ * ends up too deep rebuilds the smallest unbalanced subtree above it around
+ * its medians. Removal only marks a node deleted; the whole tree is rebuilt
+ * once deleted nodes outnumber the live ones.
+ */
+public class KdTree implements SpatialIndex {
+
+	/** largest share of a subtree either side of a node may hold */
+	private static final double ALPHA = 0.7;
+
+	/** ordering of cities at the same distance */
+	private static final CityNameComparator CITY_ORDER = new CityNameComparator();
+
+	/** ordering of roads at the same distance */
+	private static final RoadComparator ROAD_ORDER = new RoadComparator();
+
+	/**
+	 * Node of a k-d tree.
+	 */
+	static final class KdNode {
+		/** city or road stored at this node */
+		final Object item;
+
+		/** bounding box of the item */
+		final double itemMinX, itemMinY, itemMaxX, itemMaxY;
+
+		/** bounding box of every item in this subtree, deleted ones included */
+		double minX, minY, maxX, maxY;
+
+		/** children; low holds the smaller keys on this node's axis */
+		KdNode low, high;
+
+		/** number of nodes in this subtree, deleted ones included */
+		int size = 1;
+
+		/** whether the item has been removed */
+		boolean deleted;
+
+		KdNode(Object item, double minX, double minY, double maxX, double maxY) {
+			this.item = item;
+			itemMinX = this.minX = minX;
+			itemMinY = this.minY = minY;
+			itemMaxX = this.maxX = maxX;
+			itemMaxY = this.maxY = maxY;
+		}
+
+		/** key of the item on an axis, 0 for X and 1 for Y */
+		double key(int axis) {
+			return axis == 0 ? itemMinX + itemMaxX : itemMinY + itemMaxY;
+		}
+
+		/** grows the subtree bounds to include a box */
+		void include(double x1, double y1, double x2, double y2) {
+			minX = Math.min(minX, x1);
+			minY = Math.min(minY, y1);
+			maxX = Math.max(maxX, x2);
+			maxY = Math.max(maxY, y2);
+		}
+	}
+
+	/**
+	 * A single k-d tree of items of one kind.
+	 */
+	static final class Tree {
+		/** root node, or null when empty */
+		KdNode root;
+
+		/** number of live and of deleted nodes */
+		int live, deleted;
+
+		void insert(KdNode node) {
+			live++;
+			if (root == null) {
+				root = node;
+				return;
+			}
+
+			/* descend, remembering the path for rebalancing */
+			final ArrayList<KdNode> path = new ArrayList<KdNode>();
+			KdNode current = root;
+			int axis = 0;
+			while (current != null) {
+				path.add(current);
+				current.size++;
+				current.include(node.itemMinX, node.itemMinY, node.itemMaxX,
+						node.itemMaxY);
+				final KdNode next = node.key(axis) < current.key(axis) ? current.low
+						: current.high;
+				if (next == null) {
+					if (node.key(axis) < current.key(axis)) {
+						current.low = node;
+					} else {
+						current.high = node;
+					}
+				}
+				current = next;
+				axis ^= 1;
+			}
+
+			if (path.size() > Math.log(live + deleted) / Math.log(1 / ALPHA)) {
+				/* too deep: rebuild the lowest unbalanced subtree above it */
+				for (int i = path.size() - 1; i >= 0; i--) {
+					final KdNode top = path.get(i);
+					if (Math.max(size(top.low), size(top.high)) > ALPHA
+							* top.size) {
+						final KdNode rebuilt = rebuild(top, i & 1);
+						if (i == 0) {
+							root = rebuilt;
+						} else if (path.get(i - 1).low == top) {
+							path.get(i - 1).low = rebuilt;
+						} else {
+							path.get(i - 1).high = rebuilt;
+						}
+						/* deleted nodes were dropped from the rebuilt subtree */
+						final int dropped = top.size - size(rebuilt);
+						for (int j = 0; j < i; j++) {
+							path.get(j).size -= dropped;
+						}
+						deleted -= dropped;
+						break;
+					}
+				}
+			}
+		}
+
+		boolean remove(Object item, double keyX, double keyY) {
+			KdNode current = root;
+			int axis = 0;
+			while (current != null) {
+				if (!current.deleted && current.item.equals(item)) {
+					current.deleted = true;
+					live--;
+					deleted++;
+					if (deleted > live) {
+						root = rebuild(root, 0);
+						deleted = 0;
+					}
+					return true;
+				}
+				final double key = axis == 0 ? keyX : keyY;
+				current = key < current.key(axis) ? current.low : current.high;
+				axis ^= 1;
+			}
+			return false;
+		}
+
+		void clear() {
+			root = null;
+			live = deleted = 0;
+		}
+	}
+
+	/** k-d tree of cities */
+	protected final Tree cities = new Tree();
+
+	/** k-d tree of roads */
+	protected final Tree roads = new Tree();
+
+	public void addCity(City city) {
+		cities.insert(new KdNode(city, city.pt.x, city.pt.y, city.pt.x,
+				city.pt.y));
+	}
+
+	public boolean removeCity(City city) {
+		return cities.remove(city, 2 * city.pt.x, 2 * city.pt.y);
+	}
+
+	public void addRoad(QEdge road) {
+		roads.insert(new KdNode(road, Math.min(road.x1, road.x2), Math.min(
+				road.y1, road.y2), Math.max(road.x1, road.x2), Math.max(
+				road.y1, road.y2)));
+	}
+
+	public boolean removeRoad(QEdge road) {
+		return roads.remove(road, road.x1 + road.x2, road.y1 + road.y2);
+	}
+
+	public void clear() {
+		cities.clear();
+		roads.clear();
+	}
+
+	public void rangeCities(long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		rangeCitiesHelper(cities.root, x, y, radius, citiesInRange);
+	}
+
+	private void rangeCitiesHelper(KdNode node, long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		if (node == null
+				|| !Lib.rectWithin(x, y, radius, node.minX, node.minY,
+						node.maxX, node.maxY)) {
+			return;
+		}
+		final City city = (City) node.item;
+		if (!node.deleted
+				&& Lib.within(city.getX() - x, city.getY() - y, radius)) {
+			citiesInRange.add(city);
+		}
+		rangeCitiesHelper(node.low, x, y, radius, citiesInRange);
+		rangeCitiesHelper(node.high, x, y, radius, citiesInRange);
+	}
+
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		rangeRoadsHelper(roads.root, x, y, radius, roadsInRange);
+	}
+
+	private void rangeRoadsHelper(KdNode node, long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		if (node == null
+				|| !Lib.rectWithin(x, y, radius, node.minX, node.minY,
+						node.maxX, node.maxY)) {
+			return;
+		}
+		final QEdge road = (QEdge) node.item;
+		if (!node.deleted && Lib.segmentWithin(road, x, y, radius)) {
+			roadsInRange.add(road);
+		}
+		rangeRoadsHelper(node.low, x, y, radius, roadsInRange);
+		rangeRoadsHelper(node.high, x, y, radius, roadsInRange);
+	}
+
+	public Iterator<City> nearestCities(final double x, final double y) {
+		return new NearestFirstIterator<City>(CITY_ORDER) {
+			{
+				push(cities.root);
+			}
+
+			protected void expand(Object value) {
+				final KdNode node = (KdNode) value;
+				if (!node.deleted) {
+					pushItem(((City) node.item).pt.distanceSq(x, y),
+							(City) node.item);
+				}
+				push(node.low);
+				push(node.high);
+			}
+
+			private void push(KdNode node) {
+				if (node != null) {
+					pushNode(distanceSq(x, y, node.minX, node.minY, node.maxX,
+							node.maxY), node);
+				}
+			}
+		};
+	}
+
+	public QEdge nearestRoad(final double x, final double y) {
+		final Iterator<QEdge> nearest = new NearestFirstIterator<QEdge>(
+				ROAD_ORDER) {
+			{
+				push(roads.root);
+			}
+
+			protected void expand(Object value) {
+				final KdNode node = (KdNode) value;
+				if (!node.deleted) {
+					pushItem(((QEdge) node.item).ptSegDistSq(x, y),
+							(QEdge) node.item);
+				}
+				push(node.low);
+				push(node.high);
+			}
+
+			private void push(KdNode node) {
+				if (node != null) {
+					pushNode(distanceSq(x, y, node.minX, node.minY, node.maxX,
+							node.maxY), node);
+				}
+			}
+		};
+		return nearest.hasNext() ? nearest.next() : null;
+	}
+
+	/**
+	 * Gets the number of nodes in a subtree.
+	 */
+	private static int size(KdNode node) {
+		return node == null ? 0 : node.size;
+	}
+
+	/**
+	 * Rebuilds a subtree around its medians, dropping deleted nodes.
+	 *
+	 * @param node
+	 *            root of the subtree
+	 * @param axis
+	 *            axis the root of the subtree splits on
+	 * @return root of the rebuilt subtree, or null if nothing is left
+	 */
+	static KdNode rebuild(KdNode node, int axis) {
+		final ArrayList<KdNode> nodes = new ArrayList<KdNode>();
+		collect(node, nodes);
+		return build(nodes, 0, nodes.size(), axis);
+	}
+
+	private static void collect(KdNode node, ArrayList<KdNode> nodes) {
+		if (node != null) {
+			if (!node.deleted) {
+				nodes.add(node);
+			}
+			collect(node.low, nodes);
+			collect(node.high, nodes);
+		}
+	}
+
+	private static KdNode build(ArrayList<KdNode> nodes, int from, int to,
+			final int axis) {
+		if (from >= to) {
+			return null;
+		}
+		Collections.sort(nodes.subList(from, to), new Comparator<KdNode>() {
+			public int compare(KdNode a, KdNode b) {
+				return Double.compare(a.key(axis), b.key(axis));
+			}
+		});
+
+		/*
+		 * take the first node with the median key, so that every node on the
+		 * low side has a strictly smaller key
+		 */
+		int median = (from + to) >>> 1;
+		final double key = nodes.get(median).key(axis);
+		while (median > from && nodes.get(median - 1).key(axis) == key) {
+			median--;
+		}
+
+		final KdNode root = nodes.get(median);
+		root.low = build(nodes, from, median, axis ^ 1);
+		root.high = build(nodes, median + 1, to, axis ^ 1);
+		root.size = 1 + size(root.low) + size(root.high);
+		root.minX = root.itemMinX;
+		root.minY = root.itemMinY;
+		root.maxX = root.itemMaxX;
+		root.maxY = root.itemMaxY;
+		if (root.low != null) {
+			root.include(root.low.minX, root.low.minY, root.low.maxX,
+					root.low.maxY);
+		}
+		if (root.high != null) {
+			root.include(root.high.minX, root.high.minY, root.high.maxX,
+					root.high.maxY);
+		}
+		return root;
+	}
+}
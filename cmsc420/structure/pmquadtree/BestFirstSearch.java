@@ -0,0 +1,191 @@
+package cmsc420.structure.pmquadtree;
+
+import cmsc420.structure.pmquadtree.PMQuadTree.Gray;
+
+/**
+ * Base class for best-first (branch and bound) traversals of a PM Quadtree.
+ * Pending entries are held in a binary min-heap built from two parallel
+ * arrays, one of squared distances and one of the queued objects, so a query
+ * allocates nothing once the arrays have grown to fit it. The arrays are kept
+ * between queries; an instance is therefore not safe to share between
+ * threads.
+ *
+ * Subclasses decide what gets queued (internal nodes, cities, roads) and how
+ * entries at exactly the same distance are ordered.
+ */
+abstract class BestFirstSearch {
+
+	/** initial capacity of the heap arrays */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** squared distance of each queued entry */
+	private double[] keys = new double[INITIAL_CAPACITY];
+
+	/** queued entries, parallel to keys */
+	private Object[] items = new Object[INITIAL_CAPACITY];
+
+	/** number of queued entries */
+	private int size;
+
+	/**
+	 * Determines the order of two queued entries that are at exactly the same
+	 * distance.
+	 *
+	 * @param a
+	 *            first entry
+	 * @param b
+	 *            second entry
+	 * @return true if a must be dequeued before b
+	 */
+	protected abstract boolean precedes(Object a, Object b);
+
+	/**
+	 * Empties the queue, dropping references to anything still queued.
+	 */
+	protected void reset() {
+		for (int i = 0; i < size; i++) {
+			items[i] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Returns if there is nothing left to visit.
+	 *
+	 * @return true if the queue is empty
+	 */
+	protected boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the squared distance of the closest queued entry. Only valid when
+	 * the queue is not empty.
+	 *
+	 * @return squared distance of the head of the queue
+	 */
+	protected double peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * Gets the closest queued entry without removing it. Only valid when the
+	 * queue is not empty.
+	 *
+	 * @return head of the queue
+	 */
+	protected Object peek() {
+		return items[0];
+	}
+
+	/**
+	 * Queues an entry.
+	 *
+	 * @param key
+	 *            squared distance of the entry from the query
+	 * @param item
+	 *            entry to be queued
+	 */
+	protected void push(double key, Object item) {
+		if (size == keys.length) {
+			final int capacity = size << 1;
+			final double[] newKeys = new double[capacity];
+			final Object[] newItems = new Object[capacity];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(items, 0, newItems, 0, size);
+			keys = newKeys;
+			items = newItems;
+		}
+
+		/* sift up */
+		int i = size++;
+		while (i > 0) {
+			final int parent = (i - 1) >> 1;
+			if (!before(key, item, keys[parent], items[parent])) {
+				break;
+			}
+			keys[i] = keys[parent];
+			items[i] = items[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		items[i] = item;
+	}
+
+	/**
+	 * Removes and returns the closest queued entry. Only valid when the queue
+	 * is not empty.
+	 *
+	 * @return head of the queue
+	 */
+	protected Object pop() {
+		final Object head = items[0];
+		final int last = --size;
+		final double key = keys[last];
+		final Object item = items[last];
+		items[last] = null;
+
+		if (last > 0) {
+			/* sift the last entry down from the root */
+			int i = 0;
+			int child;
+			while ((child = (i << 1) + 1) < last) {
+				if (child + 1 < last
+						&& before(keys[child + 1], items[child + 1],
+								keys[child], items[child])) {
+					child++;
+				}
+				if (!before(keys[child], items[child], key, item)) {
+					break;
+				}
+				keys[i] = keys[child];
+				items[i] = items[child];
+				i = child;
+			}
+			keys[i] = key;
+			items[i] = item;
+		}
+		return head;
+	}
+
+	/**
+	 * Heap ordering: closer entries first, ties resolved by the subclass.
+	 */
+	private boolean before(double keyA, Object a, double keyB, Object b) {
+		if (keyA != keyB) {
+			return keyA < keyB;
+		}
+		return precedes(a, b);
+	}
+
+	/**
+	 * Gets the squared distance from a point to the bounds of everything
+	 * stored below an internal node, a lower bound on the distance to any
+	 * city or road in that subtree. Zero if the point lies within the bounds.
+	 *
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @param gray
+	 *            internal node
+	 * @return squared distance from the point to the node's content bounds
+	 */
+	static double distanceSq(double x, double y, Gray gray) {
+		double dx = 0;
+		double dy = 0;
+
+		if (x < gray.minX) {
+			dx = gray.minX - x;
+		} else if (x > gray.maxX) {
+			dx = x - gray.maxX;
+		}
+
+		if (y < gray.minY) {
+			dy = gray.minY - y;
+		} else if (y > gray.maxY) {
+			dy = y - gray.maxY;
+		}
+		return dx * dx + dy * dy;
+	}
+}
@@ -0,0 +1,48 @@
+package cmsc420.structure.pmquadtree;
+
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+
+/**
+ * PM Quadtree whose leaves hold up to a fixed number of cities before they
+ * are partitioned, rather than PM3's single city. Clustered cities then share
+ * leaves instead of forcing deep chains of nearly empty partitions, and a
+ * road crossing a cluster is stored in fewer leaves. Roads are handled
+ * exactly as in PM3: a leaf may hold any number of them.
+ */
+public class BucketPMQuadTree extends PMQuadTree {
+
+	/** most cities a leaf may hold before it is partitioned */
+	protected final int leafCapacity;
+
+	/**
+	 * Constructs an empty bucket PM Quadtree.
+	 * 
+	 * @param leafCapacity
+	 *            most cities a leaf may hold before it is partitioned; must be
+	 *            at least 1
+	 */
+	public BucketPMQuadTree(final int leafCapacity) {
+		super(new PMValidator() {
+			public boolean valid(Black black) {
+				return black.getCities().size() <= leafCapacity;
+			}
+
+			public boolean mayHold(int cities, int roads) {
+				return cities <= leafCapacity;
+			}
+		}, 3);
+		if (leafCapacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.leafCapacity = leafCapacity;
+	}
+
+	/**
+	 * Gets the most cities a leaf may hold before it is partitioned.
+	 * 
+	 * @return leaf capacity
+	 */
+	public int getLeafCapacity() {
+		return leafCapacity;
+	}
+}
@@ -0,0 +1,205 @@
+package cmsc420.structure.pmquadtree;
+
+import cmsc420.structure.City;
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+import cmsc420.structure.pmquadtree.PMQuadTree.Gray;
+import cmsc420.structure.pmquadtree.PMQuadTree.Node;
+
+/**
+ * Finds the city in a PM Quadtree closest to a given point. Internal nodes
+ * are queued by the distance to their bounds and cities by their own
+ * distance; the first city dequeued is the answer. A node farther away than
+ * the best city queued so far is never queued at all.
+ * <p>
+ * The same queue can also be drained incrementally (Hjaltason and Samet's
+ * distance browsing): after start(), each call to next() resumes the
+ * traversal just far enough to produce the following city, so the k nearest
+ * cities cost only as much as the part of the tree within their distance.
+ * <p>
+ * Ties keep the ordering of the original canonical search: an internal node
+ * is expanded before a city at the same distance, and between two cities the
+ * one whose name sorts last wins.
+ */
+public class NearestCitySearch extends BestFirstSearch {
+
+	/** consider every mapped city */
+	public static final int ALL_CITIES = 0;
+
+	/** consider only cities connected to at least one road */
+	public static final int NON_ISOLATED = 1;
+
+	/** consider only isolated cities */
+	public static final int ISOLATED = 2;
+
+	/** PM Quadtree being searched */
+	protected final PMQuadTree tree;
+
+	/** which cities qualify for the current query */
+	protected int filter;
+
+	/** squared distance of the closest qualifying city queued so far */
+	protected double bound;
+
+	/** whether nodes beyond the bound are dropped (single nearest queries) */
+	protected boolean bounded;
+
+	/** query point */
+	protected double x, y;
+
+	/** city most recently returned by next() */
+	protected City last;
+
+	/**
+	 * Constructs a search over the given PM Quadtree.
+	 *
+	 * @param tree
+	 *            PM Quadtree to be searched
+	 */
+	public NearestCitySearch(PMQuadTree tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Finds the qualifying city closest to a point.
+	 *
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @param filter
+	 *            one of ALL_CITIES, NON_ISOLATED or ISOLATED
+	 * @return the nearest qualifying city, or null if there is none
+	 */
+	public City find(double x, double y, int filter) {
+		begin(x, y, filter, true);
+		final City nearest = next();
+		reset();
+		return nearest;
+	}
+
+	/**
+	 * Starts an incremental query. Cities are then produced one at a time,
+	 * in order of increasing distance, by next().
+	 *
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @param filter
+	 *            one of ALL_CITIES, NON_ISOLATED or ISOLATED
+	 */
+	public void start(double x, double y, int filter) {
+		begin(x, y, filter, false);
+	}
+
+	/**
+	 * Gets the next closest qualifying city of the current query.
+	 *
+	 * @return next city, or null once every qualifying city has been returned
+	 */
+	public City next() {
+		while (!isEmpty()) {
+			final Object head = pop();
+			if (head instanceof City) {
+				/*
+				 * a city on a quadrant boundary is queued once per leaf it is
+				 * stored in; the copies are always dequeued back to back
+				 */
+				if (head != last) {
+					last = (City) head;
+					return last;
+				}
+			} else {
+				final Gray gray = (Gray) head;
+				for (int i = 0; i < 4; i++) {
+					visit(gray.children[i], x, y);
+				}
+			}
+		}
+		return null;
+	}
+
+	private void begin(double x, double y, int filter, boolean bounded) {
+		this.x = x;
+		this.y = y;
+		this.filter = filter;
+		this.bounded = bounded;
+		bound = Double.POSITIVE_INFINITY;
+		last = null;
+		reset();
+		visit(tree.getRoot(), x, y);
+	}
+
+	/**
+	 * Queues a node, or the city it holds, unless it cannot possibly beat the
+	 * best city already queued.
+	 */
+	private void visit(Node node, double x, double y) {
+		if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			if (!holdsQualifyingCity(gray)) {
+				return;
+			}
+			final double d = distanceSq(x, y, gray);
+			if (d <= bound) {
+				push(d, node);
+			}
+		} else if (node.getType() == Node.BLACK) {
+			for (City city : ((Black) node).getCities()) {
+				if (!accepts(city)) {
+					continue;
+				}
+				final double dx = city.pt.x - x;
+				final double dy = city.pt.y - y;
+				final double d = dx * dx + dy * dy;
+				if (d <= bound) {
+					push(d, city);
+					if (bounded) {
+						bound = d;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns if the subtree aggregates say a qualifying city is stored below
+	 * an internal node.
+	 */
+	protected boolean holdsQualifyingCity(Gray gray) {
+		switch (filter) {
+		case NON_ISOLATED:
+			return gray.getCityCount() > gray.getIsolatedCityCount();
+		case ISOLATED:
+			return gray.getIsolatedCityCount() > 0;
+		default:
+			return gray.getCityCount() > 0;
+		}
+	}
+
+	/**
+	 * Returns if a city qualifies under the current filter.
+	 */
+	protected boolean accepts(City city) {
+		switch (filter) {
+		case NON_ISOLATED:
+			return !tree.isInIso(city);
+		case ISOLATED:
+			return tree.isInIso(city);
+		default:
+			return true;
+		}
+	}
+
+	protected boolean precedes(Object a, Object b) {
+		if (a instanceof City) {
+			if (b instanceof City) {
+				/* both cities: the greater name comes first */
+				return ((City) a).getName().compareTo(((City) b).getName()) > 0;
+			}
+			return false;
+		}
+		/* internal nodes come before cities */
+		return b instanceof City;
+	}
+}
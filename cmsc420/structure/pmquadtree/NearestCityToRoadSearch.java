@@ -0,0 +1,120 @@
+package cmsc420.structure.pmquadtree;
+
+import java.awt.geom.Rectangle2D;
+
+import cmsc420.geom.Shape2DDistanceCalculator;
+import cmsc420.structure.City;
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+import cmsc420.structure.pmquadtree.PMQuadTree.Gray;
+import cmsc420.structure.pmquadtree.PMQuadTree.Node;
+
+/**
+ * Finds the city in a PM Quadtree closest to a given road, not counting the
+ * road's own endpoints. Internal nodes are queued by the distance between the
+ * road and their bounds, cities by their distance to the road; the search
+ * stops at the first city dequeued, since nothing left in the queue can be
+ * closer. Isolated cities are not considered.
+ * <p>
+ * Ties put internal nodes first, then the city whose name sorts last.
+ */
+public class NearestCityToRoadSearch extends BestFirstSearch {
+
+	/** PM Quadtree being searched */
+	protected final PMQuadTree tree;
+
+	/** road the distance is measured from */
+	protected QEdge road;
+
+	/** squared distance of the closest city queued so far */
+	protected double bound;
+
+	/**
+	 * Constructs a search over the given PM Quadtree.
+	 *
+	 * @param tree
+	 *            PM Quadtree to be searched
+	 */
+	public NearestCityToRoadSearch(PMQuadTree tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Finds the city closest to a road.
+	 *
+	 * @param road
+	 *            road the distance is measured from
+	 * @param bounds
+	 *            rectangular bounds of the whole spatial map
+	 * @return the nearest city other than the road's endpoints, or null if
+	 *         there is none
+	 */
+	public City find(QEdge road, Rectangle2D bounds) {
+		this.road = road;
+		bound = Double.POSITIVE_INFINITY;
+		reset();
+
+		visit(tree.getRoot(), bounds);
+		while (!isEmpty()) {
+			final Object head = pop();
+			if (head instanceof City) {
+				reset();
+				this.road = null;
+				return (City) head;
+			}
+
+			final Gray gray = (Gray) head;
+			for (int i = 0; i < 4; i++) {
+				visit(gray.children[i], gray.getChildRegion(i));
+			}
+		}
+		this.road = null;
+		return null;
+	}
+
+	/**
+	 * Queues a node, or the city it holds, unless it cannot beat the best city
+	 * already queued.
+	 *
+	 * @param node
+	 *            node to be queued
+	 * @param region
+	 *            rectangular bounds of the node
+	 */
+	private void visit(Node node, Rectangle2D region) {
+		if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			if (gray.getCityCount() == gray.getIsolatedCityCount()) {
+				/* nothing but isolated cities below */
+				return;
+			}
+			final double d = Shape2DDistanceCalculator.distance(road, region);
+			if (d * d <= bound) {
+				push(d * d, node);
+			}
+		} else if (node.getType() == Node.BLACK) {
+			for (City city : ((Black) node).getCities()) {
+				if (city == road.getStart() || city == road.getEnd()
+						|| tree.isInIso(city)) {
+					continue;
+				}
+				final double d = road.ptSegDistSq(city.pt);
+				if (d <= bound) {
+					push(d, city);
+					bound = d;
+				}
+			}
+		}
+	}
+
+	protected boolean precedes(Object a, Object b) {
+		if (a instanceof City) {
+			if (b instanceof City) {
+				/* both cities: the greater name comes first */
+				return ((City) a).getName().compareTo(((City) b).getName()) > 0;
+			}
+			return false;
+		}
+		/* internal nodes come before cities */
+		return b instanceof City;
+	}
+}
@@ -0,0 +1,112 @@
+package cmsc420.structure.pmquadtree;
+
+import cmsc420.structure.RoadComparator;
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+import cmsc420.structure.pmquadtree.PMQuadTree.Gray;
+import cmsc420.structure.pmquadtree.PMQuadTree.Node;
+
+/**
+ * Finds the road in a PM Quadtree closest to a given point. Internal nodes
+ * are queued by the distance to their bounds and roads by the distance to the
+ * segment itself; the first road dequeued is the answer.
+ * <p>
+ * A road is stored in every leaf it crosses, so each road is stamped the
+ * first time a leaf holding it is reached and skipped in every other leaf.
+ * Ties put internal nodes first and then follow the order of the road lists
+ * printed by the other commands.
+ */
+public class NearestRoadSearch extends BestFirstSearch {
+
+	/** road ordering used to break ties */
+	private static final RoadComparator ROAD_ORDER = new RoadComparator();
+
+	/** PM Quadtree being searched */
+	protected final PMQuadTree tree;
+
+	/** stamp of the current query */
+	protected long stamp;
+
+	/** squared distance of the closest road queued so far */
+	protected double bound;
+
+	/**
+	 * Constructs a search over the given PM Quadtree.
+	 *
+	 * @param tree
+	 *            PM Quadtree to be searched
+	 */
+	public NearestRoadSearch(PMQuadTree tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Finds the road closest to a point.
+	 *
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @return the nearest road, or null if there is none
+	 */
+	public QEdge find(double x, double y) {
+		stamp = QEdge.nextVisitStamp();
+		bound = Double.POSITIVE_INFINITY;
+		reset();
+
+		visit(tree.getRoot(), x, y);
+		while (!isEmpty()) {
+			final Object head = pop();
+			if (head instanceof QEdge) {
+				reset();
+				return (QEdge) head;
+			}
+
+			final Gray gray = (Gray) head;
+			for (int i = 0; i < 4; i++) {
+				visit(gray.children[i], x, y);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Queues an internal node, or the not yet examined roads of a leaf, unless
+	 * they cannot beat the best road already queued.
+	 */
+	private void visit(Node node, double x, double y) {
+		if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			if (gray.getRoadCount() == 0) {
+				return;
+			}
+			final double d = distanceSq(x, y, gray);
+			if (d <= bound) {
+				push(d, node);
+			}
+		} else if (node.getType() == Node.BLACK) {
+			for (QEdge road : ((Black) node).getRoads()) {
+				if (road.visitStamp == stamp) {
+					continue;
+				}
+				road.visitStamp = stamp;
+
+				final double d = road.ptSegDistSq(x, y);
+				if (d <= bound) {
+					push(d, road);
+					bound = d;
+				}
+			}
+		}
+	}
+
+	protected boolean precedes(Object a, Object b) {
+		if (a instanceof QEdge) {
+			if (b instanceof QEdge) {
+				return ROAD_ORDER.compare((QEdge) a, (QEdge) b) < 0;
+			}
+			return false;
+		}
+		/* internal nodes come before roads */
+		return b instanceof QEdge;
+	}
+}
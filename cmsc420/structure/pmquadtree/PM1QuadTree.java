@@ -0,0 +1,44 @@
+package cmsc420.structure.pmquadtree;
+
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+
+/**
+ * PM1 Quadtree: a leaf holds at most one city. A leaf with a city may only
+ * hold roads that end at that city; a leaf without one holds at most a single
+ * road. Leaves are smaller than PM3's on dense maps, but the number of roads
+ * any leaf holds is bounded by the degree of its city.
+ */
+public class PM1QuadTree extends PMQuadTree {
+
+	/** the PM1 leaf rule */
+	private static final PMValidator PM1_VALIDATOR = new PMValidator() {
+		public boolean valid(Black black) {
+			final int cities = black.getCities().size();
+			if (cities == 0) {
+				return black.getRoadsSize() <= 1;
+			} else if (cities > 1) {
+				return false;
+			}
+
+			final String name = black.getCity().getName();
+			for (QEdge road : black.getRoads()) {
+				if (!road.getStartName().equals(name)
+						&& !road.getEndName().equals(name)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public boolean mayHold(int cities, int roads) {
+			return cities == 1 || (cities == 0 && roads <= 1);
+		}
+	};
+
+	/**
+	 * Constructs an empty PM1 Quadtree.
+	 */
+	public PM1QuadTree() {
+		super(PM1_VALIDATOR, 1);
+	}
+}
@@ -0,0 +1,479 @@
+package cmsc420.structure.pmquadtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cmsc420.structure.City;
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+import cmsc420.structure.pmquadtree.PMQuadTree.Gray;
+import cmsc420.structure.pmquadtree.PMQuadTree.Node;
+import cmsc420.utils.Lib;
+import cmsc420.utils.SnapshotBuffer;
+
+/**
+ * Tests of the PM3 Quadtree's structure, of the aggregates its internal nodes
+ * keep, and of saving and restoring its state. The PM1 and bucket trees share
+ * the code under test and are checked alongside where they differ.
+ */
+public class PM3QuadTreeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PM3QuadTree tree;
+
+	@Before
+	public void createTree() {
+		tree = new PM3QuadTree();
+	}
+
+	@Test
+	public void countMatchesRangeOnOddSides() throws Throwable {
+		/* 1000 halves down to 125 and then into two 62s, leaving gaps */
+		tree.setRange(1000, 1000);
+		final Random random = new Random(420);
+		final ArrayList<City> mapped = new ArrayList<City>();
+		final HashSet<String> locations = new HashSet<String>();
+
+		for (int step = 0; step < 400; step++) {
+			final int action = random.nextInt(10);
+			if (action < 3 || mapped.size() < 2) {
+				/* the multiples of 125 lie on or next to the gaps */
+				final long x = random.nextBoolean() ? 125 * random.nextInt(8)
+						: random.nextInt(1000);
+				final long y = random.nextBoolean() ? 125 * random.nextInt(8)
+						: random.nextInt(1000);
+				if (locations.add(x + "," + y)) {
+					final City city = new City("C" + step, x, y, 1, "black");
+					mapped.add(city);
+					tree.add(city);
+				}
+			} else if (action < 6) {
+				final City start = mapped.get(random.nextInt(mapped.size()));
+				final City end = new City("R" + step, random.nextInt(1000),
+						random.nextInt(1000), 1, "black");
+				if (!tree.isInIso(start)
+						&& locations.add(end.getX() + "," + end.getY())) {
+					tree.addRoad(start, end);
+					mapped.add(end);
+				}
+			} else if (action < 8) {
+				/* unmapping a road endpoint unmaps its roads along with it */
+				final City city = mapped.get(random.nextInt(mapped.size()));
+				if (!tree.isInIso(city)) {
+					mapped.remove(city);
+					tree.removeCity(city, new ArrayList<QEdge>());
+				}
+			} else {
+				checkCount(random.nextInt(1000), random.nextInt(1000), random
+						.nextInt(500));
+			}
+		}
+		for (int i = 0; i < 200; i++) {
+			checkCount(random.nextInt(1000), random.nextInt(1000), random
+					.nextInt(500));
+		}
+	}
+
+	@Test
+	public void removalsMergeBackToBlack() throws Throwable {
+		tree.setRange(1024, 1024);
+		final City a = new City("A", 100, 100, 1, "black");
+		final City b = new City("B", 900, 900, 1, "black");
+		final City c = new City("C", 900, 100, 1, "black");
+		final City d = new City("D", 300, 700, 1, "black");
+		tree.addRoad(a, b);
+		tree.addRoad(a, c);
+		tree.add(d);
+		assertEquals(Node.GRAY, tree.getRoot().getType());
+
+		/* C goes with its road, then A and B with theirs */
+		tree.removeRoad(a, c);
+		assertEquals(Node.GRAY, tree.getRoot().getType());
+		tree.removeRoad(a, b);
+		assertEquals(Node.BLACK, tree.getRoot().getType());
+		assertEquals(d, ((Black) tree.getRoot()).getCity());
+
+		tree.removeCity(d, new ArrayList<QEdge>());
+		assertEquals(Node.WHITE, tree.getRoot().getType());
+	}
+
+	@Test
+	public void pm1RemovalsMergeBackToBlack() throws Throwable {
+		final PM1QuadTree pm1 = new PM1QuadTree();
+		pm1.setRange(1024, 1024);
+		final City a = new City("A", 100, 100, 1, "black");
+		final City b = new City("B", 200, 200, 1, "black");
+		final City c = new City("C", 800, 800, 1, "black");
+		final City d = new City("D", 900, 700, 1, "black");
+		final City e = new City("E", 700, 100, 1, "black");
+		pm1.addRoad(a, b);
+		pm1.addRoad(c, d);
+		pm1.add(e);
+
+		pm1.removeCity(e, new ArrayList<QEdge>());
+		pm1.removeRoad(c, d);
+		final PM1QuadTree expected = new PM1QuadTree();
+		expected.setRange(1024, 1024);
+		expected.addRoad(a, b);
+		assertSameShape(expected.getRoot(), pm1.getRoot());
+
+		/* a lone road is one PM1 leaf */
+		pm1.removeCity(a, new ArrayList<QEdge>());
+		assertEquals(Node.WHITE, pm1.getRoot().getType());
+	}
+
+	@Test
+	public void removalsRestoreTheTreeBuiltWithoutThem() throws Throwable {
+		tree.setRange(1024, 1024);
+		final Random random = new Random(35);
+		final ArrayList<City> base = new ArrayList<City>();
+		final ArrayList<QEdge> baseRoads = new ArrayList<QEdge>();
+		final ArrayList<City> extra = new ArrayList<City>();
+		final HashSet<String> locations = new HashSet<String>();
+
+		for (int i = 0; i < 40; i++) {
+			base.add(newCity("B" + i, random, locations));
+		}
+		for (int i = 1; i < base.size(); i++) {
+			baseRoads.add(new QEdge(base.get(i - 1), base.get(i)));
+		}
+		for (int i = 0; i < 60; i++) {
+			extra.add(newCity("X" + i, random, locations));
+		}
+
+		for (QEdge road : baseRoads) {
+			tree.addRoad(road.getStart(), road.getEnd());
+		}
+		/* extra roads off the base, and extra isolated cities */
+		for (int i = 0; i < extra.size(); i++) {
+			if (i % 3 == 0) {
+				tree.add(extra.get(i));
+			} else {
+				tree.addRoad(base.get(random.nextInt(base.size())), extra
+						.get(i));
+			}
+		}
+		for (City city : extra) {
+			tree.removeCity(city, new ArrayList<QEdge>());
+		}
+
+		final PM3QuadTree expected = new PM3QuadTree();
+		expected.setRange(1024, 1024);
+		for (QEdge road : baseRoads) {
+			expected.addRoad(road.getStart(), road.getEnd());
+		}
+		assertSameShape(expected.getRoot(), tree.getRoot());
+	}
+
+	@Test
+	public void growthKeepsEverythingMapped() throws Throwable {
+		tree.setGrowable(true);
+		tree.setRange(1024, 1024);
+		final Random random = new Random(39);
+		final ArrayList<City> mapped = new ArrayList<City>();
+		final ArrayList<City> connected = new ArrayList<City>();
+		final HashSet<String> locations = new HashSet<String>();
+
+		/* growing left or down splits what lies on the old map's low edges */
+		for (City city : new City[] { new City("E0", 0, 0, 1, "black"),
+				new City("E1", 0, 500, 1, "black"),
+				new City("E2", 300, 0, 1, "black") }) {
+			tree.add(city);
+			locations.add(city.getX() + "," + city.getY());
+			mapped.add(city);
+		}
+
+		/* the map has to grow on every side, several times over */
+		final City a = new City("A", 100, 100, 1, "black");
+		final City b = new City("B", -3000, 5000, 1, "black");
+		tree.addRoad(a, b);
+		for (City city : new City[] { a, b }) {
+			locations.add(city.getX() + "," + city.getY());
+			mapped.add(city);
+			connected.add(city);
+		}
+		for (int i = 0; i < 200; i++) {
+			final long x = random.nextInt(10000) - 4000;
+			final long y = random.nextInt(10000) - 4000;
+			if (!locations.add(x + "," + y)) {
+				continue;
+			}
+			final City city = new City("C" + i, x, y, 1, "black");
+			if (i % 3 == 0) {
+				tree.add(city);
+			} else {
+				tree.addRoad(connected.get(random.nextInt(connected.size())),
+						city);
+				connected.add(city);
+			}
+			mapped.add(city);
+		}
+
+		for (City city : mapped) {
+			assertTrue(tree.contains(city.getName()));
+		}
+		for (int i = 0; i < 250; i++) {
+			/* a few queries around the old edges, the rest anywhere */
+			final long x = i < 50 ? random.nextInt(600) - 300 : random
+					.nextInt(12000) - 5000;
+			final long y = i < 50 ? random.nextInt(600) - 300 : random
+					.nextInt(12000) - 5000;
+			final long radius = i < 50 ? random.nextInt(600) : random
+					.nextInt(3000);
+			final HashSet<City> expected = new HashSet<City>();
+			for (City city : mapped) {
+				if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+					expected.add(city);
+				}
+			}
+			final HashSet<City> found = new HashSet<City>();
+			tree.rangeCities(x, y, radius, found);
+			assertEquals(expected, found);
+			assertEquals(expected.size(), tree.countCitiesInRange(x, y,
+					radius));
+		}
+	}
+
+	@Test
+	public void stateRoundTrips() throws Throwable {
+		checkRoundTrip(tree, new PM3QuadTree());
+	}
+
+	@Test
+	public void bucketStateRoundTrips() throws Throwable {
+		checkRoundTrip(new BucketPMQuadTree(4), new BucketPMQuadTree(4));
+	}
+
+	@Test
+	public void truncatedStateLeavesTheTreeEmpty() throws Throwable {
+		final ArrayList<City> cities = fill(tree);
+		final File file = save(tree, cities);
+		final RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(out.length() / 2);
+		} finally {
+			out.close();
+		}
+
+		final PM3QuadTree loaded = new PM3QuadTree();
+		loaded.setRange(1000, 1000);
+		loaded.add(new City("Z", 1, 1, 1, "black"));
+		try {
+			loaded.readState(SnapshotBuffer.read(file), cities
+					.toArray(new City[cities.size()]));
+			fail("a truncated snapshot was read");
+		} catch (IOException e) {
+			assertEquals(Node.WHITE, loaded.getRoot().getType());
+			assertTrue(loaded.isEmpty());
+		}
+	}
+
+	@Test
+	public void imageAnswersAsTheTree() throws Throwable {
+		final ArrayList<City> cities = fill(tree);
+		final File file = folder.newFile();
+		PMImage.export(tree, file);
+		final PMImage image = PMImage.open(file);
+
+		final Random random = new Random(4);
+		for (int i = 0; i < 50; i++) {
+			final long x = random.nextInt(1000);
+			final long y = random.nextInt(1000);
+			final long radius = random.nextInt(300);
+			final HashSet<City> expected = new HashSet<City>();
+			final HashSet<City> actual = new HashSet<City>();
+			tree.rangeCities(x, y, radius, expected);
+			image.rangeCities(x, y, radius, actual);
+			assertEquals(expected, actual);
+			assertEquals(tree.countCitiesInRange(x, y, radius), image
+					.countCitiesInRange(x, y, radius));
+		}
+		assertTrue(cities.size() > 100);
+	}
+
+	@Test
+	public void imageWithBadOffsetsIsRejected() throws Throwable {
+		fill(tree);
+		final File file = folder.newFile();
+		PMImage.export(tree, file);
+		final RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			/* point the root's first child back at the root itself */
+			out.seek(PMImage.ROOT_AT);
+			final int root = out.readInt();
+			out.seek(root + PMImage.GRAY_CHILDREN);
+			out.writeInt(root);
+		} finally {
+			out.close();
+		}
+
+		try {
+			PMImage.open(file);
+			fail("an image whose nodes loop was opened");
+		} catch (IOException e) {
+			/* expected */
+		}
+	}
+
+	/**
+	 * Saves a filled tree, loads it into an empty one, and checks that the
+	 * two are alike, answer queries alike and change alike from then on.
+	 */
+	private void checkRoundTrip(PMQuadTree saved, PMQuadTree loaded)
+			throws Throwable {
+		final ArrayList<City> cities = fill(saved);
+		final File file = save(saved, cities);
+		loaded.readState(SnapshotBuffer.read(file), cities
+				.toArray(new City[cities.size()]));
+		assertAlike(saved, loaded, cities);
+
+		/* the indexes behind the tree came back too, so removals agree */
+		final Random random = new Random(44);
+		for (int i = 0; i < 20; i++) {
+			final City city = cities.get(random.nextInt(cities.size()));
+			assertEquals(saved.removeCity(city, new ArrayList<QEdge>()),
+					loaded.removeCity(city, new ArrayList<QEdge>()));
+		}
+		assertAlike(saved, loaded, cities);
+	}
+
+	/**
+	 * Maps a random road network and some isolated cities on a map of odd
+	 * side, so the snapshot carries aggregates the gaps have made uneven.
+	 */
+	private static ArrayList<City> fill(PMQuadTree tree) throws Throwable {
+		tree.setRange(1000, 1000);
+		final Random random = new Random(44);
+		final ArrayList<City> cities = new ArrayList<City>();
+		final ArrayList<City> connected = new ArrayList<City>();
+		final HashSet<String> locations = new HashSet<String>();
+		City loose = null;
+		for (int i = 0; i < 150; i++) {
+			final City city = newCity("C" + i, random, locations);
+			if (city.getX() >= 1000 || city.getY() >= 1000) {
+				continue;
+			}
+			if (i % 4 == 0) {
+				tree.add(city);
+			} else if (connected.isEmpty()) {
+				/* the first road needs two new cities */
+				if (loose == null) {
+					loose = city;
+					continue;
+				}
+				tree.addRoad(loose, city);
+				connected.add(loose);
+				cities.add(loose);
+				connected.add(city);
+			} else {
+				tree.addRoad(connected.get(random.nextInt(connected.size())),
+						city);
+				connected.add(city);
+			}
+			cities.add(city);
+		}
+		assertTrue(tree.getRoads().size() > 100);
+		return cities;
+	}
+
+	private File save(PMQuadTree tree, ArrayList<City> cities)
+			throws IOException {
+		final HashMap<String, Integer> cityIds = new HashMap<String, Integer>();
+		for (City city : cities) {
+			cityIds.put(city.getName(), cityIds.size());
+		}
+		final SnapshotBuffer out = new SnapshotBuffer();
+		tree.writeState(out, cityIds);
+		final File file = folder.newFile();
+		out.write(file);
+		return file;
+	}
+
+	private static void assertAlike(PMQuadTree expected, PMQuadTree actual,
+			ArrayList<City> cities) {
+		assertSameShape(expected.getRoot(), actual.getRoot());
+		assertEquals(new ArrayList<QEdge>(expected.getRoads()),
+				new ArrayList<QEdge>(actual.getRoads()));
+		for (City city : cities) {
+			assertEquals(expected.contains(city.getName()), actual
+					.contains(city.getName()));
+			assertEquals(expected.isInIso(city), actual.isInIso(city));
+		}
+
+		final Random random = new Random(4);
+		for (int i = 0; i < 50; i++) {
+			final long x = random.nextInt(1000);
+			final long y = random.nextInt(1000);
+			final long radius = random.nextInt(300);
+			final HashSet<City> expectedCities = new HashSet<City>();
+			final HashSet<City> actualCities = new HashSet<City>();
+			expected.rangeCities(x, y, radius, expectedCities);
+			actual.rangeCities(x, y, radius, actualCities);
+			assertEquals(expectedCities, actualCities);
+			assertEquals(expected.countCitiesInRange(x, y, radius), actual
+					.countCitiesInRange(x, y, radius));
+			final Point2D.Double point = new Point2D.Double(x, y);
+			assertEquals(expected.nearestRoad(point), actual
+					.nearestRoad(point));
+			assertEquals(expected.nearestCity(point), actual
+					.nearestCity(point));
+		}
+	}
+
+	private static City newCity(String name, Random random,
+			HashSet<String> locations) {
+		while (true) {
+			final long x = random.nextInt(1024);
+			final long y = random.nextInt(1024);
+			if (locations.add(x + "," + y)) {
+				return new City(name, x, y, 1, "black");
+			}
+		}
+	}
+
+	/**
+	 * Asserts two trees partition alike and hold the same cities and roads in
+	 * each leaf.
+	 */
+	private static void assertSameShape(Node expected, Node actual) {
+		assertEquals(expected.getType(), actual.getType());
+		if (expected.getType() == Node.BLACK) {
+			assertEquals(((Black) expected).getCities(), ((Black) actual)
+					.getCities());
+			assertEquals(((Black) expected).getRoads(), ((Black) actual)
+					.getRoads());
+		} else if (expected.getType() == Node.GRAY) {
+			final Gray gray = (Gray) actual;
+			assertEquals(((Gray) expected).getCityCount(), gray.getCityCount());
+			assertEquals(((Gray) expected).getIsolatedCityCount(), gray
+					.getIsolatedCityCount());
+			assertEquals(((Gray) expected).getRoadCount(), gray.getRoadCount());
+			for (int i = 0; i < 4; i++) {
+				assertSameShape(((Gray) expected).getChild(i), gray
+						.getChild(i));
+			}
+		}
+	}
+
+	private void checkCount(long x, long y, long radius) {
+		final HashSet<City> found = new HashSet<City>();
+		tree.rangeCities(x, y, radius, found);
+		assertEquals(found.size(), tree.countCitiesInRange(x, y, radius));
+	}
+}
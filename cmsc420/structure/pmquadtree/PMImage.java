@@ -0,0 +1,624 @@
+package cmsc420.structure.pmquadtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cmsc420.structure.City;
+import cmsc420.structure.CityNameComparator;
+import cmsc420.structure.NearestFirstIterator;
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+import cmsc420.structure.pmquadtree.PMQuadTree.Gray;
+import cmsc420.structure.pmquadtree.PMQuadTree.Node;
+import cmsc420.utils.Lib;
+import cmsc420.utils.SnapshotBuffer;
+
+/**
+ * Read-only image of a PM Quadtree, laid out flat in a file so that it can be
+ * memory-mapped and queried in place. Opening an image maps the file and
+ * checks that every offset and index in it stays within the file, so that
+ * queries may follow them unchecked; nothing is decoded or allocated until a
+ * query asks for it, and then only the cities and roads that query returns.
+ * <p>
+ * The image refers to everything by its offset from the start of the file,
+ * so it does not matter where the file is mapped. It holds, in order:
+ * <ul>
+ * <li>a header: magic number, version, PM order, the bounds of the map, the
+ * number of cities and roads, and the offsets of the tables and the root</li>
+ * <li>the names and colors of the cities, each an int length followed by
+ * UTF-8 bytes</li>
+ * <li>the city table, CITY_SIZE bytes per city: X, Y, radius, flags (whether
+ * the city is isolated), and the offsets of its name and color</li>
+ * <li>the road table, ROAD_SIZE bytes per road: the indices of its start and
+ * end cities</li>
+ * <li>the nodes, children before their parents. A leaf is its tag, its
+ * number of cities and of roads, then their indices; an internal node is its
+ * tag, the same aggregates and content bounds as Gray, and the offsets of its
+ * four children, 0 standing for an empty child</li>
+ * </ul>
+ * Queries answer exactly as the PM Quadtree the image was taken from did at
+ * the time; the image does not follow later changes to the tree. An image
+ * is not safe to query from more than one thread at once.
+ */
+public class PMImage {
+
+	/** first word of every image ("MQPI") */
+	static final int MAGIC = 0x4D515049;
+
+	/** version of the image format written */
+	static final int VERSION = 1;
+
+	/** tags of the kinds of node */
+	static final int BLACK_TAG = 1, GRAY_TAG = 2;
+
+	/** offsets of the header fields */
+	static final int VERSION_AT = 4, ORDER_AT = 8, ORIGIN_X_AT = 12,
+			ORIGIN_Y_AT = 20, WIDTH_AT = 28, HEIGHT_AT = 36,
+			CITY_COUNT_AT = 44, ROAD_COUNT_AT = 48, CITY_TABLE_AT = 52,
+			ROAD_TABLE_AT = 56, ROOT_AT = 60, HEADER_SIZE = 64;
+
+	/** size of a city table record, and offsets of its fields */
+	static final int CITY_SIZE = 32, CITY_X = 0, CITY_Y = 8, CITY_RADIUS = 16,
+			CITY_FLAGS = 20, CITY_NAME = 24, CITY_COLOR = 28;
+
+	/** flag of an isolated city */
+	static final int ISOLATED = 1;
+
+	/** size of a road table record */
+	static final int ROAD_SIZE = 8;
+
+	/** offsets of the fields of an internal node */
+	static final int GRAY_CITY_COUNT = 4, GRAY_ISOLATED_COUNT = 8,
+			GRAY_ROAD_COUNT = 12, GRAY_MIN_X = 16, GRAY_MIN_Y = 24,
+			GRAY_MAX_X = 32, GRAY_MAX_Y = 40, GRAY_CHILDREN = 48;
+
+	/** encoding of strings */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** ordering of cities at the same distance */
+	private static final CityNameComparator CITY_ORDER = new CityNameComparator();
+
+	/** the mapped file */
+	private final ByteBuffer image;
+
+	/** number of cities and of roads */
+	private final int cityCount, roadCount;
+
+	/** offsets of the tables and of the root, 0 if the tree is empty */
+	private final int cityTable, roadTable, root;
+
+	/** roads already tested by the range query under way */
+	private final BitSet visited;
+
+	/** cities found by the count under way */
+	private final BitSet counted;
+
+	private PMImage(ByteBuffer image) {
+		this.image = image;
+		cityCount = image.getInt(CITY_COUNT_AT);
+		roadCount = image.getInt(ROAD_COUNT_AT);
+		cityTable = image.getInt(CITY_TABLE_AT);
+		roadTable = image.getInt(ROAD_TABLE_AT);
+		root = image.getInt(ROOT_AT);
+		visited = new BitSet(roadCount);
+		counted = new BitSet(cityCount);
+	}
+
+	/**
+	 * Writes an image of a PM Quadtree to a file.
+	 *
+	 * @param tree
+	 *            PM Quadtree to be written
+	 * @param file
+	 *            file to be written
+	 * @throws IOException
+	 *             problem writing the file
+	 */
+	public static void export(PMQuadTree tree, File file) throws IOException {
+		/* number the cities in the order they are met */
+		final LinkedHashMap<City, Integer> cityIds = new LinkedHashMap<City, Integer>();
+		collectCities(tree.getRoot(), cityIds);
+		final LinkedHashMap<QEdge, Integer> roadIds = new LinkedHashMap<QEdge, Integer>();
+		for (QEdge road : tree.roadList) {
+			roadIds.put(road, roadIds.size());
+			/* an end of a road may lie off the map, and so in no leaf */
+			for (City city : new City[] { road.getStart(), road.getEnd() }) {
+				if (!cityIds.containsKey(city)) {
+					cityIds.put(city, cityIds.size());
+				}
+			}
+		}
+
+		final SnapshotBuffer out = new SnapshotBuffer();
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putInt(tree.getOrder());
+		out.putDouble(tree.spatialOrigin.x);
+		out.putDouble(tree.spatialOrigin.y);
+		out.putLong(tree.spatialWidth);
+		out.putLong(tree.spatialHeight);
+		out.putInt(cityIds.size());
+		out.putInt(roadIds.size());
+		while (out.position() < HEADER_SIZE) {
+			/* table and root offsets, filled in below */
+			out.putInt(0);
+		}
+
+		final int[] names = new int[cityIds.size()];
+		final int[] colors = new int[cityIds.size()];
+		for (Map.Entry<City, Integer> entry : cityIds.entrySet()) {
+			names[entry.getValue()] = out.position();
+			out.putString(entry.getKey().getName());
+			colors[entry.getValue()] = out.position();
+			out.putString(entry.getKey().getColor());
+		}
+
+		out.putInt(CITY_TABLE_AT, out.position());
+		for (Map.Entry<City, Integer> entry : cityIds.entrySet()) {
+			final City city = entry.getKey();
+			out.putLong(city.getX());
+			out.putLong(city.getY());
+			out.putInt(city.getRadius());
+			out.putInt(tree.isInIso(city) ? ISOLATED : 0);
+			out.putInt(names[entry.getValue()]);
+			out.putInt(colors[entry.getValue()]);
+		}
+
+		out.putInt(ROAD_TABLE_AT, out.position());
+		for (QEdge road : roadIds.keySet()) {
+			out.putInt(cityIds.get(road.getStart()));
+			out.putInt(cityIds.get(road.getEnd()));
+		}
+
+		out.putInt(ROOT_AT, writeNode(out, tree.getRoot(), cityIds, roadIds));
+		out.write(file);
+	}
+
+	private static void collectCities(Node node, Map<City, Integer> cityIds) {
+		if (node.getType() == Node.BLACK) {
+			for (City city : ((Black) node).cities) {
+				if (!cityIds.containsKey(city)) {
+					cityIds.put(city, cityIds.size());
+				}
+			}
+		} else if (node.getType() == Node.GRAY) {
+			for (Node child : ((Gray) node).children) {
+				collectCities(child, cityIds);
+			}
+		}
+	}
+
+	/**
+	 * Writes a subtree, children first.
+	 *
+	 * @return offset of the node, or 0 for an empty node
+	 */
+	private static int writeNode(SnapshotBuffer out, Node node,
+			Map<City, Integer> cityIds, Map<QEdge, Integer> roadIds) {
+		if (node.getType() == Node.BLACK) {
+			final Black black = (Black) node;
+			final int offset = out.position();
+			out.putInt(BLACK_TAG);
+			out.putInt(black.cities.size());
+			out.putInt(black.roads.size());
+			for (City city : black.cities) {
+				out.putInt(cityIds.get(city));
+			}
+			for (QEdge road : black.roads) {
+				out.putInt(roadIds.get(road));
+			}
+			return offset;
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			final int[] children = new int[4];
+			for (int i = 0; i < 4; i++) {
+				children[i] = writeNode(out, gray.children[i], cityIds, roadIds);
+			}
+			final int offset = out.position();
+			out.putInt(GRAY_TAG);
+			out.putInt(gray.cityCount);
+			out.putInt(gray.isolatedCityCount);
+			out.putInt(gray.roadCount);
+			out.putDouble(gray.minX);
+			out.putDouble(gray.minY);
+			out.putDouble(gray.maxX);
+			out.putDouble(gray.maxY);
+			for (int i = 0; i < 4; i++) {
+				out.putInt(children[i]);
+			}
+			return offset;
+		}
+		return 0;
+	}
+
+	/**
+	 * Maps an image for querying.
+	 *
+	 * @param file
+	 *            image written by export
+	 * @return the mapped image
+	 * @throws IOException
+	 *             problem mapping the file, or it is not an image
+	 */
+	public static PMImage open(File file) throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = in.getChannel();
+			if (channel.size() < HEADER_SIZE
+					|| channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("not a PM Quadtree image");
+			}
+			/* the mapping stays valid once the channel is closed */
+			final ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			if (image.getInt(0) != MAGIC || image.getInt(VERSION_AT) != VERSION) {
+				throw new IOException("not a PM Quadtree image");
+			}
+			final long size = channel.size();
+			final long cities = image.getInt(CITY_COUNT_AT);
+			final long roads = image.getInt(ROAD_COUNT_AT);
+			final long cityTable = image.getInt(CITY_TABLE_AT);
+			final long roadTable = image.getInt(ROAD_TABLE_AT);
+			final long root = image.getInt(ROOT_AT);
+			check(cities >= 0 && roads >= 0 && cityTable >= HEADER_SIZE
+					&& cityTable + cities * CITY_SIZE <= size
+					&& roadTable >= HEADER_SIZE
+					&& roadTable + roads * ROAD_SIZE <= size && root >= 0
+					&& root < size);
+			final PMImage opened = new PMImage(image);
+			opened.checkTables();
+			opened.checkNodes();
+			return opened;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks that the strings of every city and the cities of every road lie
+	 * within the image.
+	 */
+	private void checkTables() throws IOException {
+		final int size = image.limit();
+		for (int i = 0; i < cityCount; i++) {
+			final int record = cityTable + i * CITY_SIZE;
+			for (int field : new int[] { CITY_NAME, CITY_COLOR }) {
+				final long offset = image.getInt(record + field);
+				check(offset >= HEADER_SIZE && offset + 4 <= size);
+				final long length = image.getInt((int) offset);
+				check(length >= 0 && offset + 4 + length <= size);
+			}
+		}
+		for (int i = 0; i < 2 * roadCount; i++) {
+			final int city = image.getInt(roadTable + 4 * i);
+			check(city >= 0 && city < cityCount);
+		}
+	}
+
+	/**
+	 * Checks every node reachable from the root: its tag, that it lies
+	 * within the image, the indices of a leaf's cities and roads, and that
+	 * each child of an internal node was written before it, so that no walk
+	 * down the tree can loop.
+	 */
+	private void checkNodes() throws IOException {
+		if (root == 0) {
+			return;
+		}
+		final int size = image.limit();
+		final BitSet checked = new BitSet();
+		final ArrayList<Integer> pending = new ArrayList<Integer>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			final int node = pending.remove(pending.size() - 1);
+			if (checked.get(node)) {
+				continue;
+			}
+			checked.set(node);
+			check(node >= HEADER_SIZE && (long) node + 12 <= size);
+			final int tag = image.getInt(node);
+			if (tag == BLACK_TAG) {
+				final long cities = image.getInt(node + 4);
+				final long roads = image.getInt(node + 8);
+				check(cities >= 0 && roads >= 0
+						&& node + 12 + 4 * (cities + roads) <= size);
+				for (int i = 0; i < cities; i++) {
+					final int city = image.getInt(node + 12 + 4 * i);
+					check(city >= 0 && city < cityCount);
+				}
+				for (int i = 0; i < roads; i++) {
+					final int road = image.getInt(node + 12 + 4 * ((int) cities + i));
+					check(road >= 0 && road < roadCount);
+				}
+			} else {
+				check(tag == GRAY_TAG
+						&& (long) node + GRAY_CHILDREN + 16 <= size);
+				for (int i = 0; i < 4; i++) {
+					final int child = image.getInt(node + GRAY_CHILDREN + 4 * i);
+					if (child != 0) {
+						check(child >= HEADER_SIZE && child < node);
+						pending.add(child);
+					}
+				}
+			}
+		}
+	}
+
+	private static void check(boolean intact) throws IOException {
+		if (!intact) {
+			throw new IOException("PM Quadtree image corrupt");
+		}
+	}
+
+	/**
+	 * Gets the PM order of the tree imaged.
+	 *
+	 * @return PM order
+	 */
+	public int getOrder() {
+		return image.getInt(ORDER_AT);
+	}
+
+	/**
+	 * Returns if the tree imaged holds no cities or roads.
+	 *
+	 * @return true if the tree was empty
+	 */
+	public boolean isEmpty() {
+		return root == 0;
+	}
+
+	/**
+	 * Collects the mapped cities within a given distance of a point, as
+	 * PMQuadTree.rangeCities does. A city on a partition line is added once
+	 * for each leaf holding it; the cities are built afresh on every query,
+	 * so the collection should tell cities apart by name.
+	 *
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @param citiesInRange
+	 *            collection the cities found are added to
+	 */
+	public void rangeCities(long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		if (root != 0) {
+			rangeCitiesHelper(root, x, y, radius, citiesInRange);
+		}
+	}
+
+	private void rangeCitiesHelper(int node, long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		if (image.getInt(node) == BLACK_TAG) {
+			final int cities = image.getInt(node + 4);
+			for (int i = 0; i < cities; i++) {
+				final int record = cityTable + image.getInt(node + 12 + 4 * i)
+						* CITY_SIZE;
+				if (Lib.within(image.getLong(record + CITY_X) - x,
+						image.getLong(record + CITY_Y) - y, radius)) {
+					citiesInRange.add(city(record));
+				}
+			}
+		} else {
+			if (image.getInt(node + GRAY_CITY_COUNT) == 0
+					|| !contentsIntersect(node, x, y, radius)) {
+				return;
+			}
+			for (int i = 0; i < 4; i++) {
+				final int child = image.getInt(node + GRAY_CHILDREN + 4 * i);
+				if (child != 0) {
+					rangeCitiesHelper(child, x, y, radius, citiesInRange);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the mapped cities within a given distance of a point, each
+	 * once, as PMQuadTree.countCitiesInRange does. No city is built.
+	 *
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @return number of cities in range
+	 */
+	public int countCitiesInRange(long x, long y, long radius) {
+		if (root == 0) {
+			return 0;
+		}
+		counted.clear();
+		countHelper(root, x, y, radius);
+		return counted.cardinality();
+	}
+
+	private void countHelper(int node, long x, long y, long radius) {
+		if (image.getInt(node) == BLACK_TAG) {
+			final int cities = image.getInt(node + 4);
+			for (int i = 0; i < cities; i++) {
+				final int id = image.getInt(node + 12 + 4 * i);
+				final int record = cityTable + id * CITY_SIZE;
+				if (Lib.within(image.getLong(record + CITY_X) - x,
+						image.getLong(record + CITY_Y) - y, radius)) {
+					/* a city on a partition line is counted once */
+					counted.set(id);
+				}
+			}
+		} else {
+			if (image.getInt(node + GRAY_CITY_COUNT) == 0
+					|| !contentsIntersect(node, x, y, radius)) {
+				return;
+			}
+			for (int i = 0; i < 4; i++) {
+				final int child = image.getInt(node + GRAY_CHILDREN + 4 * i);
+				if (child != 0) {
+					countHelper(child, x, y, radius);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the mapped roads within a given distance of a point, each
+	 * once, as PMQuadTree.rangeRoads does.
+	 *
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @param roadsInRange
+	 *            collection the roads found are added to
+	 */
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		if (root != 0) {
+			visited.clear();
+			rangeRoadsHelper(root, x, y, radius, roadsInRange);
+		}
+	}
+
+	private void rangeRoadsHelper(int node, long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		if (image.getInt(node) == BLACK_TAG) {
+			final int cities = image.getInt(node + 4);
+			final int roads = image.getInt(node + 8);
+			final int ids = node + 12 + 4 * cities;
+			for (int i = 0; i < roads; i++) {
+				final int id = image.getInt(ids + 4 * i);
+				if (visited.get(id)) {
+					/* already tested in another leaf */
+					continue;
+				}
+				visited.set(id);
+				final QEdge road = road(id);
+				if (Lib.segmentWithin(road, x, y, radius)) {
+					roadsInRange.add(road);
+				}
+			}
+		} else {
+			if (image.getInt(node + GRAY_ROAD_COUNT) == 0
+					|| !contentsIntersect(node, x, y, radius)) {
+				return;
+			}
+			for (int i = 0; i < 4; i++) {
+				final int child = image.getInt(node + GRAY_CHILDREN + 4 * i);
+				if (child != 0) {
+					rangeRoadsHelper(child, x, y, radius, roadsInRange);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the mapped city connected to a road that is closest to a point,
+	 * as PMQuadTree.nearestCity does.
+	 *
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @return nearest non-isolated city, or null if there is none
+	 */
+	public City nearestCity(final double x, final double y) {
+		if (root == 0) {
+			return null;
+		}
+		final NearestFirstIterator<City> search = new NearestFirstIterator<City>(
+				CITY_ORDER) {
+			{
+				pushNode(0, root);
+			}
+
+			protected void expand(Object value) {
+				final int node = (Integer) value;
+				if (image.getInt(node) == BLACK_TAG) {
+					final int cities = image.getInt(node + 4);
+					for (int i = 0; i < cities; i++) {
+						final int record = cityTable
+								+ image.getInt(node + 12 + 4 * i) * CITY_SIZE;
+						if ((image.getInt(record + CITY_FLAGS) & ISOLATED) == 0) {
+							final double dx = image.getLong(record + CITY_X) - x;
+							final double dy = image.getLong(record + CITY_Y) - y;
+							pushItem(dx * dx + dy * dy, city(record));
+						}
+					}
+				} else {
+					for (int i = 0; i < 4; i++) {
+						final int child = image.getInt(node + GRAY_CHILDREN + 4
+								* i);
+						if (child == 0) {
+							continue;
+						}
+						if (image.getInt(child) == BLACK_TAG) {
+							/* leaves have no bounds of their own */
+							pushNode(0, child);
+						} else if (image.getInt(child + GRAY_CITY_COUNT) > image
+								.getInt(child + GRAY_ISOLATED_COUNT)) {
+							pushNode(distanceSq(x, y, image.getDouble(child
+									+ GRAY_MIN_X), image.getDouble(child
+									+ GRAY_MIN_Y), image.getDouble(child
+									+ GRAY_MAX_X), image.getDouble(child
+									+ GRAY_MAX_Y)), child);
+						}
+					}
+				}
+			}
+		};
+		return search.hasNext() ? search.next() : null;
+	}
+
+	/**
+	 * Returns if the content bounds of an internal node come within a
+	 * distance of a point.
+	 */
+	private boolean contentsIntersect(int node, long x, long y, long radius) {
+		return Lib.rectWithin(x, y, radius, image.getDouble(node + GRAY_MIN_X),
+				image.getDouble(node + GRAY_MIN_Y), image.getDouble(node
+						+ GRAY_MAX_X), image.getDouble(node + GRAY_MAX_Y));
+	}
+
+	/**
+	 * Builds the city with a record in the city table.
+	 */
+	private City city(int record) {
+		return new City(string(image.getInt(record + CITY_NAME)),
+				image.getLong(record + CITY_X), image.getLong(record + CITY_Y),
+				image.getInt(record + CITY_RADIUS), string(image.getInt(record
+						+ CITY_COLOR)));
+	}
+
+	/**
+	 * Builds the road with an index in the road table.
+	 */
+	private QEdge road(int id) {
+		final int record = roadTable + id * ROAD_SIZE;
+		return new QEdge(city(cityTable + image.getInt(record) * CITY_SIZE),
+				city(cityTable + image.getInt(record + 4) * CITY_SIZE));
+	}
+
+	/**
+	 * Decodes the string at an offset.
+	 */
+	private String string(int offset) {
+		final byte[] bytes = new byte[image.getInt(offset)];
+		final ByteBuffer view = image.duplicate();
+		view.position(offset + 4);
+		view.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
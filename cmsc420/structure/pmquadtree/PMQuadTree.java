@@ -0,0 +1,2292 @@
+package cmsc420.structure.pmquadtree;
+
+import java.awt.Color;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import cmsc420.exception.CityAlreadyMappedException;
+import cmsc420.exception.CityOutOfBoundsException;
+import cmsc420.exception.RoadAlreadyMappedException;
+import cmsc420.exception.RoadOutOfBoundsException;
+import cmsc420.geom.Circle2D;
+import cmsc420.structure.City;
+import cmsc420.structure.RoadComparator;
+import cmsc420.structure.SpatialIndex;
+import cmsc420.structure.prquadtree.PRQuadtree;
+import cmsc420.drawing.CanvasPlus;
+import cmsc420.utils.Canvas;
+import cmsc420.utils.Lib;
+import cmsc420.utils.SnapshotBuffer;
+
+/*
+ * Clearly this section is inspired by the PRQuadTree from the canonical as 
+ * well as the pseudocode from the spec.  Most of the Node implementation is from
+ * the canonical with modifications to make it relevant. 
+ */
+/**
+ * Node storage, insertion, removal and queries shared by every PM Quadtree.
+ * The only thing that varies between PM orders is which leaves are allowed to
+ * stand; that decision is left to a PMValidator supplied by the subclass. A
+ * leaf the validator rejects is partitioned, and an internal node is merged
+ * back into a single leaf as soon as the merged leaf would be accepted.
+ */
+public abstract class PMQuadTree {
+
+	White SingletonWhiteNode = new White();
+
+	/** root of the PM Quadtree */
+	protected Node root;
+
+	/** bounds of the spatial map */
+	protected Point2D.Double spatialOrigin;
+
+	/** width of the spatial map */
+	protected long spatialWidth;
+
+	/** height of the spatial map */
+	protected long spatialHeight;
+
+	/** used to keep track of cities within the spatial map */
+	protected HashSet<String> cityNames;
+
+	/** used to keep track of roads within the spatial map */
+	protected TreeSet<QEdge> roadList;
+
+	/**used to keep track of isolated cities within the map */
+	protected HashSet<String> isoCityNames;
+
+	/** mapped roads at each endpoint, by city name */
+	protected HashMap<String, ArrayList<QEdge>> roadsByCity;
+
+	/**
+	 * point index holding only the isolated cities, so nearest isolated city
+	 * queries never walk the road-connected part of the map
+	 */
+	protected final PRQuadtree isoIndex = new PRQuadtree();
+
+	/** reusable engine for nearest city queries */
+	protected final NearestCitySearch nearestSearch = new NearestCitySearch(this);
+
+	/** reusable engine for nearest road queries */
+	protected final NearestRoadSearch nearestRoadSearch = new NearestRoadSearch(this);
+
+	/** reusable engine for nearest city to road queries */
+	protected final NearestCityToRoadSearch roadAnchoredSearch = new NearestCityToRoadSearch(this);
+
+	/** decides which leaves may stand without being partitioned */
+	protected final PMValidator validator;
+
+	/** PM order of this tree, as printed */
+	protected final int order;
+
+	/** deepest level a node may be partitioned into; the root is level 0 */
+	protected int maxDepth = Integer.MAX_VALUE;
+
+	/** smallest width or height a partition may have */
+	protected int minCellSize = 1;
+
+	/** whether the map grows to fit data outside its bounds */
+	protected boolean growable;
+
+	/** size of the spatial map before any growth */
+	protected long initialWidth, initialHeight;
+
+	/**
+	 * secondary index kept in step with every city and road mapped here, or
+	 * null if there is none
+	 */
+	protected SpatialIndex mirror;
+
+	/**
+	 * what the last add below an internal node dropped from the subtree it
+	 * went to, or null if nothing was; the internal nodes above settle their
+	 * counts from this
+	 */
+	private Dropped dropped;
+
+	/**
+	 * whether the subtree the last add went to holds the city or road added
+	 * once the add is done; an add to an internal node counts it from this
+	 * instead of looking for it again below
+	 */
+	private boolean stored;
+
+	/**
+	 * largest width or height the map may have; geometry is computed in
+	 * doubles, which hold every integer only up to this size
+	 */
+	public static final long MAX_EXTENT = 1L << 53;
+
+	/**
+	 * Constructs an empty PM Quadtree.
+	 * 
+	 * @param validator
+	 *            decides which leaves may stand without being partitioned
+	 * @param order
+	 *            PM order of the tree
+	 */
+	protected PMQuadTree(PMValidator validator, int order) {
+		this.validator = validator;
+		this.order = order;
+		root = SingletonWhiteNode;
+		spatialOrigin = new Point2D.Double(0, 0);
+		cityNames = new HashSet<String>();
+		isoCityNames = new HashSet<String>();
+		roadList = new TreeSet<QEdge>(new RoadComparator());
+		roadsByCity = new HashMap<String, ArrayList<QEdge>>();
+	}
+	/**
+	 * Gets the PM order of this tree.
+	 * 
+	 * @return PM order
+	 */
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * Bounds how finely the map may be partitioned. A leaf that the
+	 * validator rejects but that may not be partitioned any further is kept
+	 * as an overflow leaf, holding more than its PM order normally allows.
+	 * Insertion cost and recursion depth then stay bounded even for cities
+	 * a unit apart or roads crossing away from any city.
+	 * 
+	 * @param maxDepth
+	 *            deepest level a node may be partitioned into, the root being
+	 *            level 0
+	 * @param minCellSize
+	 *            smallest width or height a partition may have; at least 1
+	 */
+	public void setPartitionLimits(int maxDepth, int minCellSize) {
+		if (maxDepth < 0 || minCellSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.maxDepth = maxDepth;
+		this.minCellSize = minCellSize;
+	}
+
+	/**
+	 * Returns if a leaf with the given bounds may be partitioned.
+	 */
+	protected boolean canPartition(long width, long height) {
+		if ((width >> 1) < minCellSize || (height >> 1) < minCellSize) {
+			return false;
+		}
+		/*
+		 * each level halves the map width, so a node's depth follows from its
+		 * width; it may be partitioned while its depth is below maxDepth
+		 */
+		return maxDepth >= 63 || width > (spatialWidth >> maxDepth);
+	}
+
+	//sets up the PMQuadTree
+	public void setRange(long spatialWidth, long spatialHeight) {
+		this.spatialWidth = spatialWidth;
+		this.spatialHeight = spatialHeight;
+		initialWidth = spatialWidth;
+		initialHeight = spatialHeight;
+		isoIndex.setRange(spatialWidth, spatialHeight);
+	}
+
+	/**
+	 * Sets whether the spatial map grows to fit cities and roads mapped
+	 * outside its bounds, instead of rejecting them as out of bounds.
+	 * 
+	 * @param growable
+	 *            true if the map may grow
+	 */
+	public void setGrowable(boolean growable) {
+		this.growable = growable;
+	}
+
+	/**
+	 * Sets a secondary spatial index to be kept in step with this tree. Every
+	 * city and road mapped from then on is added to it, and removed from it
+	 * when unmapped; the index should be empty when it is set.
+	 * 
+	 * @param mirror
+	 *            index to be maintained, or null for none
+	 */
+	public void setMirror(SpatialIndex mirror) {
+		this.mirror = mirror;
+	}
+
+	/**
+	 * Grows the spatial map until it holds a point, if the map is growable.
+	 * 
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @return true if the point now lies within the map
+	 */
+	private boolean growToInclude(double x, double y) {
+		while (x < spatialOrigin.x || x >= spatialOrigin.x + spatialWidth
+				|| y < spatialOrigin.y || y >= spatialOrigin.y + spatialHeight) {
+			if (!growable || spatialWidth > MAX_EXTENT >> 1
+					|| spatialHeight > MAX_EXTENT >> 1) {
+				return false;
+			}
+			grow(x < spatialOrigin.x, y < spatialOrigin.y);
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the spatial map by making the current root one quadrant of a
+	 * new root. The existing tree is kept as it is; only what lies on its
+	 * outer edges, or extends beyond them, needs to be added to the three new
+	 * quadrants.
+	 * 
+	 * @param left
+	 *            grow towards smaller X coordinates rather than larger ones
+	 * @param down
+	 *            grow towards smaller Y coordinates rather than larger ones
+	 */
+	private void grow(boolean left, boolean down) {
+		final Node oldRoot = root;
+		final double oldX = spatialOrigin.x;
+		final double oldY = spatialOrigin.y;
+		final long width = spatialWidth;
+		final long height = spatialHeight;
+
+		spatialOrigin = new Point2D.Double(left ? oldX - width : oldX,
+				down ? oldY - height : oldY);
+		spatialWidth = width << 1;
+		spatialHeight = height << 1;
+
+		final Gray top = new Gray(spatialOrigin, spatialWidth, spatialHeight);
+		final int q = (down ? 0 : 2) + (left ? 1 : 0);
+		top.children[q] = oldRoot;
+
+		/* everything in the old tree is now below the new root */
+		final HashSet<City> cities = new HashSet<City>();
+		collectCities(oldRoot, cities);
+		top.cityCount = cities.size();
+		for (City city : cities) {
+			if (isInIso(city)) {
+				top.isolatedCityCount++;
+			}
+		}
+
+		/* cities on the old map's edges also lie in the quadrants beside it */
+		for (City city : cities) {
+			for (int i = 0; i < 4; i++) {
+				if (i != q && Lib.intersects(city.toPoint2D(), top.regions[i])) {
+					top.children[i] = top.children[i].add(city,
+							top.origins[i], top.halfWidth, top.halfHeight);
+				}
+			}
+		}
+
+		/* roads touching or running past the old map's edges */
+		final double[] interval = new double[2];
+		for (QEdge road : roadList) {
+			for (int i = 0; i < 4; i++) {
+				final Rectangle2D.Double region = top.regions[i];
+				if (i != q
+						&& clip(road, region.x, region.y, region.x
+								+ region.width, region.y + region.height,
+								interval)) {
+					top.children[i] = top.children[i].addRoad(road,
+							interval[0], interval[1], top.origins[i],
+							top.halfWidth, top.halfHeight);
+				}
+			}
+			if (top.holds(road, interval)) {
+				top.roadCount++;
+			}
+		}
+
+		/* cities that ended up in more than one quadrant are split */
+		for (City city : cities) {
+			if (top.holders(city) > 1) {
+				if (top.splitCities == null) {
+					top.splitCities = new ArrayList<City>(2);
+				}
+				top.splitCities.add(city);
+			}
+		}
+		top.recomputeBounds();
+		root = top.collapse();
+
+		/* road endpoints that were off the old map are now mapped cities */
+		final Rectangle2D.Double map = new Rectangle2D.Double(spatialOrigin.x,
+				spatialOrigin.y, spatialWidth, spatialHeight);
+		for (QEdge road : roadList) {
+			mapEndpoint(road.getStart(), map);
+			mapEndpoint(road.getEnd(), map);
+		}
+
+		/* the isolated city index has fixed bounds; rebuild it to the new ones */
+		final CanvasPlus canvas = Canvas.suspend();
+		try {
+			isoIndex.clear();
+			isoIndex.setRange(spatialOrigin, spatialWidth, spatialHeight);
+			for (City city : cities) {
+				if (isInIso(city)) {
+					isoIndex.add(city);
+				}
+			}
+		} catch (CityAlreadyMappedException e) {
+			throw new IllegalStateException(e);
+		} catch (CityOutOfBoundsException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			Canvas.resume(canvas);
+		}
+	}
+
+	/**
+	 * Adds every city stored below a node to a set.
+	 */
+	private void collectCities(Node node, HashSet<City> cities) {
+		if (node.getType() == Node.GRAY) {
+			for (Node child : ((Gray) node).children) {
+				collectCities(child, cities);
+			}
+		} else if (node.getType() == Node.BLACK) {
+			cities.addAll(((Black) node).cities);
+		}
+	}
+
+	/**
+	 * Maps a road endpoint as a city if it lies within the given bounds and
+	 * is not mapped yet.
+	 */
+	private void mapEndpoint(City city, Rectangle2D.Double map) {
+		if (Lib.intersects(city.pt, map) && !cityNames.contains(city.getName())) {
+			root = root.add(city, spatialOrigin, spatialWidth, spatialHeight);
+			cityNames.add(city.getName());
+			if (mirror != null) {
+				mirror.addCity(city);
+			}
+			/* add city to canvas */
+			if (Canvas.instance != null) {
+				Canvas.instance.addPoint(city.getName(), city.getX(),
+						city.getY(), Color.BLACK);
+			}
+		}
+	}
+
+	//clears Structure
+	public void clear() {
+		if (spatialWidth != initialWidth || spatialHeight != initialHeight) {
+			/* undo any growth */
+			spatialOrigin = new Point2D.Double(0, 0);
+			setRange(initialWidth, initialHeight);
+			isoIndex.setRange(spatialOrigin, spatialWidth, spatialHeight);
+		}
+		root = SingletonWhiteNode;
+		cityNames.clear();
+		isoCityNames.clear();
+		roadList.clear();
+		roadsByCity.clear();
+		isoIndex.clear();
+		if (mirror != null) {
+			mirror.clear();
+		}
+	}
+
+	/** tags of the kinds of node in a snapshot of the tree */
+	private static final int WHITE_TAG = 0, BLACK_TAG = 1, GRAY_TAG = 2;
+
+	/**
+	 * Writes the state of this PM Quadtree to a snapshot: its bounds and
+	 * settings, the isolated and the connected cities, the roads, and then
+	 * the tree itself in pre-order, aggregates included, so that it can be
+	 * read back without inserting anything. Cities are written as their
+	 * indices in a city table kept by the caller, and roads as their indices
+	 * in the road table written here.
+	 * 
+	 * @param out
+	 *            snapshot being written
+	 * @param cityIds
+	 *            index of every mapped city in the caller's city table, by
+	 *            name
+	 */
+	public void writeState(SnapshotBuffer out, Map<String, Integer> cityIds) {
+		out.putDouble(spatialOrigin.x);
+		out.putDouble(spatialOrigin.y);
+		out.putLong(spatialWidth);
+		out.putLong(spatialHeight);
+		out.putLong(initialWidth);
+		out.putLong(initialHeight);
+		out.putInt(maxDepth);
+		out.putInt(minCellSize);
+		out.putByte(growable ? 1 : 0);
+
+		out.putInt(isoCityNames.size());
+		for (String name : isoCityNames) {
+			out.putInt(cityIds.get(name));
+		}
+		out.putInt(cityNames.size());
+		for (String name : cityNames) {
+			out.putInt(cityIds.get(name));
+		}
+
+		final HashMap<QEdge, Integer> roadIds = new HashMap<QEdge, Integer>();
+		out.putInt(roadList.size());
+		for (QEdge road : roadList) {
+			roadIds.put(road, roadIds.size());
+			out.putInt(cityIds.get(road.getStartName()));
+			out.putInt(cityIds.get(road.getEndName()));
+		}
+
+		writeNode(out, root, cityIds, roadIds);
+	}
+
+	private void writeNode(SnapshotBuffer out, Node node,
+			Map<String, Integer> cityIds, Map<QEdge, Integer> roadIds) {
+		if (node.getType() == Node.BLACK) {
+			final Black black = (Black) node;
+			out.putByte(BLACK_TAG);
+			out.putInt(black.cities.size());
+			for (City city : black.cities) {
+				out.putInt(cityIds.get(city.getName()));
+			}
+			out.putInt(black.roads.size());
+			for (QEdge road : black.roads) {
+				out.putInt(roadIds.get(road));
+			}
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			out.putByte(GRAY_TAG);
+			out.putInt(gray.cityCount);
+			out.putInt(gray.isolatedCityCount);
+			out.putInt(gray.roadCount);
+			out.putDouble(gray.minX);
+			out.putDouble(gray.minY);
+			out.putDouble(gray.maxX);
+			out.putDouble(gray.maxY);
+			final int split = gray.splitCities == null ? 0 : gray.splitCities
+					.size();
+			out.putInt(split);
+			for (int i = 0; i < split; i++) {
+				out.putInt(cityIds.get(gray.splitCities.get(i).getName()));
+			}
+			for (int i = 0; i < 4; i++) {
+				writeNode(out, gray.children[i], cityIds, roadIds);
+			}
+		} else {
+			out.putByte(WHITE_TAG);
+		}
+	}
+
+	/**
+	 * Replaces the state of this PM Quadtree with one read from a snapshot
+	 * written by writeState. The tree is rebuilt node by node as it was
+	 * written; only the isolated city index and the mirror, if any, are
+	 * filled by insertion.
+	 * 
+	 * @param in
+	 *            snapshot being read
+	 * @param cities
+	 *            the caller's city table, by index
+	 * @throws IOException
+	 *             snapshot is truncated or corrupt; the tree is then left
+	 *             empty
+	 */
+	public void readState(SnapshotBuffer in, City[] cities) throws IOException {
+		clear();
+		try {
+			spatialOrigin = new Point2D.Double(in.getDouble(), in.getDouble());
+			spatialWidth = in.getLong();
+			spatialHeight = in.getLong();
+			initialWidth = in.getLong();
+			initialHeight = in.getLong();
+			maxDepth = in.getInt();
+			minCellSize = in.getInt();
+			growable = in.getByte() != 0;
+			if (spatialWidth < 1 || spatialHeight < 1
+					|| spatialWidth > MAX_EXTENT || spatialHeight > MAX_EXTENT
+					|| maxDepth < 0 || minCellSize < 1) {
+				throw new IOException("snapshot corrupt");
+			}
+
+			for (int i = in.getIndex(cities.length + 1); i > 0; i--) {
+				isoCityNames.add(cities[in.getIndex(cities.length)].getName());
+			}
+			for (int i = in.getIndex(cities.length + 1); i > 0; i--) {
+				cityNames.add(cities[in.getIndex(cities.length)].getName());
+			}
+
+			final QEdge[] roads = new QEdge[in.getIndex(Integer.MAX_VALUE)];
+			for (int i = 0; i < roads.length; i++) {
+				final City start = cities[in.getIndex(cities.length)];
+				final City end = cities[in.getIndex(cities.length)];
+				roads[i] = new QEdge(start, end);
+				roadList.add(roads[i]);
+				roadsAt(start.getName()).add(roads[i]);
+				roadsAt(end.getName()).add(roads[i]);
+			}
+
+			root = readNode(in, cities, roads, spatialOrigin, spatialWidth,
+					spatialHeight);
+		} catch (IOException e) {
+			clear();
+			throw e;
+		}
+
+		final CanvasPlus canvas = Canvas.suspend();
+		try {
+			isoIndex.clear();
+			isoIndex.setRange(spatialOrigin, spatialWidth, spatialHeight);
+			for (City city : cities) {
+				if (isoCityNames.contains(city.getName())) {
+					isoIndex.add(city);
+				}
+			}
+		} catch (CityAlreadyMappedException e) {
+			throw new IllegalStateException(e);
+		} catch (CityOutOfBoundsException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			Canvas.resume(canvas);
+		}
+
+		if (mirror != null) {
+			for (City city : cities) {
+				if (isoCityNames.contains(city.getName())
+						|| cityNames.contains(city.getName())) {
+					mirror.addCity(city);
+				}
+			}
+			for (QEdge road : roadList) {
+				mirror.addRoad(road);
+			}
+		}
+	}
+
+	private Node readNode(SnapshotBuffer in, City[] cities, QEdge[] roads,
+			Point2D.Double origin, long width, long height) throws IOException {
+		switch (in.getByte()) {
+		case WHITE_TAG:
+			return SingletonWhiteNode;
+		case BLACK_TAG: {
+			final Black black = new Black();
+			for (int i = in.getIndex(cities.length + 1); i > 0; i--) {
+				black.cities.add(cities[in.getIndex(cities.length)]);
+			}
+			for (int i = in.getIndex(roads.length + 1); i > 0; i--) {
+				black.roads.add(roads[in.getIndex(roads.length)]);
+			}
+			return black;
+		}
+		case GRAY_TAG: {
+			if (width < 2 || height < 2) {
+				throw new IOException("snapshot corrupt");
+			}
+			final Gray gray = new Gray(origin, width, height);
+			gray.cityCount = in.getInt();
+			gray.isolatedCityCount = in.getInt();
+			gray.roadCount = in.getInt();
+			gray.minX = in.getDouble();
+			gray.minY = in.getDouble();
+			gray.maxX = in.getDouble();
+			gray.maxY = in.getDouble();
+			final int split = in.getIndex(cities.length + 1);
+			if (split > 0) {
+				gray.splitCities = new ArrayList<City>(split);
+				for (int i = 0; i < split; i++) {
+					gray.splitCities.add(cities[in.getIndex(cities.length)]);
+				}
+			}
+			for (int i = 0; i < 4; i++) {
+				gray.children[i] = readNode(in, cities, roads,
+						gray.origins[i], gray.halfWidth, gray.halfHeight);
+			}
+			return gray;
+		}
+		default:
+			throw new IOException("snapshot corrupt");
+		}
+	}
+
+	/**
+	 * Gets the mapped roads.
+	 * 
+	 * @return unmodifiable view of the mapped roads, in RoadComparator order
+	 */
+	public Collection<QEdge> getRoads() {
+		return Collections.unmodifiableSet(roadList);
+	}
+
+	/**
+	 * Returns if the PM Quadtree contains a city with the given name.
+	 * 
+	 * @return true if the city is in the spatial map. false otherwise.
+	 */
+	public boolean contains(String name) {
+		return cityNames.contains(name) || isoCityNames.contains(name);
+	}
+
+	//checks for empty structure
+	public boolean isEmpty() {
+		return (root == SingletonWhiteNode);
+	}
+
+	public boolean hasCites() {
+		return (!cityNames.isEmpty() || !isoCityNames.isEmpty());
+	}
+	public boolean hasIsoCites() {
+		return (!isoIndex.isEmpty());
+	}
+	public boolean isInIso(City city) {
+		String name = city.getName();
+		return (isoCityNames.contains(name));
+	}
+	public boolean isInIso(String city) {
+		//String name = city.getName();
+		return (isoCityNames.contains(city));
+	}
+	/**
+	 * Finds the mapped city connected to a road that is closest to a point.
+	 * 
+	 * @param point
+	 *            point the distance is measured from
+	 * @return nearest non-isolated city, or null if there is none
+	 */
+	public City nearestCity(Point2D point) {
+		return nearestSearch.find(point.getX(), point.getY(),
+				NearestCitySearch.NON_ISOLATED);
+	}
+
+	/**
+	 * Finds the isolated city that is closest to a point.
+	 * 
+	 * @param point
+	 *            point the distance is measured from
+	 * @return nearest isolated city, or null if there is none
+	 */
+	public City nearestIsolatedCity(Point2D point) {
+		return isoIndex.nearest(point);
+	}
+
+	/**
+	 * Finds the mapped road that is closest to a point.
+	 * 
+	 * @param point
+	 *            point the distance is measured from
+	 * @return nearest road, or null if no roads are mapped
+	 */
+	public QEdge nearestRoad(Point2D point) {
+		return nearestRoadSearch.find(point.getX(), point.getY());
+	}
+
+	/**
+	 * Returns if a road between the two cities is mapped, in either direction.
+	 * 
+	 * @param start
+	 *            one endpoint of the road
+	 * @param end
+	 *            other endpoint of the road
+	 * @return the mapped road, or null if there is no such road
+	 */
+	public QEdge getRoad(City start, City end) {
+		QEdge road = new QEdge(start, end);
+		if (start.getName().compareTo(end.getName()) > 0) {
+			road = new QEdge(end, start);
+		}
+		final QEdge mapped = roadList.ceiling(road);
+		return (mapped != null && mapped.equals(road)) ? mapped : null;
+	}
+
+	/**
+	 * Finds the mapped city that is closest to a road, ignoring the road's
+	 * endpoints and any isolated cities.
+	 * 
+	 * @param road
+	 *            mapped road the distance is measured from
+	 * @return nearest city, or null if there is none
+	 */
+	public City nearestCityToRoad(QEdge road) {
+		return roadAnchoredSearch.find(road, new Rectangle2D.Double(
+				spatialOrigin.x, spatialOrigin.y, spatialWidth, spatialHeight));
+	}
+
+	/**
+	 * Iterates over the mapped cities connected to roads in order of
+	 * increasing distance from a point. Each step only expands as much of the
+	 * tree as is needed to produce the next city. The tree must not be
+	 * modified while the iterator is in use.
+	 * 
+	 * @param point
+	 *            point the distance is measured from
+	 * @return iterator over the non-isolated cities, nearest first
+	 */
+	public Iterator<City> nearestCities(Point2D point) {
+		return nearestCities(point, NearestCitySearch.NON_ISOLATED);
+	}
+
+	/**
+	 * Iterates over the mapped cities that pass a filter in order of
+	 * increasing distance from a point.
+	 * 
+	 * @param point
+	 *            point the distance is measured from
+	 * @param filter
+	 *            one of NearestCitySearch.ALL_CITIES, NON_ISOLATED or
+	 *            ISOLATED
+	 * @return iterator over the cities, nearest first
+	 */
+	public Iterator<City> nearestCities(Point2D point, int filter) {
+		final NearestCitySearch search = new NearestCitySearch(this);
+		search.start(point.getX(), point.getY(), filter);
+
+		return new Iterator<City>() {
+			/** next city to be returned, fetched on demand */
+			private City next;
+
+			public boolean hasNext() {
+				if (next == null) {
+					next = search.next();
+				}
+				return next != null;
+			}
+
+			public City next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final City city = next;
+				next = null;
+				return city;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Gets the root node of the PM Quadtree.
+	 * 
+	 * @return root node of the PM Quadtree
+	 */
+	public Node getRoot() {
+		return root;
+	}
+
+
+
+	/**
+	 * Collects the mapped cities within a given distance of a point. The
+	 * arithmetic is done on integers with squared distances (see Lib.within), and
+	 * nothing is allocated per node visited; subtrees whose contents lie outside the
+	 * circle, or that hold no cities, are skipped.
+	 * 
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @param citiesInRange
+	 *            collection the cities found are added to
+	 */
+	public void rangeCities(long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		rangeCitiesHelper(root, x, y, radius, citiesInRange);
+	}
+
+	private void rangeCitiesHelper(Node node, long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		if (node.getType() == Node.BLACK) {
+			for (City city : ((Black) node).getCities()) {
+				if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+					citiesInRange.add(city);
+				}
+			}
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			if (gray.cityCount == 0
+					|| !Lib.rectWithin(x, y, radius, gray.minX, gray.minY,
+							gray.maxX, gray.maxY)) {
+				return;
+			}
+			for (int i = 0; i < 4; i++) {
+				rangeCitiesHelper(gray.children[i], x, y, radius, citiesInRange);
+			}
+		}
+	}
+
+	/**
+	 * Collects the mapped roads that pass within a given distance of a point.
+	 * Like rangeCities, this works on integers and squared distances only.
+	 * Each road is tested and added at most once, however many leaves it is
+	 * stored in, so the collection need not remove duplicates itself.
+	 * 
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @param roadsInRange
+	 *            collection the roads found are added to
+	 */
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		rangeRoadsHelper(root, x, y, radius, QEdge.nextVisitStamp(),
+				roadsInRange);
+	}
+
+	private void rangeRoadsHelper(Node node, long x, long y, long radius,
+			long stamp, Collection<QEdge> roadsInRange) {
+		if (node.getType() == Node.BLACK) {
+			for (QEdge road : ((Black) node).getRoads()) {
+				if (road.visitStamp == stamp) {
+					/* already tested in another leaf */
+					continue;
+				}
+				road.visitStamp = stamp;
+				if (Lib.segmentWithin(road, x, y, radius)) {
+					roadsInRange.add(road);
+				}
+			}
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			if (gray.roadCount == 0
+					|| !Lib.rectWithin(x, y, radius, gray.minX, gray.minY,
+							gray.maxX, gray.maxY)) {
+				return;
+			}
+			for (int i = 0; i < 4; i++) {
+				rangeRoadsHelper(gray.children[i], x, y, radius, stamp,
+						roadsInRange);
+			}
+		}
+	}
+
+	/**
+	 * Clips a road against a closed rectangle (Liang-Barsky). The part of the
+	 * road inside the rectangle is given as an interval of the road's
+	 * parameter t, where t = 0 is the start point and t = 1 the end point.
+	 * 
+	 * @param road
+	 *            road to be clipped
+	 * @param minX
+	 *            left edge of the rectangle
+	 * @param minY
+	 *            bottom edge of the rectangle
+	 * @param maxX
+	 *            right edge of the rectangle
+	 * @param maxY
+	 *            top edge of the rectangle
+	 * @param interval
+	 *            receives the clipped interval [t0, t1] in its first two
+	 *            elements
+	 * @return true if the road touches the rectangle
+	 */
+	static boolean clip(QEdge road, double minX, double minY, double maxX,
+			double maxY, double[] interval) {
+		double t0 = 0;
+		double t1 = 1;
+
+		final double dx = road.x2 - road.x1;
+		if (dx == 0) {
+			if (road.x1 < minX || road.x1 > maxX) {
+				return false;
+			}
+		} else {
+			double ta = (minX - road.x1) / dx;
+			double tb = (maxX - road.x1) / dx;
+			if (dx < 0) {
+				final double swap = ta;
+				ta = tb;
+				tb = swap;
+			}
+			t0 = Math.max(t0, ta);
+			t1 = Math.min(t1, tb);
+		}
+
+		final double dy = road.y2 - road.y1;
+		if (dy == 0) {
+			if (road.y1 < minY || road.y1 > maxY) {
+				return false;
+			}
+		} else {
+			double ta = (minY - road.y1) / dy;
+			double tb = (maxY - road.y1) / dy;
+			if (dy < 0) {
+				final double swap = ta;
+				ta = tb;
+				tb = swap;
+			}
+			t0 = Math.max(t0, ta);
+			t1 = Math.min(t1, tb);
+		}
+
+		if (t0 > t1) {
+			return false;
+		}
+		interval[0] = t0;
+		interval[1] = t1;
+		return true;
+	}
+
+	/**
+	 * Counts the mapped cities within a given distance of a point. Subtrees
+	 * whose contents lie entirely inside or entirely outside the circle are
+	 * answered from their aggregate counts without being visited. The tests
+	 * are the exact ones rangeCities makes (see Lib.within), so the count is
+	 * always the number of cities rangeCities would find.
+	 * 
+	 * @param x
+	 *            X coordinate of the center of the circle
+	 * @param y
+	 *            Y coordinate of the center of the circle
+	 * @param radius
+	 *            radius of the circle
+	 * @return number of cities at most radius away from the point
+	 */
+	public int countCitiesInRange(long x, long y, long radius) {
+		return countHelper(root, x, y, radius);
+	}
+
+	private int countHelper(Node node, long x, long y, long radius) {
+		if (node.getType() == Node.BLACK) {
+			int count = 0;
+			for (City city : ((Black) node).getCities()) {
+				if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+					count++;
+				}
+			}
+			return count;
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			if (gray.cityCount == 0
+					|| !Lib.rectWithin(x, y, radius, gray.minX, gray.minY,
+							gray.maxX, gray.maxY)) {
+				return 0;
+			}
+
+			/* farthest corner of the content bounds */
+			final long farX = Math.max(x - (long) gray.minX, (long) gray.maxX - x);
+			final long farY = Math.max(y - (long) gray.minY, (long) gray.maxY - y);
+			if (Lib.within(farX, farY, radius)) {
+				/* everything below is inside the circle */
+				return gray.cityCount;
+			}
+
+			int count = 0;
+			for (int i = 0; i < 4; i++) {
+				count += countHelper(gray.children[i], x, y, radius);
+			}
+
+			/* each city on a partition line was counted once per child */
+			if (gray.splitCities != null) {
+				for (City city : gray.splitCities) {
+					if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+						count -= gray.holders(city) - 1;
+					}
+				}
+			}
+			return count;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns if any part of a circle lies within a given rectangular bounds
+	 * according to the rules of the PR Quadtree.
+	 * 
+	 * @param circle
+	 *            circular region to be checked
+	 * @param rect
+	 *            rectangular bounds the point is being checked against
+	 * @return true if the point lies within the rectangular bounds, false
+	 *         otherwise
+	 */
+	public boolean intersects(Circle2D circle, Rectangle2D rect) {
+		final double radiusSquared = circle.getRadius() * circle.getRadius();
+
+		/* translate coordinates, placing circle at origin */
+		final Rectangle2D.Double r = new Rectangle2D.Double(rect.getX()
+				- circle.getCenterX(), rect.getY() - circle.getCenterY(), rect
+				.getWidth(), rect.getHeight());
+
+		if (r.getMaxX() < 0) {
+			/* rectangle to left of circle center */
+			if (r.getMaxY() < 0) {
+				/* rectangle in lower left corner */
+				return ((r.getMaxX() * r.getMaxX() + r.getMaxY() * r.getMaxY()) < radiusSquared);
+			} else if (r.getMinY() > 0) {
+				/* rectangle in upper left corner */
+				return ((r.getMaxX() * r.getMaxX() + r.getMinY() * r.getMinY()) < radiusSquared);
+			} else {
+				/* rectangle due west of circle */
+				return (Math.abs(r.getMaxX()) < circle.getRadius());
+			}
+		} else if (r.getMinX() > 0) {
+			/* rectangle to right of circle center */
+			if (r.getMaxY() < 0) {
+				/* rectangle in lower right corner */
+				return ((r.getMinX() * r.getMinX() + r.getMaxY() * r.getMaxY()) < radiusSquared);
+			} else if (r.getMinY() > 0) {
+				/* rectangle in upper right corner */
+				return ((r.getMinX() * r.getMinX() + r.getMinY() * r.getMinY()) <= radiusSquared);
+			} else {
+				/* rectangle due east of circle */
+				return (r.getMinX() <= circle.getRadius());
+			}
+		} else {
+			/* rectangle on circle vertical centerline */
+			if (r.getMaxY() < 0) {
+				/* rectangle due south of circle */
+				return (Math.abs(r.getMaxY()) < circle.getRadius());
+			} else if (r.getMinY() > 0) {
+				/* rectangle due north of circle */
+				return (r.getMinY() <= circle.getRadius());
+			} else {
+				/* rectangle contains circle center point */
+				return true;
+			}
+		}
+	}
+	public abstract class Node{
+		/** Type flag for an empty PM Quadtree node */
+		public static final int WHITE = 0;
+
+		/** Type flag for a PM Quadtree leaf node */
+		public static final int BLACK = 1;
+
+		/** Type flag for a PM Quadtree internal node */
+		public static final int GRAY = 2;
+
+		/** type of PM Quadtree node (either empty, leaf, or internal) */
+		protected final int type;
+
+		/**
+		 * Constructor for abstract Node class.
+		 * 
+		 * @param type
+		 *            type of the node (either empty, leaf, or internal)
+		 */
+		protected Node(final int type) {
+			this.type = type;
+		}
+
+		/**
+		 * Gets the type of the node (either empty, leaf, or internal).
+		 * 
+		 * @return type of the node
+		 */
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * Adds a city to the node. If an empty node, the node becomes a leaf
+		 * node. If a leaf node already, the leaf node becomes an internal node
+		 * and both cities are added to it. If an internal node, the city is
+		 * added to the child whose quadrant the city is located within.
+		 * 
+		 * @param city
+		 *            city to be added to the PR Quadtree
+		 * @param origin
+		 *            origin of the rectangular bounds of this node
+		 * @param width
+		 *            width of the rectangular bounds of this node
+		 * @param height
+		 *            height of the rectangular bounds of this node
+		 * @return this node after the city has been added
+		 */
+		public abstract Node add(City city, Point2D.Double origin, long width,
+				long height);
+
+		/**
+		 * Adds a road to the node. A leaf that can no longer stand with the
+		 * road added is partitioned, like a leaf receiving a city.
+		 * 
+		 * @param road
+		 *            road to be added
+		 * @param origin
+		 *            origin of the rectangular bounds of this node
+		 * @param width
+		 *            width of the rectangular bounds of this node
+		 * @param height
+		 *            height of the rectangular bounds of this node
+		 * @return this node after the road has been added
+		 */
+		public abstract Node addRoad(QEdge road, Point2D.Double origin,
+				long width, long height);
+
+		/**
+		 * Adds the part of a road already known to lie within this node's
+		 * bounds. Leaves store the whole road either way; internal nodes use
+		 * the interval to route the road to their children without testing
+		 * it against each child's region from scratch.
+		 * 
+		 * @param road
+		 *            road to be added
+		 * @param t0
+		 *            parameter at which the road enters this node
+		 * @param t1
+		 *            parameter at which the road leaves this node
+		 * @param origin
+		 *            origin of the rectangular bounds of this node
+		 * @param width
+		 *            width of the rectangular bounds of this node
+		 * @param height
+		 *            height of the rectangular bounds of this node
+		 * @return this node after the road has been added
+		 */
+		public Node addRoad(QEdge road, double t0, double t1,
+				Point2D.Double origin, long width, long height) {
+			return addRoad(road, origin, width, height);
+		}
+
+		/**
+		 * Removes a city from the node. Internal nodes whose children fit in
+		 * a single leaf again are merged back into that leaf.
+		 * 
+		 * @param city
+		 *            city to be removed
+		 * @return this node after the city has been removed
+		 */
+		public abstract Node removeCity(City city);
+
+		/**
+		 * Removes a road from the node. Internal nodes whose children fit in
+		 * a single leaf again are merged back into that leaf.
+		 * 
+		 * @param road
+		 *            road to be removed
+		 * @param interval
+		 *            scratch space for clipping the road
+		 * @return this node after the road has been removed
+		 */
+		public abstract Node removeRoad(QEdge road, double[] interval);
+
+		/**
+		 * Returns if a city is stored in this node or below it.
+		 * 
+		 * @param city
+		 *            city to be looked for
+		 * @return true if some leaf below this node holds the city
+		 */
+		public abstract boolean holds(City city);
+
+		/**
+		 * Returns if a road is stored in this node or below it.
+		 * 
+		 * @param road
+		 *            road to be looked for
+		 * @param interval
+		 *            scratch space for clipping the road
+		 * @return true if some leaf below this node holds the road
+		 */
+		public abstract boolean holds(QEdge road, double[] interval);
+
+	}
+
+	/**
+	 * Cities and roads a partition could not place. A side of odd length
+	 * halves into children that stop one short of it, so a leaf partitioned
+	 * there loses whatever lies only on its far edge.
+	 */
+	private static class Dropped {
+		/** cities dropped, or null if none were */
+		ArrayList<City> cities;
+
+		/** roads dropped, or null if none were */
+		ArrayList<QEdge> roads;
+
+		void add(City city) {
+			if (cities == null) {
+				cities = new ArrayList<City>(1);
+			}
+			if (!cities.contains(city)) {
+				cities.add(city);
+			}
+		}
+
+		void add(QEdge road) {
+			if (roads == null) {
+				roads = new ArrayList<QEdge>(1);
+			}
+			if (!roads.contains(road)) {
+				roads.add(road);
+			}
+		}
+
+		boolean has(City city) {
+			return cities != null && cities.contains(city);
+		}
+
+		boolean has(QEdge road) {
+			return roads != null && roads.contains(road);
+		}
+
+		/**
+		 * Adds what a child dropped to what its siblings dropped.
+		 * 
+		 * @return the combined drops, or null if there are none
+		 */
+		static Dropped merge(Dropped lost, Dropped more) {
+			if (more == null) {
+				return lost;
+			}
+			if (lost == null) {
+				return more;
+			}
+			if (more.cities != null) {
+				for (City city : more.cities) {
+					lost.add(city);
+				}
+			}
+			if (more.roads != null) {
+				for (QEdge road : more.roads) {
+					lost.add(road);
+				}
+			}
+			return lost;
+		}
+	}
+
+	public class Black extends Node {
+		TreeSet <QEdge> roads = new TreeSet<QEdge>(new RoadComparator());
+
+		/**
+		 * cities stored in this leaf, in descending order of name so a leaf
+		 * prints the same whatever order its cities arrived in
+		 */
+		ArrayList<City> cities = new ArrayList<City>(1);
+
+		public Black(){
+			super(Node.BLACK);
+		}
+
+		public boolean hasCity(){
+			return !cities.isEmpty();
+		}
+
+
+		public boolean hasCityRoads(){
+			return !cities.isEmpty();
+		}
+
+		/**
+		 * Gets the city contained by this node. A bucket leaf may hold more
+		 * than one; this is the first of them.
+		 * 
+		 * @return city contained by this node, or null if there is none
+		 */
+		public City getCity() {
+			return cities.isEmpty() ? null : cities.get(0);
+		}
+
+		/**
+		 * Gets all the cities contained by this node.
+		 * 
+		 * @return cities contained by this node
+		 */
+		public ArrayList<City> getCities() {
+			return cities;
+		}
+
+		@Override
+		public Node add(City newCity, Point2D.Double origin, long width, long height) {
+			if (cities.contains(newCity)) {
+				/* already here */
+				stored = true;
+				return this;
+			}
+			insertCity(newCity);
+			final Node node = partitionIfInvalid(origin, width, height);
+			stored = dropped == null || !dropped.has(newCity);
+			return node;
+		}
+
+		@Override
+		public Node addRoad(QEdge road, Point2D.Double origin, long width, long height) {
+			if (!roads.add(road)){
+				/* already here */
+				stored = true;
+				return this;
+			}
+			final Node node = partitionIfInvalid(origin, width, height);
+			stored = dropped == null || !dropped.has(road);
+			return node;
+		}
+
+		/**
+		 * Partitions this leaf if the validator rejects it, pushing all of
+		 * its cities and roads down into a new internal node. Leaves what the
+		 * new node could not place in dropped.
+		 */
+		private Node partitionIfInvalid(Point2D.Double origin, long width, long height) {
+			dropped = null;
+			if (validator.valid(this) || !canPartition(width, height)) {
+				/* valid, or an overflow leaf that may not be partitioned */
+				return this;
+			}
+			Gray internalNode = new Gray(origin, width,
+					height);
+
+			/*
+			 * what lies only on the far edge of an odd side has nowhere to
+			 * go: each add reports whether it placed its own city or road,
+			 * and what it pushed out of the node that was placed before
+			 */
+			Dropped lost = null;
+			for (City city : cities) {
+				internalNode.add(city, origin, width, height);
+				lost = Dropped.merge(lost, dropped);
+				if (!stored) {
+					if (lost == null) {
+						lost = new Dropped();
+					}
+					lost.add(city);
+				}
+			}
+			for (QEdge road : roads){
+				internalNode.addRoad(road, origin, width, height);
+				lost = Dropped.merge(lost, dropped);
+				if (!stored) {
+					if (lost == null) {
+						lost = new Dropped();
+					}
+					lost.add(road);
+				}
+			}
+			dropped = lost;
+			return internalNode;
+		}
+
+		/**
+		 * Adds a city to this leaf, keeping the cities ordered by name.
+		 */
+		void insertCity(City newCity) {
+			int i = cities.size();
+			while (i > 0
+					&& cities.get(i - 1).getName().compareTo(newCity.getName()) < 0) {
+				i--;
+			}
+			cities.add(i, newCity);
+		}
+
+		@Override
+		public Node removeCity(City oldCity) {
+			cities.remove(oldCity);
+			return isEmptyLeaf() ? SingletonWhiteNode : this;
+		}
+
+		@Override
+		public Node removeRoad(QEdge road, double[] interval) {
+			roads.remove(road);
+			return isEmptyLeaf() ? SingletonWhiteNode : this;
+		}
+
+		private boolean isEmptyLeaf() {
+			return cities.isEmpty() && roads.isEmpty();
+		}
+
+		@Override
+		public boolean holds(City city) {
+			return cities.contains(city);
+		}
+
+		@Override
+		public boolean holds(QEdge road, double[] interval) {
+			return roads.contains(road);
+		}
+
+		public int getRoadsSize(){
+			return roads.size();
+		}
+		
+		public TreeSet<QEdge> getRoads(){
+			return roads;
+		}
+	}
+
+	public class Gray extends Node{
+
+		/** children nodes of this node */
+		public Node[] children;
+
+		/** rectangular quadrants of the children nodes */
+		protected Rectangle2D.Double[] regions;
+
+		/** origin of the rectangular bounds of this node */
+		public Point2D.Double origin;
+
+		/** origins of the rectangular bounds of each child node */
+		protected Point2D.Double[] origins;
+
+		/** width of the rectangular bounds of this node */
+		public long width;
+
+		/** height of the rectangular bounds of this node */
+		public long height;
+
+		/** half of the width of the rectangular bounds of this node */
+		protected long halfWidth;
+
+		/** half of the height of the rectangular bounds of this node */
+		protected long halfHeight;
+
+		/** number of distinct cities stored below this node */
+		protected int cityCount;
+
+		/** number of distinct isolated cities stored below this node */
+		protected int isolatedCityCount;
+
+		/** number of distinct roads stored below this node */
+		protected int roadCount;
+
+		/**
+		 * bounds of everything stored below this node: city locations and the
+		 * parts of road bounding boxes inside this node. Empty while minX is
+		 * greater than maxX.
+		 */
+		protected double minX = Double.POSITIVE_INFINITY,
+				minY = Double.POSITIVE_INFINITY,
+				maxX = Double.NEGATIVE_INFINITY,
+				maxY = Double.NEGATIVE_INFINITY;
+
+		/**
+		 * cities lying on this node's partition lines. Each is stored in more
+		 * than one child, so sums over the children count it more than once.
+		 */
+		protected ArrayList<City> splitCities;
+
+		public Gray(){
+			super(Node.GRAY);
+		}
+
+
+		public Gray(Point2D.Double origin, long width, long height) {
+			super(Node.GRAY);
+
+			this.origin = origin;
+
+			children = new Node[4];
+			for (int i = 0; i < 4; i++) {
+				children[i] = SingletonWhiteNode;
+			}
+
+			this.width = width;
+			this.height = height;
+
+			halfWidth = width >> 1;
+			halfHeight = height >> 1;
+
+			origins = new Point2D.Double[4];
+			origins[0] = new Point2D.Double(origin.x, origin.y + halfHeight);
+			origins[1] = new Point2D.Double(origin.x + halfWidth, origin.y
+					+ halfHeight);
+			origins[2] = new Point2D.Double(origin.x, origin.y);
+			origins[3] = new Point2D.Double(origin.x + halfWidth, origin.y);
+
+			regions = new Rectangle2D.Double[4];
+			int i = 0;
+			while (i < 4) {
+				regions[i] = new Rectangle2D.Double(origins[i].x, origins[i].y,
+						halfWidth, halfHeight);
+				i++;
+			}
+
+			/* add a cross to the drawing panel */
+			if (Canvas.instance != null) {
+				//canvas.addCross(getCenterX(), getCenterY(), halfWidth, Color.d);
+				long cx = getCenterX();
+				long cy = getCenterY();
+				Canvas.instance.addLine(cx - halfWidth, cy, cx + halfWidth, cy, Color.GRAY);
+				Canvas.instance.addLine(cx, cy - halfHeight, cx, cy + halfHeight, Color.GRAY);
+			}
+		}
+
+
+		/**
+		 * Gets the child node of this node according to which quadrant it falls
+		 * in
+		 * 
+		 * @param quadrant
+		 *            quadrant number (top left is 0, top right is 1, bottom
+		 *            left is 2, bottom right is 3)
+		 * @return child node
+		 */
+		public Node getChild(int quadrant) {
+			if (quadrant < 0 || quadrant > 3) {
+				throw new IllegalArgumentException();
+			} else {
+				return children[quadrant];
+			}
+		}
+
+		/**
+		 * Gets the rectangular region for the specified child node of this
+		 * internal node.
+		 * 
+		 * @param quadrant
+		 *            quadrant that child lies within
+		 * @return rectangular region for this child node
+		 */
+		public Rectangle2D.Double getChildRegion(int quadrant) {
+			if (quadrant < 0 || quadrant > 3) {
+				throw new IllegalArgumentException();
+			} else {
+				return regions[quadrant];
+			}
+		}
+
+		/**
+		 * Gets the center X coordinate of this node's rectangular bounds.
+		 * 
+		 * @return center X coordinate of this node's rectangular bounds
+		 */
+		public long getCenterX() {
+			return (long) origin.x + halfWidth;
+		}
+
+		/**
+		 * Gets the center Y coordinate of this node's rectangular bounds.
+		 * 
+		 * @return center Y coordinate of this node's rectangular bounds
+		 */
+		public long getCenterY() {
+			return (long) origin.y + halfHeight;
+		}
+		/**
+		 * Gets the number of distinct cities stored below this node.
+		 * 
+		 * @return number of cities in this subtree
+		 */
+		public int getCityCount() {
+			return cityCount;
+		}
+
+		/**
+		 * Gets the number of distinct isolated cities stored below this node.
+		 * 
+		 * @return number of isolated cities in this subtree
+		 */
+		public int getIsolatedCityCount() {
+			return isolatedCityCount;
+		}
+
+		/**
+		 * Gets the number of distinct roads stored below this node.
+		 * 
+		 * @return number of roads in this subtree
+		 */
+		public int getRoadCount() {
+			return roadCount;
+		}
+
+		/**
+		 * Gets the smallest X coordinate of anything stored below this node.
+		 * Greater than getMaxX() if nothing is stored.
+		 * 
+		 * @return lower X bound of this node's contents
+		 */
+		public double getMinX() {
+			return minX;
+		}
+
+		/**
+		 * Gets the smallest Y coordinate of anything stored below this node.
+		 * 
+		 * @return lower Y bound of this node's contents
+		 */
+		public double getMinY() {
+			return minY;
+		}
+
+		/**
+		 * Gets the largest X coordinate of anything stored below this node.
+		 * 
+		 * @return upper X bound of this node's contents
+		 */
+		public double getMaxX() {
+			return maxX;
+		}
+
+		/**
+		 * Gets the largest Y coordinate of anything stored below this node.
+		 * 
+		 * @return upper Y bound of this node's contents
+		 */
+		public double getMaxY() {
+			return maxY;
+		}
+
+		/**
+		 * Grows the content bounds to cover a rectangle.
+		 */
+		protected void include(double x1, double y1, double x2, double y2) {
+			if (x1 < minX) {
+				minX = x1;
+			}
+			if (y1 < minY) {
+				minY = y1;
+			}
+			if (x2 > maxX) {
+				maxX = x2;
+			}
+			if (y2 > maxY) {
+				maxY = y2;
+			}
+		}
+
+		@Override
+		public Node add(City city, Point2D.Double origin, long width, long height) {
+			final Point2D cityLocation = city.toPoint2D();
+			Dropped lost = null;
+			int holders = 0;
+			for (int i = 0; i < 4; i++) {
+				if (Lib.intersects(cityLocation, regions[i])) {
+					dropped = null;
+					children[i] = children[i].add(city, origins[i], halfWidth,
+							halfHeight);
+					lost = Dropped.merge(lost, dropped);
+					if (stored) {
+						holders++;
+					}
+				}
+			}
+
+			if (holders > 0) {
+				/* update the subtree aggregates */
+				cityCount++;
+				if (isInIso(city)) {
+					isolatedCityCount++;
+				}
+				include(city.pt.x, city.pt.y, city.pt.x, city.pt.y);
+				if (holders > 1) {
+					if (splitCities == null) {
+						splitCities = new ArrayList<City>(2);
+					}
+					splitCities.add(city);
+				}
+			}
+			dropped = settle(lost, city, null);
+			stored = holders > 0;
+			return this;
+		}
+
+		/**
+		 * Updates the subtree aggregates for what the children dropped, all of
+		 * which this node counted before.
+		 * 
+		 * @param lost
+		 *            what the children dropped, or null
+		 * @param city
+		 *            city being added, which was never counted here, or null
+		 * @param road
+		 *            road being added, which was never counted here, or null
+		 * @return what this node no longer holds at all, or null
+		 */
+		private Dropped settle(Dropped lost, City city, QEdge road) {
+			if (lost == null) {
+				return null;
+			}
+			Dropped gone = null;
+			if (lost.cities != null) {
+				for (City lostCity : lost.cities) {
+					if (lostCity.equals(city)) {
+						continue;
+					}
+					final int held = holders(lostCity);
+					if (held == 0) {
+						cityCount--;
+						if (isInIso(lostCity)) {
+							isolatedCityCount--;
+						}
+						if (gone == null) {
+							gone = new Dropped();
+						}
+						gone.add(lostCity);
+					}
+					if (held < 2 && splitCities != null) {
+						splitCities.remove(lostCity);
+					}
+				}
+			}
+			if (lost.roads != null) {
+				final double[] interval = new double[2];
+				for (QEdge lostRoad : lost.roads) {
+					if (!lostRoad.equals(road) && !holds(lostRoad, interval)) {
+						roadCount--;
+						if (gone == null) {
+							gone = new Dropped();
+						}
+						gone.add(lostRoad);
+					}
+				}
+			}
+			if (gone != null) {
+				recomputeBounds();
+			}
+			return gone;
+		}
+
+		/**
+		 * Counts the children holding a city.
+		 */
+		private int holders(City city) {
+			final Point2D cityLocation = city.toPoint2D();
+			int held = 0;
+			for (int i = 0; i < 4; i++) {
+				if (Lib.intersects(cityLocation, regions[i])
+						&& children[i].holds(city)) {
+					held++;
+				}
+			}
+			return held;
+		}
+
+		@Override
+		public boolean holds(City city) {
+			return holders(city) > 0;
+		}
+
+		@Override
+		public boolean holds(QEdge road, double[] interval) {
+			for (int i = 0; i < 4; i++) {
+				final Rectangle2D.Double region = regions[i];
+				if (children[i] != SingletonWhiteNode
+						&& clip(road, region.x, region.y, region.x
+								+ region.width, region.y + region.height,
+								interval) && children[i].holds(road, interval)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+
+		@Override
+		public Node addRoad(QEdge road, Point2D.Double origin, long width, long height) {
+			final double[] interval = new double[2];
+			if (!clip(road, this.origin.x, this.origin.y, this.origin.x
+					+ this.width, this.origin.y + this.height, interval)) {
+				dropped = null;
+				stored = false;
+				return this;
+			}
+			return addRoad(road, interval[0], interval[1], origin, width,
+					height);
+		}
+
+		@Override
+		public Node addRoad(QEdge road, double t0, double t1, Point2D.Double origin,
+				long width, long height) {
+			final Line2D.Double line = road;
+
+			/*
+			 * [t0, t1] already lies within this node, so only the partition
+			 * lines (and, when a side is odd, the far edges of the children,
+			 * which then stop short of this node's own) need to be clipped
+			 * against
+			 */
+			final double cx = origin.x + halfWidth;
+			final double cy = origin.y + halfHeight;
+			final double right = cx + halfWidth;
+			final double top = cy + halfHeight;
+
+			/* intervals left (x <= cx) and right (cx <= x <= right) */
+			double l0 = t0, l1 = t1, r0 = t0, r1 = t1;
+			final double dx = line.x2 - line.x1;
+			if (dx > 0) {
+				final double tc = (cx - line.x1) / dx;
+				l1 = Math.min(l1, tc);
+				r0 = Math.max(r0, tc);
+				r1 = Math.min(r1, (right - line.x1) / dx);
+			} else if (dx < 0) {
+				final double tc = (cx - line.x1) / dx;
+				l0 = Math.max(l0, tc);
+				r1 = Math.min(r1, tc);
+				r0 = Math.max(r0, (right - line.x1) / dx);
+			} else {
+				if (line.x1 > cx) {
+					l1 = -1;
+				}
+				if (line.x1 < cx || line.x1 > right) {
+					r1 = -1;
+				}
+			}
+
+			/* intervals below (y <= cy) and above (cy <= y <= top) */
+			double b0 = t0, b1 = t1, a0 = t0, a1 = t1;
+			final double dy = line.y2 - line.y1;
+			if (dy > 0) {
+				final double tc = (cy - line.y1) / dy;
+				b1 = Math.min(b1, tc);
+				a0 = Math.max(a0, tc);
+				a1 = Math.min(a1, (top - line.y1) / dy);
+			} else if (dy < 0) {
+				final double tc = (cy - line.y1) / dy;
+				b0 = Math.max(b0, tc);
+				a1 = Math.min(a1, tc);
+				a0 = Math.max(a0, (top - line.y1) / dy);
+			} else {
+				if (line.y1 > cy) {
+					b1 = -1;
+				}
+				if (line.y1 < cy || line.y1 > top) {
+					a1 = -1;
+				}
+			}
+
+			/* children: 0 top left, 1 top right, 2 bottom left, 3 bottom right */
+			boolean held = route(0, road, Math.max(l0, a0), Math.min(l1, a1));
+			Dropped lost = dropped;
+			held |= route(1, road, Math.max(r0, a0), Math.min(r1, a1));
+			lost = Dropped.merge(lost, dropped);
+			held |= route(2, road, Math.max(l0, b0), Math.min(l1, b1));
+			lost = Dropped.merge(lost, dropped);
+			held |= route(3, road, Math.max(r0, b0), Math.min(r1, b1));
+			lost = Dropped.merge(lost, dropped);
+
+			if (held) {
+				/* update the subtree aggregates */
+				roadCount++;
+				include(Math.max(Math.min(line.x1, line.x2), origin.x),
+						Math.max(Math.min(line.y1, line.y2), origin.y),
+						Math.min(Math.max(line.x1, line.x2), origin.x + width),
+						Math.min(Math.max(line.y1, line.y2), origin.y + height));
+			}
+			dropped = settle(lost, null, road);
+			stored = held;
+			return this;
+		}
+
+		@Override
+		public Node removeCity(City city) {
+			final Point2D cityLocation = city.toPoint2D();
+			final boolean held = holds(city);
+			for (int i = 0; i < 4; i++) {
+				if (children[i] != SingletonWhiteNode
+						&& Lib.intersects(cityLocation, regions[i])) {
+					children[i] = children[i].removeCity(city);
+				}
+			}
+
+			if (held) {
+				/* update the subtree aggregates */
+				cityCount--;
+				if (isInIso(city)) {
+					isolatedCityCount--;
+				}
+				if (splitCities != null) {
+					splitCities.remove(city);
+				}
+				recomputeBounds();
+			}
+			return collapse();
+		}
+
+		@Override
+		public Node removeRoad(QEdge road, double[] interval) {
+			final boolean held = holds(road, interval);
+			for (int i = 0; i < 4; i++) {
+				final Rectangle2D.Double region = regions[i];
+				if (children[i] != SingletonWhiteNode
+						&& clip(road, region.x, region.y, region.x
+								+ region.width, region.y + region.height,
+								interval)) {
+					children[i] = children[i].removeRoad(road, interval);
+				}
+			}
+
+			if (held) {
+				/* update the subtree aggregates */
+				roadCount--;
+				recomputeBounds();
+			}
+			return collapse();
+		}
+
+		/**
+		 * Rebuilds the content bounds from the children after a removal.
+		 */
+		private void recomputeBounds() {
+			minX = minY = Double.POSITIVE_INFINITY;
+			maxX = maxY = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < 4; i++) {
+				if (children[i].getType() == Node.GRAY) {
+					final Gray gray = (Gray) children[i];
+					if (gray.minX <= gray.maxX) {
+						include(gray.minX, gray.minY, gray.maxX, gray.maxY);
+					}
+				} else if (children[i].getType() == Node.BLACK) {
+					final Black black = (Black) children[i];
+					final Rectangle2D.Double region = regions[i];
+					for (City city : black.cities) {
+						include(city.pt.x, city.pt.y, city.pt.x, city.pt.y);
+					}
+					for (QEdge road : black.roads) {
+						include(Math.max(Math.min(road.x1, road.x2), region.x),
+								Math.max(Math.min(road.y1, road.y2), region.y),
+								Math.min(Math.max(road.x1, road.x2), region.x
+										+ region.width),
+								Math.min(Math.max(road.y1, road.y2), region.y
+										+ region.height));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Merges this node back into a single leaf if the validator accepts
+		 * the leaf holding everything stored below it. The whole subtree is
+		 * considered, not just the children: under PM1, two leaves that are
+		 * invalid together can become valid again once merged with a sibling
+		 * holding the city their roads end at.
+		 * 
+		 * @return the merged leaf, an empty node, or this node if it must stay
+		 *         partitioned
+		 */
+		private Node collapse() {
+			if (!validator.mayHold(cityCount, roadCount)) {
+				return this;
+			}
+			final Black leaf = new Black();
+			gather(this, leaf);
+			if (!validator.valid(leaf)) {
+				return this;
+			}
+			removeCrosses();
+			return leaf.isEmptyLeaf() ? SingletonWhiteNode : leaf;
+		}
+
+		/**
+		 * Adds every city and road stored below a node to a leaf.
+		 */
+		private void gather(Node node, Black leaf) {
+			if (node.getType() == Node.GRAY) {
+				for (Node child : ((Gray) node).children) {
+					gather(child, leaf);
+				}
+			} else if (node.getType() == Node.BLACK) {
+				for (City city : ((Black) node).cities) {
+					if (!leaf.cities.contains(city)) {
+						leaf.insertCity(city);
+					}
+				}
+				leaf.roads.addAll(((Black) node).roads);
+			}
+		}
+
+		/**
+		 * Removes the crosses of this node and every internal node below it
+		 * from the drawing panel.
+		 */
+		private void removeCrosses() {
+			if (Canvas.instance == null) {
+				return;
+			}
+			long cx = getCenterX();
+			long cy = getCenterY();
+			Canvas.instance.removeLine(cx - halfWidth, cy, cx + halfWidth, cy, Color.GRAY);
+			Canvas.instance.removeLine(cx, cy - halfHeight, cx, cy + halfHeight, Color.GRAY);
+			for (Node child : children) {
+				if (child.getType() == Node.GRAY) {
+					((Gray) child).removeCrosses();
+				}
+			}
+		}
+
+		/**
+		 * Passes a road on to a child if its interval within the child is not
+		 * empty. Leaves what the child dropped in dropped.
+		 * 
+		 * @return true if the child holds the road afterwards
+		 */
+		private boolean route(int i, QEdge road, double t0, double t1) {
+			dropped = null;
+			if (t0 > t1) {
+				return false;
+			}
+			children[i] = children[i].addRoad(road, t0, t1, origins[i],
+					halfWidth, halfHeight);
+			return stored;
+		}
+	}
+
+	public class White extends Node{
+
+		/**
+		 * Constructs and initializes an empty node.
+		 */
+		public White() {
+			super(Node.WHITE);
+		}
+
+		public Node add(City city, Point2D.Double origin, long width, long height) {
+			Node blackNode = new Black();
+			return blackNode.add(city, origin, width, height);
+		}
+
+		public Node addRoad(QEdge road, Point2D.Double origin, long width,
+				long height) {
+			Node blackNode = new Black();
+			return blackNode.addRoad(road, origin, width, height);
+		}
+		public Node removeCity(City city) {
+			/* nothing to remove */
+			return this;
+		}
+
+		public Node removeRoad(QEdge road, double[] interval) {
+			/* nothing to remove */
+			return this;
+		}
+
+		public boolean holds(City city) {
+			return false;
+		}
+
+		public boolean holds(QEdge road, double[] interval) {
+			return false;
+		}
+
+		public Node remove(City city, Point2D.Double origin, long width,
+				long height) {
+			/* should never get here, nothing to remove */
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Maps an isolated city, one that no road may connect to. The city is
+	 * placed in the PM Quadtree and in the isolated city index. Cities mapped
+	 * as road endpoints are added by addRoad instead.
+	 * 
+	 * @param city
+	 *            city to be mapped
+	 * @throws CityAlreadyMappedException
+	 *             city is already in the spatial map
+	 * @throws CityOutOfBoundsException
+	 *             city's location is outside the bounds of the spatial map
+	 */
+	public void add(City city) throws 
+	CityAlreadyMappedException,
+	CityOutOfBoundsException{
+
+		if (cityNames.contains(city.getName()) || isoCityNames.contains(city.getName())) {
+			/* city already mapped */
+			throw new CityAlreadyMappedException();
+		}
+
+		/* check bounds, growing the map to fit the city if allowed */
+		long x = city.getX();
+		long y = city.getY();
+		if (!growToInclude(x, y)) {
+			/* city out of bounds */
+			throw new CityOutOfBoundsException();
+		}
+
+		/* insert city into PMQuadTree */
+		isoCityNames.add(city.getName());
+		root = root.add(city, spatialOrigin, spatialWidth, spatialHeight);
+
+		/*
+		 * PR Quadtree nodes draw their own partitions; keep them off the
+		 * canvas, which shows the PM Quadtree
+		 */
+		final CanvasPlus canvas = Canvas.suspend();
+		try {
+			isoIndex.add(city);
+		} finally {
+			Canvas.resume(canvas);
+		}
+		if (mirror != null) {
+			mirror.addCity(city);
+		}
+	}
+
+
+	public void addRoad(City start, City end) throws 
+	RoadAlreadyMappedException,
+	RoadOutOfBoundsException{
+
+		QEdge insert = new QEdge(start, end);
+		if (start.getName().compareTo(end.getName()) > 0 ){
+			insert = new QEdge(end, start);
+		}
+		
+		
+		
+		//QEdge alt = new QEdge(end, start);
+		if (roadList.contains(insert) ){
+			throw new RoadAlreadyMappedException();
+		}
+
+		if (growable) {
+			/* widen the map to hold both endpoints, as far as it can grow */
+			growToInclude(start.getX(), start.getY());
+			growToInclude(end.getX(), end.getY());
+		}
+
+		Rectangle2D.Double test = new Rectangle2D.Double(spatialOrigin.x, spatialOrigin.y,
+				spatialWidth, spatialHeight);
+
+		/* clip the road to the spatial map; no interval means out of bounds */
+		final double[] interval = new double[2];
+		if (!clip(insert, spatialOrigin.x, spatialOrigin.y, spatialOrigin.x
+				+ spatialWidth, spatialOrigin.y + spatialHeight, interval)) {
+			throw new RoadOutOfBoundsException();
+		}
+
+		if (Lib.intersects(start.pt, test) && !cityNames.contains(start.getName())){
+			root = root.add(start, spatialOrigin, spatialWidth, spatialHeight);
+			cityNames.add(start.getName());
+			if (mirror != null) {
+				mirror.addCity(start);
+			}
+			/* add city to canvas */
+			if (Canvas.instance != null) {
+				Canvas.instance.addPoint(start.getName(), start.getX(),
+						start.getY(), Color.BLACK);
+			}
+		}
+		if (Lib.intersects(end.pt, test) && !cityNames.contains(end.getName())){
+			root = root.add(end, spatialOrigin, spatialWidth, spatialHeight);
+			cityNames.add(end.getName());
+			if (mirror != null) {
+				mirror.addCity(end);
+			}
+			/* add city to canvas */
+			if (Canvas.instance != null) {
+				Canvas.instance.addPoint(end.getName(), end.getX(),
+						end.getY(), Color.BLACK);
+			}
+		}
+	
+		//must take care of adding cities for the roads here:
+		//QEdge road = new QEdge(start, end);
+		root = root.addRoad(insert, interval[0], interval[1], spatialOrigin,
+				spatialWidth, spatialHeight);
+		roadList.add(insert);
+		if (mirror != null) {
+			mirror.addRoad(insert);
+		}
+		roadsAt(start.getName()).add(insert);
+		roadsAt(end.getName()).add(insert);
+	}
+
+	/**
+	 * Gets the list of mapped roads at a city, creating it if needed.
+	 */
+	private ArrayList<QEdge> roadsAt(String name) {
+		ArrayList<QEdge> roads = roadsByCity.get(name);
+		if (roads == null) {
+			roads = new ArrayList<QEdge>(2);
+			roadsByCity.put(name, roads);
+		}
+		return roads;
+	}
+
+	/**
+	 * Unmaps a city. Every road connected to the city is unmapped along with
+	 * it.
+	 * 
+	 * @param city
+	 *            city to be unmapped
+	 * @param unmappedRoads
+	 *            receives the roads that were unmapped
+	 * @return true if the city was mapped
+	 */
+	public boolean removeCity(City city, Collection<QEdge> unmappedRoads) {
+		final String name = city.getName();
+		if (isoCityNames.contains(name)) {
+			/* remove from the tree while it still counts as isolated */
+			root = root.removeCity(city);
+			isoCityNames.remove(name);
+
+			final CanvasPlus canvas = Canvas.suspend();
+			try {
+				isoIndex.remove(city);
+			} finally {
+				Canvas.resume(canvas);
+			}
+			if (mirror != null) {
+				mirror.removeCity(city);
+			}
+			removeCityPoint(city);
+			return true;
+		} else if (cityNames.contains(name)) {
+			/* the city goes with its last road */
+			final ArrayList<QEdge> roads = roadsByCity.get(name);
+			for (QEdge road : roads.toArray(new QEdge[roads.size()])) {
+				removeRoad(road);
+				unmappedRoads.add(road);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Unmaps the road between two cities. An endpoint left without any roads
+	 * is unmapped as well, since it was only mapped as part of its roads.
+	 * 
+	 * @param start
+	 *            one endpoint of the road
+	 * @param end
+	 *            other endpoint of the road
+	 * @return the unmapped road, or null if there was no such road
+	 */
+	public QEdge removeRoad(City start, City end) {
+		final QEdge road = getRoad(start, end);
+		if (road != null) {
+			removeRoad(road);
+		}
+		return road;
+	}
+
+	private void removeRoad(QEdge road) {
+		root = root.removeRoad(road, new double[2]);
+		roadList.remove(road);
+		if (mirror != null) {
+			mirror.removeRoad(road);
+		}
+		detach(road.getStart(), road);
+		detach(road.getEnd(), road);
+	}
+
+	/**
+	 * Drops a road from the roads at one of its endpoints, unmapping the
+	 * endpoint if no roads remain there.
+	 */
+	private void detach(City city, QEdge road) {
+		final String name = city.getName();
+		final ArrayList<QEdge> roads = roadsByCity.get(name);
+		roads.remove(road);
+		if (roads.isEmpty()) {
+			roadsByCity.remove(name);
+			if (cityNames.remove(name)) {
+				root = root.removeCity(city);
+				if (mirror != null) {
+					mirror.removeCity(city);
+				}
+				removeCityPoint(city);
+			}
+		}
+	}
+
+	private void removeCityPoint(City city) {
+		if (Canvas.instance != null) {
+			Canvas.instance.removePoint(city.getName(), city.getX(),
+					city.getY(), Color.BLACK);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package cmsc420.structure.pmquadtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cmsc420.structure.City;
+
+/**
+ * Tests of the Liang-Barsky clip the PM Quadtrees use to route roads, on the
+ * edges and corners of the rectangle as well as through it.
+ */
+public class PMQuadTreeTest {
+
+	private static final double EPSILON = 1e-12;
+
+	private final double[] interval = new double[2];
+
+	@Test
+	public void roadThroughTheRectangle() {
+		assertTrue(clip(road(0, 5, 10, 5), 2, 0, 8, 10));
+		assertInterval(0.2, 0.8);
+	}
+
+	@Test
+	public void reversedRoadClipsToTheMirroredInterval() {
+		assertTrue(clip(road(10, 5, 0, 5), 2, 0, 8, 10));
+		assertInterval(0.2, 0.8);
+	}
+
+	@Test
+	public void roadInsideTheRectangle() {
+		assertTrue(clip(road(3, 3, 7, 6), 2, 2, 8, 8));
+		assertInterval(0, 1);
+	}
+
+	@Test
+	public void roadAlongAnEdge() {
+		/* the rectangle is closed, so its edges belong to it */
+		assertTrue(clip(road(0, 2, 10, 2), 2, 2, 8, 8));
+		assertInterval(0.2, 0.8);
+		assertTrue(clip(road(8, 0, 8, 10), 2, 2, 8, 8));
+		assertInterval(0.2, 0.8);
+	}
+
+	@Test
+	public void roadJustOutsideAnEdge() {
+		assertFalse(clip(road(0, 1, 10, 1), 2, 2, 8, 8));
+		assertFalse(clip(road(9, 0, 9, 10), 2, 2, 8, 8));
+	}
+
+	@Test
+	public void roadEndingOnAnEdge() {
+		assertTrue(clip(road(0, 5, 2, 5), 2, 2, 8, 8));
+		assertInterval(1, 1);
+		assertTrue(clip(road(5, 8, 5, 12), 2, 2, 8, 8));
+		assertInterval(0, 0);
+	}
+
+	@Test
+	public void roadThroughACorner() {
+		/* touches the rectangle at (5, 5) only */
+		assertTrue(clip(road(0, 10, 10, 0), 5, 5, 10, 10));
+		assertInterval(0.5, 0.5);
+	}
+
+	@Test
+	public void roadPassingACorner() {
+		assertFalse(clip(road(0, 9, 9, 0), 5, 5, 10, 10));
+	}
+
+	@Test
+	public void roadEndingOnACorner() {
+		assertTrue(clip(road(0, 0, 5, 5), 5, 5, 10, 10));
+		assertInterval(1, 1);
+		assertTrue(clip(road(10, 10, 20, 30), 5, 5, 10, 10));
+		assertInterval(0, 0);
+	}
+
+	@Test
+	public void diagonalRoadThroughTwoCorners() {
+		assertTrue(clip(road(0, 0, 20, 20), 5, 5, 10, 10));
+		assertInterval(0.25, 0.5);
+	}
+
+	private boolean clip(QEdge road, double minX, double minY, double maxX,
+			double maxY) {
+		return PMQuadTree.clip(road, minX, minY, maxX, maxY, interval);
+	}
+
+	private void assertInterval(double t0, double t1) {
+		assertEquals(t0, interval[0], EPSILON);
+		assertEquals(t1, interval[1], EPSILON);
+	}
+
+	private static QEdge road(long x1, long y1, long x2, long y2) {
+		return new QEdge(new City("S", x1, y1, 1, "black"), new City("E", x2,
+				y2, 1, "black"));
+	}
+}
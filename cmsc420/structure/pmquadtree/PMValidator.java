@@ -0,0 +1,33 @@
+package cmsc420.structure.pmquadtree;
+
+import cmsc420.structure.pmquadtree.PMQuadTree.Black;
+
+/**
+ * Decides whether a PM Quadtree leaf may stand as it is. This is the one
+ * rule that tells the PM orders apart; insertion, removal and queries are
+ * otherwise the same for all of them.
+ */
+public interface PMValidator {
+
+	/**
+	 * Returns if a leaf holding the given cities and roads is allowed.
+	 * 
+	 * @param black
+	 *            leaf to be checked
+	 * @return true if the leaf may stand, false if it must be partitioned
+	 */
+	boolean valid(Black black);
+
+	/**
+	 * Returns if a leaf holding the given numbers of distinct cities and
+	 * roads could be valid at all. This lets a subtree be ruled out for
+	 * merging from its counts alone, before its contents are gathered.
+	 * 
+	 * @param cities
+	 *            number of distinct cities
+	 * @param roads
+	 *            number of distinct roads
+	 * @return false if no such leaf is valid
+	 */
+	boolean mayHold(int cities, int roads);
+}
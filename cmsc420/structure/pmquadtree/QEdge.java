@@ -4,7 +4,7 @@ import java.awt.geom.Line2D;
 
 import cmsc420.structure.City;
 
-public class QEdge extends Line2D.Float {
+public class QEdge extends Line2D.Double {
 
 	/**
 	 * 
@@ -14,12 +14,35 @@ public class QEdge extends Line2D.Float {
 	private City start;
 	private City end;
 
+	/**
+	 * stamp of the last query that examined this road. A road is stored in
+	 * every leaf it passes through, so searches use this to look at it once.
+	 */
+	long visitStamp;
+
+	/**
+	 * stamp handed to the most recent query that marks visited roads. It is
+	 * shared by every tree, since a road may be mapped in more than one, and
+	 * a long does not wrap around.
+	 */
+	private static long visitEpoch;
+
 	public QEdge(City city1, City city2){
 		super(city1.pt, city2.pt);
 		start = city1;
 		end = city2;
 	}
 	
+	/**
+	 * Gets a fresh stamp for a query that marks the roads it has examined.
+	 * Roads carrying any other stamp have not been seen by that query yet.
+	 * 
+	 * @return stamp never handed out before
+	 */
+	static long nextVisitStamp() {
+		return ++visitEpoch;
+	}
+
 	public String getStartName(){
 		return start.getName();
 	}
@@ -27,6 +50,14 @@ public class QEdge extends Line2D.Float {
 	public String getEndName(){
 		return end.getName();
 	}
+
+	public City getStart(){
+		return start;
+	}
+
+	public City getEnd(){
+		return end;
+	}
 	
 	public boolean equals(final Object obj){
 		if (obj == this)
@@ -19,13 +19,13 @@ public class EmptyNode extends Node {
 		super(Node.EMPTY);
 	}
 
-	public Node add(City city, Point2D.Float origin, int width, int height) {
+	public Node add(City city, Point2D.Double origin, long width, long height) {
 		Node leafNode = new LeafNode();
 		return leafNode.add(city, origin, width, height);
 	}
 
-	public Node remove(City city, Point2D.Float origin, int width,
-			int height) {
+	public Node remove(City city, Point2D.Double origin, long width,
+			long height) {
 		/* should never get here, nothing to remove */
 		throw new IllegalArgumentException();
 	}
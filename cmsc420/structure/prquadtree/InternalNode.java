@@ -16,25 +16,25 @@ public class InternalNode extends Node {
 	public Node[] children;
 
 	/** rectangular quadrants of the children nodes */
-	protected Rectangle2D.Float[] regions;
+	protected Rectangle2D.Double[] regions;
 
 	/** origin of the rectangular bounds of this node */
-	public Point2D.Float origin;
+	public Point2D.Double origin;
 
 	/** origins of the rectangular bounds of each child node */
-	protected Point2D.Float[] origins;
+	protected Point2D.Double[] origins;
 
 	/** width of the rectangular bounds of this node */
-	public int width;
+	public long width;
 
 	/** height of the rectangular bounds of this node */
-	public int height;
+	public long height;
 
 	/** half of the width of the rectangular bounds of this node */
-	protected int halfWidth;
+	protected long halfWidth;
 
 	/** half of the height of the rectangular bounds of this node */
-	protected int halfHeight;
+	protected long halfHeight;
 
 	/**
 	 * Constructs and initializes this internal PR Quadtree node.
@@ -46,7 +46,7 @@ public class InternalNode extends Node {
 	 * @param height
 	 *            height of the rectangular bounds of this node
 	 */
-	public InternalNode(Point2D.Float origin, int width, int height) {
+	public InternalNode(Point2D.Double origin, long width, long height) {
 		super(Node.INTERNAL);
 
 		this.origin = origin;
@@ -62,17 +62,17 @@ public class InternalNode extends Node {
 		halfWidth = width >> 1;
 		halfHeight = height >> 1;
 
-		origins = new Point2D.Float[4];
-		origins[0] = new Point2D.Float(origin.x, origin.y + halfHeight);
-		origins[1] = new Point2D.Float(origin.x + halfWidth, origin.y
+		origins = new Point2D.Double[4];
+		origins[0] = new Point2D.Double(origin.x, origin.y + halfHeight);
+		origins[1] = new Point2D.Double(origin.x + halfWidth, origin.y
 				+ halfHeight);
-		origins[2] = new Point2D.Float(origin.x, origin.y);
-		origins[3] = new Point2D.Float(origin.x + halfWidth, origin.y);
+		origins[2] = new Point2D.Double(origin.x, origin.y);
+		origins[3] = new Point2D.Double(origin.x + halfWidth, origin.y);
 
-		regions = new Rectangle2D.Float[4];
+		regions = new Rectangle2D.Double[4];
 		int i = 0;
 		while (i < 4) {
-			regions[i] = new Rectangle2D.Float(origins[i].x, origins[i].y,
+			regions[i] = new Rectangle2D.Double(origins[i].x, origins[i].y,
 					halfWidth, halfHeight);
 			i++;
 		}
@@ -80,14 +80,14 @@ public class InternalNode extends Node {
 		/* add a cross to the drawing panel */
 		if (Canvas.instance != null) {
             //canvas.addCross(getCenterX(), getCenterY(), halfWidth, Color.d);
-			int cx = getCenterX();
-			int cy = getCenterY();
+			long cx = getCenterX();
+			long cy = getCenterY();
             Canvas.instance.addLine(cx - halfWidth, cy, cx + halfWidth, cy, Color.BLACK);
             Canvas.instance.addLine(cx, cy - halfHeight, cx, cy + halfHeight, Color.BLACK);
 		}
 	}
 
-	public Node add(City city, Point2D.Float origin, int width, int height) {
+	public Node add(City city, Point2D.Double origin, long width, long height) {
 		final Point2D cityLocation = city.toPoint2D();
 		for (int i = 0; i < 4; i++) {
 			if (Lib.intersects(cityLocation, regions[i])) {
@@ -99,13 +99,15 @@ public class InternalNode extends Node {
 		return this;
 	}
 
-	public Node remove(City city, Point2D.Float origin, int width,
-			int height) {
+	public Node remove(City city, Point2D.Double origin, long width,
+			long height) {
 		final Point2D cityLocation = city.toPoint2D();
 		for (int i = 0; i < 4; i++) {
 			if (Lib.intersects(cityLocation, regions[i])) {
+				/* add stops at the first quadrant, so must remove */
 				children[i] = children[i].remove(city, origins[i],
 						halfWidth, halfHeight);
+				break;
 			}
 		}
 
@@ -191,7 +193,7 @@ public class InternalNode extends Node {
 	 *            quadrant that child lies within
 	 * @return rectangular region for this child node
 	 */
-	public Rectangle2D.Float getChildRegion(int quadrant) {
+	public Rectangle2D.Double getChildRegion(int quadrant) {
 		if (quadrant < 0 || quadrant > 3) {
 			throw new IllegalArgumentException();
 		} else {
@@ -204,8 +206,8 @@ public class InternalNode extends Node {
 	 * 
 	 * @return rectangular region contained by this internal node
 	 */
-	public Rectangle2D.Float getRegion() {
-		return new Rectangle2D.Float(origin.x, origin.y, width, height);
+	public Rectangle2D.Double getRegion() {
+		return new Rectangle2D.Double(origin.x, origin.y, width, height);
 	}
 
 	/**
@@ -213,8 +215,8 @@ public class InternalNode extends Node {
 	 * 
 	 * @return center X coordinate of this node's rectangular bounds
 	 */
-	public int getCenterX() {
-		return (int) origin.x + halfWidth;
+	public long getCenterX() {
+		return (long) origin.x + halfWidth;
 	}
 
 	/**
@@ -222,15 +224,15 @@ public class InternalNode extends Node {
 	 * 
 	 * @return center Y coordinate of this node's rectangular bounds
 	 */
-	public int getCenterY() {
-		return (int) origin.y + halfHeight;
+	public long getCenterY() {
+		return (long) origin.y + halfHeight;
 	}
 
 	/**
 	 * Gets half the width of this internal node.
 	 * @return half the width of this internal node
 	 */
-	public int getHalfWidth() {
+	public long getHalfWidth() {
 		return halfWidth;
 	}
 
@@ -238,7 +240,7 @@ public class InternalNode extends Node {
 	 * Gets half the height of this internal node.
 	 * @return half the height of this internal node
 	 */
-	public int getHalfHeight() {
+	public long getHalfHeight() {
 		return halfHeight;
 	}
 }
@@ -27,8 +27,8 @@ public class LeafNode extends Node {
 		return city;
 	}
 
-	public Node add(City newCity, Point2D.Float origin, int width,
-			int height) {
+	public Node add(City newCity, Point2D.Double origin, long width,
+			long height) {
 		if (city == null) {
 			/* node is empty, add city */
 			city = newCity;
@@ -43,8 +43,8 @@ public class LeafNode extends Node {
 		}
 	}
 
-	public Node remove(City city, Point2D.Float origin, int width,
-			int height) {
+	public Node remove(City city, Point2D.Double origin, long width,
+			long height) {
 		if (this.city != city) {
 			/* city not here */
 			throw new IllegalArgumentException();
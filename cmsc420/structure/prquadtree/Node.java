@@ -47,8 +47,8 @@ public abstract class Node {
 	 *            height of the rectangular bounds of this node
 	 * @return this node after the city has been added
 	 */
-	public abstract Node add(City city, Point2D.Float origin, int width,
-			int height);
+	public abstract Node add(City city, Point2D.Double origin, long width,
+			long height);
 
 	/**
 	 * Removes a city from the node. If this is a leaf node and the city is
@@ -66,8 +66,8 @@ public abstract class Node {
 	 *            height of the rectangular bounds of this node
 	 * @return this node after the city has been removed
 	 */
-	public abstract Node remove(City city, Point2D.Float origin, int width,
-			int height);
+	public abstract Node remove(City city, Point2D.Double origin, long width,
+			long height);
 
 	/**
 	 * Gets the type of the node (either empty, leaf, or internal).
@@ -22,17 +22,23 @@ public class PRQuadtree {
 	protected Node root;
 
 	/** bounds of the spatial map */
-	protected Point2D.Float spatialOrigin;
+	protected Point2D.Double spatialOrigin;
 
 	/** width of the spatial map */
-	protected int spatialWidth;
+	protected long spatialWidth;
 
 	/** height of the spatial map */
-	protected int spatialHeight;
+	protected long spatialHeight;
 
 	/** used to keep track of cities within the spatial map */
 	protected HashSet<String> cityNames;
 
+	/** closest city found so far by the current nearest query */
+	private City nearestCity;
+
+	/** squared distance to nearestCity */
+	private double nearestDistanceSq;
+
 
 	/**
 	 * Constructs an empty PR Quadtree.
@@ -40,7 +46,7 @@ public class PRQuadtree {
 	public PRQuadtree() {
 		root = EmptyNode.instance;
 		cityNames = new HashSet<String>();
-		spatialOrigin = new Point2D.Float(0, 0);
+		spatialOrigin = new Point2D.Double(0, 0);
 	}
 
 	/**
@@ -51,18 +57,35 @@ public class PRQuadtree {
 	 * @param spatialHeight
 	 *            height of the spatial map
 	 */
-	public void setRange(int spatialWidth, int spatialHeight) {
+	public void setRange(long spatialWidth, long spatialHeight) {
 		this.spatialWidth = spatialWidth;
 		this.spatialHeight = spatialHeight;
 	}
 
+	/**
+	 * Sets the bounds of the spatial map, including its origin. Only valid
+	 * while the PR Quadtree is empty.
+	 * 
+	 * @param spatialOrigin
+	 *            origin of the spatial map
+	 * @param spatialWidth
+	 *            width of the spatial map
+	 * @param spatialHeight
+	 *            height of the spatial map
+	 */
+	public void setRange(Point2D.Double spatialOrigin, long spatialWidth,
+			long spatialHeight) {
+		this.spatialOrigin = spatialOrigin;
+		setRange(spatialWidth, spatialHeight);
+	}
+
 
 	/**
 	 * Gets the height of the spatial map
 	 * 
 	 * @return height of the spatial map
 	 */
-	public float getSpatialHeight() {
+	public long getSpatialHeight() {
 		return spatialHeight;
 	}
 
@@ -71,7 +94,7 @@ public class PRQuadtree {
 	 * 
 	 * @return width of the spatial map
 	 */
-	public float getSpatialWidth() {
+	public long getSpatialWidth() {
 		return spatialWidth;
 	}
 
@@ -112,10 +135,10 @@ public class PRQuadtree {
 		}
 
 		/* check bounds */
-		int x = (int) city.getX();
-		int y = (int) city.getY();
-		if (x < spatialOrigin.x || x >= spatialWidth || y < spatialOrigin.y
-				|| y >= spatialHeight) {
+		long x = city.getX();
+		long y = city.getY();
+		if (x < spatialOrigin.x || x >= spatialOrigin.x + spatialWidth
+				|| y < spatialOrigin.y || y >= spatialOrigin.y + spatialHeight) {
 			/* city out of bounds */
 			throw new CityOutOfBoundsException();
 		}
@@ -161,6 +184,90 @@ public class PRQuadtree {
 	}
 
 
+	/**
+	 * Finds the city closest to a given point. Of two cities at the same
+	 * distance, the one whose name sorts last is returned.
+	 * 
+	 * @param point
+	 *            point the distance is measured from
+	 * @return nearest city, or null if the PR Quadtree is empty
+	 */
+	public City nearest(Point2D point) {
+		nearestCity = null;
+		nearestDistanceSq = Double.POSITIVE_INFINITY;
+		nearestHelper(root, point.getX(), point.getY());
+
+		final City nearest = nearestCity;
+		nearestCity = null;
+		return nearest;
+	}
+
+	/**
+	 * Depth-first branch and bound: the quadrant holding the point is searched
+	 * first, and any quadrant farther away than the best city found so far is
+	 * skipped.
+	 * 
+	 * @param node
+	 *            PR Quadtree node being examined
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 */
+	private void nearestHelper(Node node, double x, double y) {
+		if (node.getType() == Node.LEAF) {
+			final City city = ((LeafNode) node).getCity();
+			final double dx = city.pt.x - x;
+			final double dy = city.pt.y - y;
+			final double d = dx * dx + dy * dy;
+			if (d < nearestDistanceSq
+					|| (d == nearestDistanceSq && city.getName().compareTo(
+							nearestCity.getName()) > 0)) {
+				nearestCity = city;
+				nearestDistanceSq = d;
+			}
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+
+			/* quadrant containing the point, if any */
+			int first = -1;
+			for (int i = 0; i < 4; i++) {
+				if (distanceSq(x, y, internal.getChildRegion(i)) == 0) {
+					first = i;
+					nearestHelper(internal.getChild(i), x, y);
+					break;
+				}
+			}
+
+			for (int i = 0; i < 4; i++) {
+				if (i != first
+						&& distanceSq(x, y, internal.getChildRegion(i)) <= nearestDistanceSq) {
+					nearestHelper(internal.getChild(i), x, y);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the squared distance from a point to a rectangle, zero if the point
+	 * lies within it.
+	 */
+	private static double distanceSq(double x, double y, Rectangle2D rect) {
+		double dx = 0;
+		double dy = 0;
+		if (x < rect.getMinX()) {
+			dx = rect.getMinX() - x;
+		} else if (x > rect.getMaxX()) {
+			dx = x - rect.getMaxX();
+		}
+		if (y < rect.getMinY()) {
+			dy = rect.getMinY() - y;
+		} else if (y > rect.getMaxY()) {
+			dy = y - rect.getMaxY();
+		}
+		return dx * dx + dy * dy;
+	}
+
 	/**
 	 * Returns if any part of a circle lies within a given rectangular bounds
 	 * according to the rules of the PR Quadtree.
@@ -0,0 +1,163 @@
+package cmsc420.structure.prquadtree;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+import cmsc420.drawing.CanvasPlus;
+import cmsc420.exception.CityAlreadyMappedException;
+import cmsc420.exception.CityOutOfBoundsException;
+import cmsc420.structure.City;
+import cmsc420.structure.CityNameComparator;
+import cmsc420.structure.NearestFirstIterator;
+import cmsc420.structure.RoadComparator;
+import cmsc420.structure.SpatialIndex;
+import cmsc420.structure.pmquadtree.QEdge;
+import cmsc420.utils.Canvas;
+import cmsc420.utils.Lib;
+
+/**
+ * SpatialIndex backed by a PR Quadtree. Cities go into a PR Quadtree
+ * covering every coordinate a map can hold, so the index needs no bounds of
+ * its own. A PR Quadtree stores points only; roads are kept in a list and
+ * every road query scans it.
+ */
+public class PRQuadtreeIndex implements SpatialIndex {
+
+	/** half the side of the region indexed, centered on the origin */
+	private static final long EXTENT = 1L << 53;
+
+	/** ordering of cities at the same distance */
+	private static final CityNameComparator CITY_ORDER = new CityNameComparator();
+
+	/** ordering of roads at the same distance */
+	private static final RoadComparator ROAD_ORDER = new RoadComparator();
+
+	/** indexed cities */
+	protected final PRQuadtree cities = new PRQuadtree();
+
+	/** indexed roads */
+	protected final ArrayList<QEdge> roads = new ArrayList<QEdge>();
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public PRQuadtreeIndex() {
+		cities.setRange(new Point2D.Double(-EXTENT, -EXTENT), EXTENT << 1,
+				EXTENT << 1);
+	}
+
+	public void addCity(City city) {
+		/* PR Quadtree nodes draw their partitions; keep them off the canvas */
+		final CanvasPlus canvas = Canvas.suspend();
+		try {
+			cities.add(city);
+		} catch (CityAlreadyMappedException e) {
+			throw new IllegalArgumentException(e);
+		} catch (CityOutOfBoundsException e) {
+			throw new IllegalArgumentException(e);
+		} finally {
+			Canvas.resume(canvas);
+		}
+	}
+
+	public boolean removeCity(City city) {
+		final CanvasPlus canvas = Canvas.suspend();
+		try {
+			return cities.remove(city);
+		} finally {
+			Canvas.resume(canvas);
+		}
+	}
+
+	public void addRoad(QEdge road) {
+		roads.add(road);
+	}
+
+	public boolean removeRoad(QEdge road) {
+		return roads.remove(road);
+	}
+
+	public void clear() {
+		cities.clear();
+		roads.clear();
+	}
+
+	public void rangeCities(long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		rangeCitiesHelper(cities.getRoot(), x, y, radius, citiesInRange);
+	}
+
+	private void rangeCitiesHelper(Node node, long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		if (node.getType() == Node.LEAF) {
+			final City city = ((LeafNode) node).getCity();
+			if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+				citiesInRange.add(city);
+			}
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			for (int i = 0; i < 4; i++) {
+				final Rectangle2D.Double region = internal.getChildRegion(i);
+				if (Lib.rectWithin(x, y, radius, region.x, region.y, region.x
+						+ region.width, region.y + region.height)) {
+					rangeCitiesHelper(internal.getChild(i), x, y, radius,
+							citiesInRange);
+				}
+			}
+		}
+	}
+
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		for (QEdge road : roads) {
+			if (Lib.segmentWithin(road, x, y, radius)) {
+				roadsInRange.add(road);
+			}
+		}
+	}
+
+	public Iterator<City> nearestCities(final double x, final double y) {
+		final NearestFirstIterator<City> search = new NearestFirstIterator<City>(
+				CITY_ORDER) {
+			{
+				pushNode(0, cities.getRoot());
+			}
+
+			protected void expand(Object value) {
+				final Node node = (Node) value;
+				if (node.getType() == Node.LEAF) {
+					final City city = ((LeafNode) node).getCity();
+					pushItem(city.pt.distanceSq(x, y), city);
+				} else if (node.getType() == Node.INTERNAL) {
+					final InternalNode internal = (InternalNode) node;
+					for (int i = 0; i < 4; i++) {
+						final Rectangle2D.Double region = internal
+								.getChildRegion(i);
+						pushNode(distanceSq(x, y, region.x, region.y, region.x
+								+ region.width, region.y + region.height),
+								internal.getChild(i));
+					}
+				}
+			}
+		};
+		return search;
+	}
+
+	public QEdge nearestRoad(double x, double y) {
+		QEdge nearest = null;
+		double nearestDistanceSq = Double.POSITIVE_INFINITY;
+		for (QEdge road : roads) {
+			final double d = road.ptSegDistSq(x, y);
+			if (d < nearestDistanceSq
+					|| (d == nearestDistanceSq && ROAD_ORDER.compare(road,
+							nearest) < 0)) {
+				nearest = road;
+				nearestDistanceSq = d;
+			}
+		}
+		return nearest;
+	}
+}
@@ -0,0 +1,131 @@
+package cmsc420.structure.rtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import cmsc420.structure.pmquadtree.QEdge;
+
+/**
+ * R-tree SpatialIndex whose road tree is bulk-loaded with Sort-Tile-Recursive
+ * packing (Leutenegger, Lopez and Edgington). Each road is stored once, in a
+ * single leaf entry, however many PM Quadtree leaves it crosses.
+ * <p>
+ * Roads added are held back until the next road query. If they are at least
+ * as many as the roads already in the tree, the whole tree is packed again
+ * from scratch; otherwise they are inserted one at a time, as in RTree.
+ * Cities are kept exactly as in RTree.
+ */
+public class PackedRTree extends RTree {
+
+	/** orders entries by the X coordinate of their centers */
+	private static final Comparator<Entry> BY_X = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return Double.compare(a.minX + a.maxX, b.minX + b.maxX);
+		}
+	};
+
+	/** orders entries by the Y coordinate of their centers */
+	private static final Comparator<Entry> BY_Y = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return Double.compare(a.minY + a.maxY, b.minY + b.maxY);
+		}
+	};
+
+	/** roads added since the road tree was last brought up to date */
+	protected final ArrayList<QEdge> pending = new ArrayList<QEdge>();
+
+	public void addRoad(QEdge road) {
+		pending.add(road);
+	}
+
+	public boolean removeRoad(QEdge road) {
+		return pending.remove(road) || roads.remove(roadEntry(road));
+	}
+
+	public void clear() {
+		super.clear();
+		pending.clear();
+	}
+
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		flush();
+		super.rangeRoads(x, y, radius, roadsInRange);
+	}
+
+	public QEdge nearestRoad(double x, double y) {
+		flush();
+		return super.nearestRoad(x, y);
+	}
+
+	/**
+	 * Brings the road tree up to date with the roads held back.
+	 */
+	protected void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+		if (pending.size() >= roads.size) {
+			final ArrayList<Entry> entries = new ArrayList<Entry>(roads.size
+					+ pending.size());
+			collect(roads.root, entries);
+			for (QEdge road : pending) {
+				entries.add(roadEntry(road));
+			}
+			roads.root = pack(entries);
+			roads.size = entries.size();
+		} else {
+			for (QEdge road : pending) {
+				roads.insert(roadEntry(road));
+			}
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Builds an R-tree over a list of leaf entries, level by level: each
+	 * level is sorted into vertical slices by X, each slice is sorted by Y,
+	 * and runs of consecutive entries become the nodes of the next level.
+	 *
+	 * @param entries
+	 *            leaf entries; reordered by the packing
+	 * @return root node of the packed tree
+	 */
+	static RNode pack(List<Entry> entries) {
+		boolean leaf = true;
+		List<Entry> level = entries;
+		while (level.size() > MAX_ENTRIES) {
+			final ArrayList<Entry> parents = new ArrayList<Entry>();
+			final int nodes = (level.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+			final int slices = (int) Math.ceil(Math.sqrt(nodes));
+			Collections.sort(level, BY_X);
+			int from = 0;
+			for (int s = 0; s < slices; s++) {
+				/* spread the entries evenly over the slices */
+				final int to = (int) ((long) level.size() * (s + 1) / slices);
+				final List<Entry> slice = level.subList(from, to);
+				Collections.sort(slice, BY_Y);
+
+				/* and evenly over the nodes of each slice */
+				final int count = (slice.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+				int start = 0;
+				for (int n = 0; n < count; n++) {
+					final int end = (int) ((long) slice.size() * (n + 1) / count);
+					final RNode node = new RNode(leaf);
+					node.entries.addAll(slice.subList(start, end));
+					parents.add(node.toEntry());
+					start = end;
+				}
+				from = to;
+			}
+			level = parents;
+			leaf = false;
+		}
+		final RNode root = new RNode(leaf);
+		root.entries.addAll(level);
+		return root;
+	}
+}
@@ -0,0 +1,461 @@
+package cmsc420.structure.rtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+import cmsc420.structure.City;
+import cmsc420.structure.CityNameComparator;
+import cmsc420.structure.NearestFirstIterator;
+import cmsc420.structure.RoadComparator;
+import cmsc420.structure.SpatialIndex;
+import cmsc420.structure.pmquadtree.QEdge;
+import cmsc420.utils.Lib;
+
+/**
+ * SpatialIndex backed by two R-trees (Guttman), one of cities and one of
+ * roads. Every city and road is stored exactly once, in a leaf entry holding
+ * its minimum bounding rectangle; internal entries hold the bounding
+ * rectangle of their child node, and queries prune on those.
+ * <p>
+ * Insertion follows the entry needing the least enlargement down to a leaf,
+ * and an overflowing node is divided with the quadratic split. A node left
+ * with too few entries after a removal is dissolved and its items inserted
+ * again.
+ */
+public class RTree implements SpatialIndex {
+
+	/** most entries a node may hold */
+	static final int MAX_ENTRIES = 8;
+
+	/** fewest entries a node other than the root may hold */
+	static final int MIN_ENTRIES = 3;
+
+	/** ordering of cities at the same distance */
+	private static final CityNameComparator CITY_ORDER = new CityNameComparator();
+
+	/** ordering of roads at the same distance */
+	private static final RoadComparator ROAD_ORDER = new RoadComparator();
+
+	/**
+	 * Entry of an R-tree node: a bounding rectangle and either a child node
+	 * or, in a leaf, an item.
+	 */
+	static final class Entry {
+		/** bounding rectangle */
+		double minX, minY, maxX, maxY;
+
+		/** child node, or the city or road of a leaf entry */
+		final Object child;
+
+		Entry(Object child, double minX, double minY, double maxX, double maxY) {
+			this.child = child;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+
+		/** area of the rectangle */
+		double area() {
+			return (maxX - minX) * (maxY - minY);
+		}
+
+		/** area of the rectangle once grown to include another */
+		double unionArea(Entry e) {
+			return (Math.max(maxX, e.maxX) - Math.min(minX, e.minX))
+					* (Math.max(maxY, e.maxY) - Math.min(minY, e.minY));
+		}
+
+		/** returns if the rectangle contains another */
+		boolean contains(Entry e) {
+			return minX <= e.minX && minY <= e.minY && maxX >= e.maxX
+					&& maxY >= e.maxY;
+		}
+
+		/** grows the rectangle to include another */
+		void include(Entry e) {
+			minX = Math.min(minX, e.minX);
+			minY = Math.min(minY, e.minY);
+			maxX = Math.max(maxX, e.maxX);
+			maxY = Math.max(maxY, e.maxY);
+		}
+	}
+
+	/**
+	 * Node of an R-tree.
+	 */
+	static final class RNode {
+		/** whether the entries hold items rather than child nodes */
+		final boolean leaf;
+
+		/** entries of the node */
+		final ArrayList<Entry> entries = new ArrayList<Entry>(MAX_ENTRIES + 1);
+
+		RNode(boolean leaf) {
+			this.leaf = leaf;
+		}
+
+		/** gets an entry for this node, bounding all of its entries */
+		Entry toEntry() {
+			final Entry first = entries.get(0);
+			final Entry bounds = new Entry(this, first.minX, first.minY,
+					first.maxX, first.maxY);
+			for (Entry e : entries) {
+				bounds.include(e);
+			}
+			return bounds;
+		}
+	}
+
+	/**
+	 * A single R-tree of items of one kind.
+	 */
+	static final class Tree {
+		/** root node; an empty leaf when the tree is empty */
+		RNode root = new RNode(true);
+
+		/** number of items stored */
+		int size;
+
+		void insert(Entry item) {
+			final Entry split = insert(root, item);
+			if (split != null) {
+				/* the root was split: grow the tree by a level */
+				final RNode newRoot = new RNode(false);
+				newRoot.entries.add(root.toEntry());
+				newRoot.entries.add(split);
+				root = newRoot;
+			}
+			size++;
+		}
+
+		/**
+		 * Inserts an item below a node.
+		 *
+		 * @return entry for the new sibling if the node was split, else null
+		 */
+		private Entry insert(RNode node, Entry item) {
+			if (node.leaf) {
+				node.entries.add(item);
+			} else {
+				/* child needing the least enlargement, then the smallest */
+				Entry best = null;
+				double bestGrowth = 0;
+				double bestArea = 0;
+				for (Entry e : node.entries) {
+					final double area = e.area();
+					final double growth = e.unionArea(item) - area;
+					if (best == null || growth < bestGrowth
+							|| (growth == bestGrowth && area < bestArea)) {
+						best = e;
+						bestGrowth = growth;
+						bestArea = area;
+					}
+				}
+				final RNode child = (RNode) best.child;
+				final Entry split = insert(child, item);
+				if (split == null) {
+					best.include(item);
+				} else {
+					/* the child lost entries to its new sibling */
+					node.entries.set(node.entries.indexOf(best), child.toEntry());
+					node.entries.add(split);
+				}
+			}
+			return node.entries.size() > MAX_ENTRIES ? split(node) : null;
+		}
+
+		/**
+		 * Divides the entries of an overflowing node between it and a new
+		 * sibling (Guttman's quadratic split).
+		 *
+		 * @return entry for the new sibling
+		 */
+		private Entry split(RNode node) {
+			final ArrayList<Entry> remaining = new ArrayList<Entry>(node.entries);
+			node.entries.clear();
+			final RNode sibling = new RNode(node.leaf);
+
+			/* seeds: the pair that would waste the most area together */
+			int seedA = 0;
+			int seedB = 1;
+			double worst = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < remaining.size(); i++) {
+				for (int j = i + 1; j < remaining.size(); j++) {
+					final Entry a = remaining.get(i);
+					final Entry b = remaining.get(j);
+					final double waste = a.unionArea(b) - a.area() - b.area();
+					if (waste > worst) {
+						worst = waste;
+						seedA = i;
+						seedB = j;
+					}
+				}
+			}
+			final Entry a = remaining.get(seedA);
+			final Entry b = remaining.get(seedB);
+			remaining.remove(seedB);
+			remaining.remove(seedA);
+			node.entries.add(a);
+			sibling.entries.add(b);
+			final Entry boundsA = new Entry(null, a.minX, a.minY, a.maxX, a.maxY);
+			final Entry boundsB = new Entry(null, b.minX, b.minY, b.maxX, b.maxY);
+
+			while (!remaining.isEmpty()) {
+				/* a group that needs every remaining entry gets them all */
+				if (node.entries.size() + remaining.size() == MIN_ENTRIES) {
+					node.entries.addAll(remaining);
+					break;
+				}
+				if (sibling.entries.size() + remaining.size() == MIN_ENTRIES) {
+					sibling.entries.addAll(remaining);
+					break;
+				}
+
+				/* the entry with the strongest preference for one group */
+				int next = 0;
+				double growthA = 0;
+				double growthB = 0;
+				double strongest = -1;
+				for (int i = 0; i < remaining.size(); i++) {
+					final Entry e = remaining.get(i);
+					final double ga = boundsA.unionArea(e) - boundsA.area();
+					final double gb = boundsB.unionArea(e) - boundsB.area();
+					if (Math.abs(ga - gb) > strongest) {
+						strongest = Math.abs(ga - gb);
+						next = i;
+						growthA = ga;
+						growthB = gb;
+					}
+				}
+				final Entry e = remaining.remove(next);
+				final boolean toA;
+				if (growthA != growthB) {
+					toA = growthA < growthB;
+				} else if (boundsA.area() != boundsB.area()) {
+					toA = boundsA.area() < boundsB.area();
+				} else {
+					toA = node.entries.size() <= sibling.entries.size();
+				}
+				if (toA) {
+					node.entries.add(e);
+					boundsA.include(e);
+				} else {
+					sibling.entries.add(e);
+					boundsB.include(e);
+				}
+			}
+			return sibling.toEntry();
+		}
+
+		boolean remove(Entry item) {
+			final ArrayList<Entry> orphans = new ArrayList<Entry>();
+			if (!remove(root, item, orphans)) {
+				return false;
+			}
+			size--;
+
+			/* a root with a single child is replaced by that child */
+			while (!root.leaf && root.entries.size() == 1) {
+				root = (RNode) root.entries.get(0).child;
+			}
+			if (!root.leaf && root.entries.isEmpty()) {
+				root = new RNode(true);
+			}
+
+			/* items of dissolved nodes go back in from the top */
+			size -= orphans.size();
+			for (Entry orphan : orphans) {
+				insert(orphan);
+			}
+			return true;
+		}
+
+		/**
+		 * Removes an item from below a node. Children left underfull are
+		 * dropped, and their items added to the orphans.
+		 *
+		 * @return true if the item was found
+		 */
+		private boolean remove(RNode node, Entry item, ArrayList<Entry> orphans) {
+			if (node.leaf) {
+				for (int i = 0; i < node.entries.size(); i++) {
+					if (node.entries.get(i).child.equals(item.child)) {
+						node.entries.remove(i);
+						return true;
+					}
+				}
+				return false;
+			}
+			for (int i = 0; i < node.entries.size(); i++) {
+				final Entry e = node.entries.get(i);
+				final RNode child = (RNode) e.child;
+				if (e.contains(item) && remove(child, item, orphans)) {
+					if (child.entries.size() < MIN_ENTRIES) {
+						node.entries.remove(i);
+						collect(child, orphans);
+					} else {
+						node.entries.set(i, child.toEntry());
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void clear() {
+			root = new RNode(true);
+			size = 0;
+		}
+	}
+
+	/** R-tree of cities */
+	protected final Tree cities = new Tree();
+
+	/** R-tree of roads */
+	protected final Tree roads = new Tree();
+
+	public void addCity(City city) {
+		cities.insert(cityEntry(city));
+	}
+
+	public boolean removeCity(City city) {
+		return cities.remove(cityEntry(city));
+	}
+
+	public void addRoad(QEdge road) {
+		roads.insert(roadEntry(road));
+	}
+
+	public boolean removeRoad(QEdge road) {
+		return roads.remove(roadEntry(road));
+	}
+
+	public void clear() {
+		cities.clear();
+		roads.clear();
+	}
+
+	public void rangeCities(long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		rangeCitiesHelper(cities.root, x, y, radius, citiesInRange);
+	}
+
+	private void rangeCitiesHelper(RNode node, long x, long y, long radius,
+			Collection<City> citiesInRange) {
+		for (Entry e : node.entries) {
+			if (node.leaf) {
+				final City city = (City) e.child;
+				if (Lib.within(city.getX() - x, city.getY() - y, radius)) {
+					citiesInRange.add(city);
+				}
+			} else if (Lib.rectWithin(x, y, radius, e.minX, e.minY, e.maxX,
+					e.maxY)) {
+				rangeCitiesHelper((RNode) e.child, x, y, radius, citiesInRange);
+			}
+		}
+	}
+
+	public void rangeRoads(long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		rangeRoadsHelper(roads.root, x, y, radius, roadsInRange);
+	}
+
+	static void rangeRoadsHelper(RNode node, long x, long y, long radius,
+			Collection<QEdge> roadsInRange) {
+		for (Entry e : node.entries) {
+			if (!Lib.rectWithin(x, y, radius, e.minX, e.minY, e.maxX, e.maxY)) {
+				continue;
+			}
+			if (node.leaf) {
+				final QEdge road = (QEdge) e.child;
+				if (Lib.segmentWithin(road, x, y, radius)) {
+					roadsInRange.add(road);
+				}
+			} else {
+				rangeRoadsHelper((RNode) e.child, x, y, radius, roadsInRange);
+			}
+		}
+	}
+
+	public Iterator<City> nearestCities(final double x, final double y) {
+		return new NearestFirstIterator<City>(CITY_ORDER) {
+			{
+				pushNode(0, cities.root);
+			}
+
+			protected void expand(Object value) {
+				final RNode node = (RNode) value;
+				for (Entry e : node.entries) {
+					if (node.leaf) {
+						final City city = (City) e.child;
+						pushItem(city.pt.distanceSq(x, y), city);
+					} else {
+						pushNode(distanceSq(x, y, e.minX, e.minY, e.maxX,
+								e.maxY), e.child);
+					}
+				}
+			}
+		};
+	}
+
+	public QEdge nearestRoad(double x, double y) {
+		return nearestRoad(roads.root, x, y);
+	}
+
+	/**
+	 * Finds the road closest to a point among those below an R-tree node.
+	 */
+	static QEdge nearestRoad(final RNode root, final double x, final double y) {
+		final Iterator<QEdge> nearest = new NearestFirstIterator<QEdge>(
+				ROAD_ORDER) {
+			{
+				pushNode(0, root);
+			}
+
+			protected void expand(Object value) {
+				final RNode node = (RNode) value;
+				for (Entry e : node.entries) {
+					if (node.leaf) {
+						final QEdge road = (QEdge) e.child;
+						pushItem(road.ptSegDistSq(x, y), road);
+					} else {
+						pushNode(distanceSq(x, y, e.minX, e.minY, e.maxX,
+								e.maxY), e.child);
+					}
+				}
+			}
+		};
+		return nearest.hasNext() ? nearest.next() : null;
+	}
+
+	/**
+	 * Adds the items stored below a node to a list of leaf entries.
+	 */
+	static void collect(RNode node, ArrayList<Entry> items) {
+		if (node.leaf) {
+			items.addAll(node.entries);
+		} else {
+			for (Entry e : node.entries) {
+				collect((RNode) e.child, items);
+			}
+		}
+	}
+
+	/**
+	 * Gets a leaf entry for a city.
+	 */
+	static Entry cityEntry(City city) {
+		return new Entry(city, city.pt.x, city.pt.y, city.pt.x, city.pt.y);
+	}
+
+	/**
+	 * Gets a leaf entry for a road, bounded by its endpoints.
+	 */
+	static Entry roadEntry(QEdge road) {
+		return new Entry(road, Math.min(road.x1, road.x2), Math.min(road.y1,
+				road.y2), Math.max(road.x1, road.x2), Math.max(road.y1,
+				road.y2));
+	}
+}
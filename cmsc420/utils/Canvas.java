@@ -29,6 +29,28 @@ public class Canvas {
 	public static void setDisabled() {
 		instance = null; 
 	}
+
+	/**
+	 * Stops drawing, for structures that draw themselves but are built out
+	 * of sight. Hand what this returns to resume once they are built.
+	 * 
+	 * @return the canvas drawing was going to, or null if it was disabled
+	 */
+	public static CanvasPlus suspend() {
+		final CanvasPlus canvas = instance;
+		instance = null;
+		return canvas;
+	}
+
+	/**
+	 * Draws again to the canvas drawing went to before suspend.
+	 * 
+	 * @param canvas
+	 *            what suspend returned
+	 */
+	public static void resume(CanvasPlus canvas) {
+		instance = canvas;
+	}
 	
 	public static void dispose() {
 		if (instance != null) {
@@ -2,9 +2,18 @@ package cmsc420.utils;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.math.BigInteger;
+
+import cmsc420.structure.pmquadtree.QEdge;
 
 public class Lib {
 
+	/**
+	 * coordinate differences below this bound can be squared and summed in a
+	 * long without overflow
+	 */
+	private static final long EXACT_LIMIT = 1L << 31;
+
 	/**
 	 * Returns if a point lies within a given rectangular bounds according to
 	 * the rules of the PR Quadtree.
@@ -21,4 +30,145 @@ public class Lib {
 				&& point.getY() >= rect.getMinY() && point.getY() <= rect
 				.getMaxY());
 	}
+
+	/**
+	 * Returns if a vector is no longer than a given length. The comparison
+	 * is exact: made in longs while the squares fit in one, which covers
+	 * every map up to 2^31 wide, and in BigIntegers beyond that.
+	 */
+	public static boolean within(long dx, long dy, long radius) {
+		if (Math.abs(dx) < EXACT_LIMIT && Math.abs(dy) < EXACT_LIMIT
+				&& radius < EXACT_LIMIT) {
+			return dx * dx + dy * dy <= radius * radius;
+		}
+		return square(dx).add(square(dy)).compareTo(square(radius)) <= 0;
+	}
+
+	/**
+	 * Returns if any point of a rectangle with integer corners lies within a
+	 * distance of a point.
+	 */
+	public static boolean rectWithin(long x, long y, long radius,
+			double minX, double minY, double maxX, double maxY) {
+		long dx = 0;
+		long dy = 0;
+		if (x < minX) {
+			dx = (long) minX - x;
+		} else if (x > maxX) {
+			dx = x - (long) maxX;
+		}
+		if (y < minY) {
+			dy = (long) minY - y;
+		} else if (y > maxY) {
+			dy = y - (long) maxY;
+		}
+		return within(dx, dy, radius);
+	}
+
+	/**
+	 * Returns if any point of a road lies within a distance of a point. The
+	 * comparison is exact, like that of within.
+	 */
+	public static boolean segmentWithin(QEdge road, long x, long y, long radius) {
+		final long x1 = road.getStart().getX();
+		final long y1 = road.getStart().getY();
+		final long dx = road.getEnd().getX() - x1;
+		final long dy = road.getEnd().getY() - y1;
+		final long wx = x - x1;
+		final long wy = y - y1;
+
+		if (Math.abs(dx) >= EXACT_LIMIT || Math.abs(dy) >= EXACT_LIMIT
+				|| Math.abs(wx) >= EXACT_LIMIT || Math.abs(wy) >= EXACT_LIMIT
+				|| radius >= EXACT_LIMIT) {
+			/* the products below would overflow a long */
+			return segmentWithin(BigInteger.valueOf(dx), BigInteger
+					.valueOf(dy), BigInteger.valueOf(wx), BigInteger
+					.valueOf(wy), square(radius));
+		}
+		final long radiusSq = radius * radius;
+
+		final long dot = wx * dx + wy * dy;
+		if (dot <= 0) {
+			/* closest to the start point */
+			return wx * wx + wy * wy <= radiusSq;
+		}
+		final long lengthSq = dx * dx + dy * dy;
+		if (dot >= lengthSq) {
+			/* closest to the end point */
+			final long ex = wx - dx;
+			final long ey = wy - dy;
+			return ex * ex + ey * ey <= radiusSq;
+		}
+
+		/*
+		 * closest to an interior point: cross^2 / length^2 <= radius^2; the
+		 * cross product fits in a long, but the products compared take up
+		 * to 126 bits
+		 */
+		final long cross = Math.abs(wx * dy - wy * dx);
+		return compareProducts(cross, cross, radiusSq, lengthSq) <= 0;
+	}
+
+	/**
+	 * The same test as segmentWithin, in BigIntegers, for coordinates whose
+	 * products do not fit in a long.
+	 */
+	private static boolean segmentWithin(BigInteger dx, BigInteger dy,
+			BigInteger wx, BigInteger wy, BigInteger radiusSq) {
+		final BigInteger dot = wx.multiply(dx).add(wy.multiply(dy));
+		if (dot.signum() <= 0) {
+			/* closest to the start point */
+			return wx.multiply(wx).add(wy.multiply(wy)).compareTo(radiusSq) <= 0;
+		}
+		final BigInteger lengthSq = dx.multiply(dx).add(dy.multiply(dy));
+		if (dot.compareTo(lengthSq) >= 0) {
+			/* closest to the end point */
+			final BigInteger ex = wx.subtract(dx);
+			final BigInteger ey = wy.subtract(dy);
+			return ex.multiply(ex).add(ey.multiply(ey)).compareTo(radiusSq) <= 0;
+		}
+
+		/* closest to an interior point */
+		final BigInteger cross = wx.multiply(dy).subtract(wy.multiply(dx));
+		return cross.multiply(cross).compareTo(radiusSq.multiply(lengthSq)) <= 0;
+	}
+
+	private static BigInteger square(long value) {
+		final BigInteger big = BigInteger.valueOf(value);
+		return big.multiply(big);
+	}
+
+	/**
+	 * Compares the products a * b and c * d of non-negative longs, taking
+	 * each product to its full 128 bits.
+	 * 
+	 * @return negative, zero or positive as a * b is less than, equal to or
+	 *         greater than c * d
+	 */
+	static int compareProducts(long a, long b, long c, long d) {
+		final long high = multiplyHigh(a, b);
+		final long otherHigh = multiplyHigh(c, d);
+		if (high != otherHigh) {
+			return high < otherHigh ? -1 : 1;
+		}
+		/* the low halves are unsigned; offsetting both keeps their order */
+		final long low = a * b + Long.MIN_VALUE;
+		final long otherLow = c * d + Long.MIN_VALUE;
+		return low < otherLow ? -1 : (low == otherLow ? 0 : 1);
+	}
+
+	/**
+	 * Gets the high 64 bits of the 128-bit product of two non-negative
+	 * longs, from the products of their 32-bit halves.
+	 */
+	private static long multiplyHigh(long x, long y) {
+		final long x0 = x & 0xFFFFFFFFL;
+		final long x1 = x >>> 32;
+		final long y0 = y & 0xFFFFFFFFL;
+		final long y1 = y >>> 32;
+		final long middle = ((x0 * y0) >>> 32) + ((x1 * y0) & 0xFFFFFFFFL)
+				+ ((x0 * y1) & 0xFFFFFFFFL);
+		return x1 * y1 + ((x1 * y0) >>> 32) + ((x0 * y1) >>> 32)
+				+ (middle >>> 32);
+	}
 }
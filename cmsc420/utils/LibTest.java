@@ -0,0 +1,166 @@
+package cmsc420.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cmsc420.structure.City;
+import cmsc420.structure.pmquadtree.QEdge;
+
+/**
+ * Tests of the exact distance tests: the 128-bit product comparison, and
+ * segmentWithin and within on either side of the circle's edge, for
+ * coordinates small enough for longs and large enough to need more.
+ */
+public class LibTest {
+
+	private final Random random = new Random(420);
+
+	@Test
+	public void compareProductsMatchesBigIntegers() {
+		for (int i = 0; i < 100000; i++) {
+			final long a = nonNegative();
+			final long b = nonNegative();
+			final long c = nonNegative();
+			final long d = i % 2 == 0 ? nonNegative() : b;
+			final int expected = big(a).multiply(big(b)).compareTo(
+					big(c).multiply(big(d)));
+			assertEquals(expected, Integer.signum(Lib.compareProducts(a, b, c,
+					d)));
+		}
+		assertEquals(0, Lib.compareProducts(Long.MAX_VALUE, Long.MAX_VALUE,
+				Long.MAX_VALUE, Long.MAX_VALUE));
+		assertEquals(0, Lib.compareProducts(Long.MAX_VALUE, Long.MAX_VALUE - 1,
+				Long.MAX_VALUE - 1, Long.MAX_VALUE));
+		assertTrue(Lib.compareProducts(Long.MAX_VALUE - 1, Long.MAX_VALUE,
+				Long.MAX_VALUE, Long.MAX_VALUE) < 0);
+	}
+
+	@Test
+	public void segmentWithinIsExactPastTwoToThe26() {
+		/*
+		 * the point lies just outside the radius; the squares compared differ
+		 * by less than doubles can tell apart at this size
+		 */
+		final QEdge road = road(0, 0, 912986010, 985928689);
+		assertFalse(Lib.segmentWithin(road, 303551628, 326312472, 1013255));
+		assertTrue(Lib.segmentWithin(road, 303551628, 326312472, 1013256));
+	}
+
+	@Test
+	public void segmentWithinOnTheEdgeOfTheCircle() {
+		/* longs do for coordinates below 2^30; past 2^61, BigIntegers */
+		for (final long extent : new long[] { 1L << 30, 1L << 61 }) {
+			for (int i = 0; i < 20000; i++) {
+				final long x1 = coordinate(extent);
+				final long y1 = coordinate(extent);
+				final long x2 = coordinate(extent);
+				final long y2 = coordinate(extent);
+				final long x = coordinate(extent);
+				final long y = coordinate(extent);
+				if (x1 == x2 && y1 == y2) {
+					continue;
+				}
+				final QEdge road = road(x1, y1, x2, y2);
+				final long radius = edgeRadius(x1, y1, x2, y2, x, y);
+				assertTrue(Lib.segmentWithin(road, x, y, radius));
+				if (radius > 0) {
+					assertFalse(Lib.segmentWithin(road, x, y, radius - 1));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void withinOnTheEdgeOfTheCircle() {
+		for (final long extent : new long[] { 1L << 30, 1L << 61 }) {
+			for (int i = 0; i < 20000; i++) {
+				final long dx = coordinate(extent);
+				final long dy = coordinate(extent);
+				final long radius = sqrtCeiling(big(dx).pow(2).add(
+						big(dy).pow(2)));
+				assertTrue(Lib.within(dx, dy, radius));
+				if (radius > 0) {
+					assertFalse(Lib.within(dx, dy, radius - 1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the smallest radius within which some point of a segment lies
+	 * from a point, working on the squared distance as a fraction.
+	 */
+	private static long edgeRadius(long x1, long y1, long x2, long y2, long x,
+			long y) {
+		final BigInteger dx = big(x2 - x1);
+		final BigInteger dy = big(y2 - y1);
+		final BigInteger wx = big(x - x1);
+		final BigInteger wy = big(y - y1);
+		final BigInteger lengthSq = dx.pow(2).add(dy.pow(2));
+		BigInteger t = wx.multiply(dx).add(wy.multiply(dy));
+		if (t.signum() < 0) {
+			t = BigInteger.ZERO;
+		} else if (t.compareTo(lengthSq) > 0) {
+			t = lengthSq;
+		}
+		/* the closest point is the start plus t / lengthSq of the road */
+		final BigInteger ex = wx.multiply(lengthSq).subtract(t.multiply(dx));
+		final BigInteger ey = wy.multiply(lengthSq).subtract(t.multiply(dy));
+		final BigInteger numerator = ex.pow(2).add(ey.pow(2));
+		final BigInteger denominator = lengthSq.pow(2);
+		long radius = sqrtCeiling(numerator.divide(denominator));
+		while (radius > 0
+				&& big(radius - 1).pow(2).multiply(denominator).compareTo(
+						numerator) >= 0) {
+			radius--;
+		}
+		while (big(radius).pow(2).multiply(denominator).compareTo(numerator) < 0) {
+			radius++;
+		}
+		return radius;
+	}
+
+	/**
+	 * Gets the smallest long whose square is at least a value.
+	 */
+	private static long sqrtCeiling(BigInteger value) {
+		long root = (long) Math.sqrt(value.doubleValue());
+		while (root > 0 && big(root - 1).pow(2).compareTo(value) >= 0) {
+			root--;
+		}
+		while (big(root).pow(2).compareTo(value) < 0) {
+			root++;
+		}
+		return root;
+	}
+
+	private long nonNegative() {
+		switch (random.nextInt(3)) {
+		case 0:
+			return random.nextLong() >>> 1;
+		case 1:
+			return Long.MAX_VALUE - random.nextInt(1000);
+		default:
+			return random.nextInt(Integer.MAX_VALUE);
+		}
+	}
+
+	private long coordinate(long extent) {
+		return (random.nextLong() >>> 1) % (2 * extent) - extent;
+	}
+
+	private static BigInteger big(long value) {
+		return BigInteger.valueOf(value);
+	}
+
+	private static QEdge road(long x1, long y1, long x2, long y2) {
+		return new QEdge(new City("S", x1, y1, 1, "black"), new City("E", x2,
+				y2, 1, "black"));
+	}
+}
@@ -0,0 +1,291 @@
+package cmsc420.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Binary buffer for state snapshots. Values are written big-endian into a
+ * growable heap buffer and the whole buffer is then handed to a file channel
+ * in one pass; reading pulls a whole file back through its channel and
+ * decodes from memory. Strings are stored as a length followed by their
+ * UTF-8 bytes.
+ */
+public class SnapshotBuffer {
+
+	/** encoding of strings */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** buffer being written to or read from */
+	private ByteBuffer buffer;
+
+	/**
+	 * Constructs an empty buffer to be written to.
+	 */
+	public SnapshotBuffer() {
+		this(1 << 16);
+	}
+
+	/**
+	 * Constructs an empty buffer to be written to, with room for a number of
+	 * bytes before it has to grow.
+	 *
+	 * @param capacity
+	 *            initial capacity in bytes
+	 */
+	public SnapshotBuffer(int capacity) {
+		buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+	}
+
+	/**
+	 * Constructs a buffer to be read from.
+	 */
+	SnapshotBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Reads a whole file into a buffer, positioned at its start.
+	 *
+	 * @param file
+	 *            file to be read
+	 * @return buffer holding the contents of the file
+	 * @throws IOException
+	 *             problem reading the file, or the file is too large
+	 */
+	public static SnapshotBuffer read(File file) throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("snapshot too large");
+			}
+			final ByteBuffer contents = ByteBuffer.allocate((int) channel
+					.size());
+			while (contents.hasRemaining()) {
+				if (channel.read(contents) < 0) {
+					throw new IOException("snapshot truncated");
+				}
+			}
+			contents.flip();
+			return new SnapshotBuffer(contents);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes everything put into this buffer to a file, replacing its
+	 * contents, and forces it to the storage device.
+	 *
+	 * @param file
+	 *            file to be written
+	 * @throws IOException
+	 *             problem writing the file
+	 */
+	public void write(File file) throws IOException {
+		final RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			final FileChannel channel = out.getChannel();
+			final ByteBuffer contents = contents();
+			channel.truncate(0);
+			while (contents.hasRemaining()) {
+				channel.write(contents);
+			}
+			channel.force(false);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Gets a view of everything put into this buffer, positioned at its
+	 * start.
+	 */
+	ByteBuffer contents() {
+		final ByteBuffer contents = buffer.duplicate();
+		contents.flip();
+		return contents;
+	}
+
+	/**
+	 * Puts the remaining bytes of another buffer.
+	 */
+	void put(ByteBuffer bytes) {
+		ensure(bytes.remaining());
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Discards everything put into this buffer.
+	 */
+	void clear() {
+		buffer.clear();
+	}
+
+	/**
+	 * Makes room for a number of bytes to be put.
+	 */
+	private void ensure(int bytes) {
+		if (buffer.remaining() < bytes) {
+			final ByteBuffer grown = ByteBuffer.allocate(Math.max(
+					buffer.capacity() << 1, buffer.position() + bytes));
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+	}
+
+	/**
+	 * Gets the number of bytes put so far, which is also the offset the next
+	 * value will be put at.
+	 *
+	 * @return current offset
+	 */
+	public int position() {
+		return buffer.position();
+	}
+
+	/**
+	 * Overwrites an int already put, such as an offset in a header that is
+	 * only known once the rest has been written.
+	 *
+	 * @param offset
+	 *            offset the int was put at
+	 * @param value
+	 *            new value
+	 */
+	public void putInt(int offset, int value) {
+		buffer.putInt(offset, value);
+	}
+
+	public void putByte(int value) {
+		ensure(1);
+		buffer.put((byte) value);
+	}
+
+	public void putInt(int value) {
+		ensure(4);
+		buffer.putInt(value);
+	}
+
+	public void putLong(long value) {
+		ensure(8);
+		buffer.putLong(value);
+	}
+
+	public void putDouble(double value) {
+		ensure(8);
+		buffer.putDouble(value);
+	}
+
+	public void putString(String value) {
+		final byte[] bytes = value.getBytes(UTF8);
+		putInt(bytes.length);
+		ensure(bytes.length);
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Puts the bytes left to read in another buffer, preceded by their
+	 * number, without reading them. getBuffer reads them back.
+	 *
+	 * @param other
+	 *            buffer whose remaining bytes are put
+	 */
+	public void putBuffer(SnapshotBuffer other) {
+		final ByteBuffer bytes = other.buffer.duplicate();
+		putInt(bytes.remaining());
+		put(bytes);
+	}
+
+	/*
+	 * The getters throw IOException rather than the buffer's unchecked
+	 * exceptions, so a truncated or corrupt snapshot is reported like any
+	 * other unreadable file.
+	 */
+
+	public int getByte() throws IOException {
+		try {
+			return buffer.get();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot truncated");
+		}
+	}
+
+	public int getInt() throws IOException {
+		try {
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot truncated");
+		}
+	}
+
+	/**
+	 * Gets a count or index, which must lie in [0, limit).
+	 *
+	 * @param limit
+	 *            bound on the value
+	 * @return the value read
+	 * @throws IOException
+	 *             value out of range, or snapshot truncated
+	 */
+	public int getIndex(int limit) throws IOException {
+		final int value = getInt();
+		if (value < 0 || value >= limit) {
+			throw new IOException("snapshot corrupt");
+		}
+		return value;
+	}
+
+	public long getLong() throws IOException {
+		try {
+			return buffer.getLong();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot truncated");
+		}
+	}
+
+	public double getDouble() throws IOException {
+		try {
+			return buffer.getDouble();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot truncated");
+		}
+	}
+
+	public String getString() throws IOException {
+		final int length = getIndex(buffer.remaining() + 1);
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Gets a buffer put by putBuffer.
+	 *
+	 * @return buffer holding the bytes put, positioned at its start
+	 * @throws IOException
+	 *             snapshot truncated
+	 */
+	public SnapshotBuffer getBuffer() throws IOException {
+		final int length = getIndex(buffer.remaining() + 1);
+		final ByteBuffer bytes = buffer.slice();
+		bytes.limit(length);
+		buffer.position(buffer.position() + length);
+		return new SnapshotBuffer(bytes.slice());
+	}
+
+	/**
+	 * Returns if every byte of the buffer has been read.
+	 *
+	 * @return true if nothing is left to read
+	 */
+	public boolean isExhausted() {
+		return !buffer.hasRemaining();
+	}
+}
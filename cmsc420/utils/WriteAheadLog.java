@@ -0,0 +1,279 @@
+package cmsc420.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of binary records, written ahead of the changes they
+ * describe so that the changes can be replayed after a crash.
+ * <p>
+ * The log starts with a header holding its generation, which ties it to
+ * the checkpoint it extends. Each record is framed by its length before and
+ * the CRC-32 of its bytes after, so a record torn by a crash is recognized,
+ * and dropped along with anything after it, when the log is next opened.
+ * <p>
+ * Records are committed in groups: they are gathered in memory and written
+ * and forced to the storage device together once groupSize of them are
+ * waiting, or when commit is called. A crash loses at most the records of
+ * the group not yet committed.
+ * <p>
+ * Changes that turn out to be unwanted after their records were committed
+ * are undone by rolling the log back to the size it had before them.
+ */
+public class WriteAheadLog {
+
+	/** first word of every log ("MQWL") */
+	static final int MAGIC = 0x4D51574C;
+
+	/** size of the header: magic number and generation */
+	static final int HEADER_SIZE = 12;
+
+	/** size of the framing around each record: length and CRC-32 */
+	static final int FRAME_SIZE = 8;
+
+	/** the open log file */
+	private final RandomAccessFile file;
+
+	/** channel of the log file */
+	private final FileChannel channel;
+
+	/** number of records committed together */
+	private final int groupSize;
+
+	/** framed records waiting to be committed */
+	private final SnapshotBuffer group = new SnapshotBuffer(1 << 12);
+
+	/** number of records waiting to be committed */
+	private int groupCount;
+
+	/** generation of the log */
+	private long generation;
+
+	/** bytes of the log committed to the file */
+	private long committed;
+
+	/** records found in the log when it was opened */
+	private final List<SnapshotBuffer> recovered;
+
+	/**
+	 * Opens a log, creating it empty, with generation 0, if it does not
+	 * exist. The records already in the log are read back, up to the first
+	 * torn or corrupt record; that record and everything after it are cut
+	 * off the file.
+	 *
+	 * @param logFile
+	 *            file holding the log
+	 * @param groupSize
+	 *            number of records committed together
+	 * @throws IOException
+	 *             problem reading or writing the file, or it is not a log
+	 */
+	public WriteAheadLog(File logFile, int groupSize) throws IOException {
+		this.groupSize = Math.max(1, groupSize);
+		file = new RandomAccessFile(logFile, "rw");
+		channel = file.getChannel();
+		try {
+			recovered = Collections.unmodifiableList(recover());
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the records in the log and positions it for appending after the
+	 * last intact one.
+	 */
+	private List<SnapshotBuffer> recover() throws IOException {
+		final ArrayList<SnapshotBuffer> records = new ArrayList<SnapshotBuffer>();
+		if (channel.size() == 0) {
+			reset(0);
+			return records;
+		}
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new IOException("log too large");
+		}
+		final ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+		channel.position(0);
+		while (contents.hasRemaining()) {
+			if (channel.read(contents) < 0) {
+				break;
+			}
+		}
+		contents.flip();
+		if (contents.remaining() < HEADER_SIZE || contents.getInt() != MAGIC) {
+			throw new IOException("not a write-ahead log");
+		}
+		generation = contents.getLong();
+
+		final CRC32 crc = new CRC32();
+		while (contents.remaining() >= FRAME_SIZE) {
+			final int start = contents.position();
+			final int length = contents.getInt();
+			if (length < 0 || length > contents.remaining() - 4) {
+				/* torn while being written */
+				contents.position(start);
+				break;
+			}
+			final byte[] bytes = new byte[length];
+			contents.get(bytes);
+			crc.reset();
+			crc.update(bytes, 0, length);
+			if ((int) crc.getValue() != contents.getInt()) {
+				contents.position(start);
+				break;
+			}
+			records.add(new SnapshotBuffer(ByteBuffer.wrap(bytes)));
+		}
+
+		committed = contents.position();
+		if (committed < channel.size()) {
+			channel.truncate(committed);
+			channel.force(false);
+		}
+		channel.position(committed);
+		return records;
+	}
+
+	/**
+	 * Gets the records found in the log when it was opened, oldest first.
+	 * Each is positioned at its start.
+	 *
+	 * @return records recovered
+	 */
+	public List<SnapshotBuffer> getRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * Gets the generation of the log.
+	 *
+	 * @return generation given to the last reset, or read from the file
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the size of the log, counting the records not yet committed.
+	 *
+	 * @return size in bytes
+	 */
+	public long size() {
+		return committed + group.position();
+	}
+
+	/**
+	 * Appends a record to the log. The group of records waiting is committed
+	 * if it is now full.
+	 *
+	 * @param record
+	 *            everything put into the record is appended
+	 * @throws IOException
+	 *             problem committing the group
+	 */
+	public void append(SnapshotBuffer record) throws IOException {
+		final ByteBuffer bytes = record.contents();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes.array(), bytes.arrayOffset(), bytes.remaining());
+		group.putInt(bytes.remaining());
+		group.put(bytes);
+		group.putInt((int) crc.getValue());
+		if (++groupCount >= groupSize) {
+			commit();
+		}
+	}
+
+	/**
+	 * Writes the records waiting to the log and forces them to the storage
+	 * device.
+	 *
+	 * @throws IOException
+	 *             problem writing the file
+	 */
+	public void commit() throws IOException {
+		if (groupCount == 0) {
+			return;
+		}
+		final ByteBuffer bytes = group.contents();
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		channel.force(false);
+		committed = channel.position();
+		group.clear();
+		groupCount = 0;
+	}
+
+	/**
+	 * Drops the records waiting, and cuts the committed records back to a
+	 * size the log had earlier, as given by size. Records committed since
+	 * then are gone from the file once this returns.
+	 *
+	 * @param size
+	 *            earlier size of the log
+	 * @throws IOException
+	 *             problem writing the file
+	 */
+	public void rollBack(long size) throws IOException {
+		if (size < HEADER_SIZE || size > committed) {
+			throw new IllegalArgumentException("not an earlier size of the log");
+		}
+		group.clear();
+		groupCount = 0;
+		if (channel.size() > size) {
+			channel.truncate(size);
+			channel.force(false);
+		}
+		committed = size;
+		channel.position(committed);
+	}
+
+	/**
+	 * Empties the log, including the records waiting, and starts it over
+	 * with a new generation. Called once everything in the log has been
+	 * made part of a checkpoint of that generation.
+	 *
+	 * @param generation
+	 *            generation of the emptied log
+	 * @throws IOException
+	 *             problem writing the file
+	 */
+	public void reset(long generation) throws IOException {
+		group.clear();
+		groupCount = 0;
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putLong(generation);
+		header.flip();
+		channel.truncate(0);
+		channel.position(0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(false);
+		this.generation = generation;
+		committed = HEADER_SIZE;
+	}
+
+	/**
+	 * Commits the records waiting and closes the log.
+	 *
+	 * @throws IOException
+	 *             problem writing the file
+	 */
+	public void close() throws IOException {
+		try {
+			commit();
+		} finally {
+			file.close();
+		}
+	}
+}
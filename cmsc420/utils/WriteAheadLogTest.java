@@ -0,0 +1,240 @@
+package cmsc420.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the write-ahead log: records read back as written, a torn or
+ * corrupt record cut off along with everything after it, records grouped
+ * until they are committed, and the log rolled back to an earlier size.
+ */
+public class WriteAheadLogTest {
+
+	/** size of a framed record holding a single int */
+	private static final int RECORD_SIZE = WriteAheadLog.FRAME_SIZE + 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File logFile;
+
+	@Before
+	public void createFile() throws IOException {
+		logFile = new File(folder.getRoot(), "test.log");
+	}
+
+	@Test
+	public void newLogIsEmpty() throws IOException {
+		final WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		assertTrue(log.getRecovered().isEmpty());
+		assertEquals(0, log.getGeneration());
+		assertEquals(WriteAheadLog.HEADER_SIZE, log.size());
+		log.close();
+		assertEquals(WriteAheadLog.HEADER_SIZE, logFile.length());
+	}
+
+	@Test
+	public void recordsReadBackAsWritten() throws IOException {
+		WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		log.reset(7);
+		append(log, 1, 2, 3);
+		log.close();
+
+		log = new WriteAheadLog(logFile, 1);
+		assertEquals(7, log.getGeneration());
+		assertRecords(log.getRecovered(), 1, 2, 3);
+		log.close();
+	}
+
+	@Test
+	public void tornRecordIsCutOff() throws IOException {
+		writeRecords(1, 2, 3);
+		/* the last record lost its CRC and a byte of its contents */
+		truncate(logFile.length() - 5);
+
+		WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		assertRecords(log.getRecovered(), 1, 2);
+		assertEquals(WriteAheadLog.HEADER_SIZE + 2 * RECORD_SIZE, logFile
+				.length());
+
+		/* appending goes on after the last intact record */
+		append(log, 4);
+		log.close();
+		log = new WriteAheadLog(logFile, 1);
+		assertRecords(log.getRecovered(), 1, 2, 4);
+		log.close();
+	}
+
+	@Test
+	public void tornLengthIsCutOff() throws IOException {
+		writeRecords(1, 2);
+		/* only part of the length of the second record made it */
+		truncate(WriteAheadLog.HEADER_SIZE + RECORD_SIZE + 2);
+
+		final WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		assertRecords(log.getRecovered(), 1);
+		assertEquals(WriteAheadLog.HEADER_SIZE + RECORD_SIZE, logFile
+				.length());
+		log.close();
+	}
+
+	@Test
+	public void badCrcCutsOffTheRestOfTheLog() throws IOException {
+		writeRecords(1, 2, 3);
+		/* flip a byte of the second record's contents */
+		final RandomAccessFile out = new RandomAccessFile(logFile, "rw");
+		try {
+			final long offset = WriteAheadLog.HEADER_SIZE + RECORD_SIZE + 4;
+			out.seek(offset);
+			final int value = out.read();
+			out.seek(offset);
+			out.write(value ^ 0xFF);
+		} finally {
+			out.close();
+		}
+
+		final WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		assertRecords(log.getRecovered(), 1);
+		assertEquals(WriteAheadLog.HEADER_SIZE + RECORD_SIZE, logFile
+				.length());
+		log.close();
+	}
+
+	@Test
+	public void badLengthCutsOffTheRestOfTheLog() throws IOException {
+		writeRecords(1, 2);
+		final RandomAccessFile out = new RandomAccessFile(logFile, "rw");
+		try {
+			out.seek(WriteAheadLog.HEADER_SIZE + RECORD_SIZE);
+			out.writeInt(-1);
+		} finally {
+			out.close();
+		}
+
+		final WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		assertRecords(log.getRecovered(), 1);
+		assertEquals(WriteAheadLog.HEADER_SIZE + RECORD_SIZE, logFile
+				.length());
+		log.close();
+	}
+
+	@Test
+	public void notALog() throws IOException {
+		final RandomAccessFile out = new RandomAccessFile(logFile, "rw");
+		try {
+			out.writeInt(0);
+			out.writeLong(0);
+		} finally {
+			out.close();
+		}
+		try {
+			new WriteAheadLog(logFile, 1);
+			fail("a file that is not a log was opened");
+		} catch (IOException e) {
+			/* expected */
+		}
+	}
+
+	@Test
+	public void groupIsWrittenOnceFull() throws IOException {
+		final WriteAheadLog log = new WriteAheadLog(logFile, 3);
+		append(log, 1, 2);
+		assertEquals(WriteAheadLog.HEADER_SIZE, logFile.length());
+		assertEquals(WriteAheadLog.HEADER_SIZE + 2 * RECORD_SIZE, log.size());
+		append(log, 3);
+		assertEquals(WriteAheadLog.HEADER_SIZE + 3 * RECORD_SIZE, logFile
+				.length());
+		log.close();
+	}
+
+	@Test
+	public void rollBackCutsOffCommittedAndWaitingRecords() throws IOException {
+		WriteAheadLog log = new WriteAheadLog(logFile, 2);
+		append(log, 1, 2);
+		final long start = log.size();
+		/* two groups are committed, and a record is left waiting */
+		append(log, 3, 4, 5, 6, 7);
+		assertEquals(WriteAheadLog.HEADER_SIZE + 6 * RECORD_SIZE, logFile
+				.length());
+		log.rollBack(start);
+		assertEquals(start, logFile.length());
+		assertEquals(start, log.size());
+
+		/* appending goes on from where the log was cut back to */
+		append(log, 8);
+		log.close();
+		log = new WriteAheadLog(logFile, 2);
+		assertRecords(log.getRecovered(), 1, 2, 8);
+		log.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rollBackOnlyGoesBack() throws IOException {
+		final WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		try {
+			append(log, 1);
+			log.rollBack(log.size() + 1);
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void closeCommitsWaitingRecords() throws IOException {
+		WriteAheadLog log = new WriteAheadLog(logFile, 8);
+		append(log, 1, 2, 3);
+		assertEquals(WriteAheadLog.HEADER_SIZE, logFile.length());
+		log.close();
+
+		log = new WriteAheadLog(logFile, 8);
+		assertRecords(log.getRecovered(), 1, 2, 3);
+		log.close();
+	}
+
+	/**
+	 * Writes a log of generation 0 holding a record for each value.
+	 */
+	private void writeRecords(int... values) throws IOException {
+		final WriteAheadLog log = new WriteAheadLog(logFile, 1);
+		append(log, values);
+		log.close();
+	}
+
+	private static void append(WriteAheadLog log, int... values)
+			throws IOException {
+		for (int value : values) {
+			final SnapshotBuffer record = new SnapshotBuffer(16);
+			record.putInt(value);
+			log.append(record);
+		}
+	}
+
+	private static void assertRecords(List<SnapshotBuffer> records,
+			int... values) throws IOException {
+		assertEquals(values.length, records.size());
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], records.get(i).getInt());
+			assertTrue(records.get(i).isExhausted());
+		}
+	}
+
+	private void truncate(long length) throws IOException {
+		final RandomAccessFile out = new RandomAccessFile(logFile, "rw");
+		try {
+			out.setLength(length);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package cmsc420.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.ValidatorHandler;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Reads the commands of a command file one at a time with StAX, so that
+ * each can be processed as soon as it has been read and the file is never
+ * held in memory as a whole.
+ * <p>
+ * The root element comes first, then each of its child elements in order.
+ * Each is handed over as a DOM Element carrying the attributes of the
+ * command, just as if it had been taken from a parsed Document, but belongs
+ * to no tree; once processed, nothing refers to it any longer. Text,
+ * comments and processing instructions between commands are skipped.
+ * <p>
+ * The file is validated as it is read, against the schema its root element
+ * names: every event read is passed on to a ValidatorHandler, and a command
+ * is only handed over once the validator has accepted it. Problems found
+ * further on, such as a later invalid command or the file ending early,
+ * only surface when reading reaches them, so the commands already handed
+ * over have to be treated as speculative until next has returned null.
+ */
+public class CommandReader implements CommandSource {
+
+	/** factory of StAX readers */
+	private static final XMLInputFactory inputFactory = XMLInputFactory
+			.newInstance();
+
+	/** the underlying StAX reader */
+	private final XMLStreamReader reader;
+
+	/** document the command elements are created by */
+	private final Document document;
+
+	/** validator of the events read; null until the root has been read */
+	private ValidatorHandler validator;
+
+	/** nesting depth of the element last read */
+	private int depth;
+
+	/**
+	 * Constructs a reader of the commands in an XML input stream.
+	 *
+	 * @param inputStream
+	 *            XML input stream
+	 * @throws XMLStreamException
+	 *             problem setting up the stream
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public CommandReader(final InputStream inputStream)
+			throws XMLStreamException, ParserConfigurationException {
+		reader = inputFactory.createXMLStreamReader(inputStream);
+		document = XmlUtility.getDocumentBuilder().newDocument();
+	}
+
+	/**
+	 * Reads and validates the next command: the root element the first
+	 * time, then each of its children in turn. Once the root element has
+	 * ended, the rest of the input is read and validated before null is
+	 * returned.
+	 *
+	 * @return next command, or null once the whole input has been read and
+	 *         found valid
+	 * @throws XMLStreamException
+	 *             the input is not well-formed XML
+	 * @throws SAXException
+	 *             the input is not valid against its schema
+	 * @throws IOException
+	 *             problem loading the schema
+	 */
+	public Element next() throws XMLStreamException, SAXException,
+			IOException {
+		while (reader.hasNext()) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				if (validator == null) {
+					startValidating();
+				}
+				startElement();
+				if (++depth <= 2) {
+					return toElement();
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				endElement();
+				--depth;
+			} else if (validator != null
+					&& (event == XMLStreamConstants.CHARACTERS
+							|| event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+				validator.characters(reader.getTextCharacters(), reader
+						.getTextStart(), reader.getTextLength());
+			} else if (validator != null
+					&& event == XMLStreamConstants.END_DOCUMENT) {
+				validator.endDocument();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sets up the validator for the schema named by the root element the
+	 * reader is on.
+	 */
+	private void startValidating() throws SAXException, IOException {
+		final String location = reader.getAttributeValue(
+				XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
+				"noNamespaceSchemaLocation");
+		validator = XmlUtility.getSchema(location == null ? "" : location)
+				.newValidatorHandler();
+		validator.startDocument();
+	}
+
+	/**
+	 * Passes the start of the element the reader is on to the validator.
+	 */
+	private void startElement() throws SAXException {
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			validator.startPrefixMapping(emptyIfNull(reader
+					.getNamespacePrefix(i)), emptyIfNull(reader
+					.getNamespaceURI(i)));
+		}
+		final AttributesImpl attributes = new AttributesImpl();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			final String name = reader.getAttributeLocalName(i);
+			attributes.addAttribute(emptyIfNull(reader
+					.getAttributeNamespace(i)), name, qualify(reader
+					.getAttributePrefix(i), name), "CDATA", reader
+					.getAttributeValue(i));
+		}
+		validator.startElement(emptyIfNull(reader.getNamespaceURI()), reader
+				.getLocalName(), qualify(reader.getPrefix(), reader
+				.getLocalName()), attributes);
+	}
+
+	/**
+	 * Passes the end of the element the reader is on to the validator.
+	 */
+	private void endElement() throws SAXException {
+		validator.endElement(emptyIfNull(reader.getNamespaceURI()), reader
+				.getLocalName(), qualify(reader.getPrefix(), reader
+				.getLocalName()));
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			validator.endPrefixMapping(emptyIfNull(reader
+					.getNamespacePrefix(i)));
+		}
+	}
+
+	/**
+	 * Builds a DOM Element with the name and attributes of the element the
+	 * reader is on.
+	 */
+	private Element toElement() {
+		final Element element = document.createElement(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(qualify(reader.getAttributePrefix(i), reader
+					.getAttributeLocalName(i)), reader.getAttributeValue(i));
+		}
+		return element;
+	}
+
+	/**
+	 * Gets the qualified name of a local name with a prefix.
+	 */
+	private static String qualify(final String prefix, final String name) {
+		return prefix == null || prefix.equals("") ? name : prefix + ":"
+				+ name;
+	}
+
+	private static String emptyIfNull(final String value) {
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * Releases the underlying StAX reader. Does not close the input stream.
+	 *
+	 * @throws XMLStreamException
+	 *             problem releasing the reader
+	 */
+	public void close() throws XMLStreamException {
+		reader.close();
+	}
+}
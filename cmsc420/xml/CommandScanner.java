@@ -0,0 +1,784 @@
+package cmsc420.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.ValidatorHandler;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * CommandSource that scans a memory-mapped command file byte by byte, in
+ * place of a general XML parser. Command files are nothing but elements
+ * with attributes, with whitespace, comments and processing instructions
+ * between them; the scanner handles exactly that much of XML, together with
+ * character references, the predefined entities and CDATA sections, and
+ * leaves anything else to CommandReader.
+ * <p>
+ * Whether a file can be scanned is decided from its prolog, before any
+ * command is read: it must be UTF-8 (or ASCII), fit in one mapping, and
+ * have no document type declaration. Past the prolog, anything the scanner
+ * does not accept is not well-formed XML.
+ * <p>
+ * Names and attribute values are decoded straight from the mapped bytes,
+ * without copying them out first. Values written as plain decimal integers
+ * are parsed from the bytes as well, and kept as the IntegerAttributes of
+ * the command while it is processed, so that Command need not parse them
+ * again from their strings.
+ * <p>
+ * The file is validated as it is scanned, exactly as CommandReader does it:
+ * every element, attribute and piece of text is passed on to a
+ * ValidatorHandler, and a command is only handed over once the validator
+ * has accepted it.
+ */
+public class CommandScanner implements CommandSource {
+
+	/** encoding of the files scanned */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** number of names remembered, a power of two */
+	private static final int NAME_CACHE_SIZE = 64;
+
+	/** the mapped file */
+	private final ByteBuffer input;
+
+	/** offset of the next byte to scan */
+	private int pos;
+
+	/** document the command elements are created by */
+	private final Document document;
+
+	/** validator of the events scanned; null until the root is scanned */
+	private ValidatorHandler validator;
+
+	/** names of the elements open, innermost last */
+	private final ArrayList<String> open = new ArrayList<String>();
+
+	/** namespace prefixes and URIs bound, innermost last */
+	private final ArrayList<String> bindings = new ArrayList<String>();
+
+	/** number of bindings made by each open element */
+	private int[] bindingCounts = new int[8];
+
+	/** whether the root element has ended */
+	private boolean rootEnded;
+
+	/** whether the whole file has been scanned */
+	private boolean finished;
+
+	/** bytes of the names remembered, by hash */
+	private final byte[][] nameBytes = new byte[NAME_CACHE_SIZE][];
+
+	/** names remembered, by hash */
+	private final String[] names = new String[NAME_CACHE_SIZE];
+
+	/** characters decoded from the bytes being scanned */
+	private char[] chars = new char[256];
+
+	/** attributes of the element being scanned, as written */
+	private final AttributesImpl attributes = new AttributesImpl();
+
+	/** integer attributes of the command handed over last */
+	private final IntegerAttributes integers = new IntegerAttributes();
+
+	private CommandScanner(final ByteBuffer input, final int start)
+			throws ParserConfigurationException {
+		this.input = input;
+		pos = start;
+		document = XmlUtility.getDocumentBuilder().newDocument();
+		document.setUserData(IntegerAttributes.KEY, integers, null);
+	}
+
+	/**
+	 * Maps a command file for scanning.
+	 *
+	 * @param file
+	 *            command file
+	 * @return scanner of the file, or null if the file has to be read by a
+	 *         general XML parser
+	 * @throws IOException
+	 *             problem opening the file
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public static CommandScanner open(final File file) throws IOException,
+			ParserConfigurationException {
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			return open(in.getChannel());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Maps the rest of a channel for scanning, if it is a file.
+	 *
+	 * @param channel
+	 *            channel positioned at the start of a command file
+	 * @return scanner of the file, or null if the channel cannot be mapped or
+	 *         the file has to be read by a general XML parser
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public static CommandScanner open(final FileChannel channel)
+			throws ParserConfigurationException {
+		final ByteBuffer input;
+		try {
+			final long start = channel.position();
+			final long size = channel.size() - start;
+			if (size <= 0 || size > Integer.MAX_VALUE) {
+				return null;
+			}
+			/* the mapping stays valid once the channel is closed */
+			input = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		} catch (IOException e) {
+			/* not a file, such as a pipe */
+			return null;
+		}
+		final int start = prolog(input);
+		return start < 0 ? null : new CommandScanner(input, start);
+	}
+
+	/**
+	 * Checks the prolog of a file, up to its root element.
+	 *
+	 * @return offset of the root element, or -1 if the file cannot be
+	 *         scanned
+	 */
+	private static int prolog(final ByteBuffer input) {
+		final int limit = input.limit();
+		int i = 0;
+		if (limit >= 3 && (input.get(0) & 0xff) == 0xef
+				&& (input.get(1) & 0xff) == 0xbb
+				&& (input.get(2) & 0xff) == 0xbf) {
+			/* byte order mark */
+			i = 3;
+		}
+		if (startsWith(input, i, "<?xml")
+				&& (i + 5 < limit && isSpace(input.get(i + 5)))) {
+			final int end = indexOf(input, i, "?>");
+			if (end < 0) {
+				return -1;
+			}
+			final String declaration = ascii(input, i, end);
+			final int at = declaration.indexOf("encoding");
+			if (at >= 0) {
+				final String rest = declaration.substring(at + 8).replace(" ",
+						"").replace("=", "").toLowerCase();
+				if (!(rest.startsWith("\"utf-8\"") || rest.startsWith("'utf-8'")
+						|| rest.startsWith("\"us-ascii\"") || rest
+						.startsWith("'us-ascii'"))) {
+					return -1;
+				}
+			}
+			i = end + 2;
+		}
+		while (i < limit) {
+			final byte b = input.get(i);
+			if (isSpace(b)) {
+				i++;
+			} else if (startsWith(input, i, "<!--")) {
+				final int end = indexOf(input, i + 4, "-->");
+				if (end < 0) {
+					return -1;
+				}
+				i = end + 3;
+			} else if (startsWith(input, i, "<?")) {
+				final int end = indexOf(input, i + 2, "?>");
+				if (end < 0) {
+					return -1;
+				}
+				i = end + 2;
+			} else if (b == '<' && i + 1 < limit && isNameStart(input.get(i + 1))) {
+				return i;
+			} else {
+				/* a document type declaration, or something stranger */
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	public Element next() throws SAXException, IOException {
+		if (finished) {
+			return null;
+		}
+		final int limit = input.limit();
+		while (true) {
+			if (rootEnded) {
+				epilog();
+				return null;
+			}
+			if (pos >= limit) {
+				throw error("XML document structures must start and end within the same entity.");
+			}
+			if (input.get(pos) != '<') {
+				text();
+			} else if (startsWith(input, pos, "<!--")) {
+				final int end = indexOf(input, pos + 4, "-->");
+				if (end < 0) {
+					throw error("comment not ended");
+				}
+				pos = end + 3;
+			} else if (startsWith(input, pos, "<?")) {
+				final int end = indexOf(input, pos + 2, "?>");
+				if (end < 0) {
+					throw error("processing instruction not ended");
+				}
+				pos = end + 2;
+			} else if (startsWith(input, pos, "<![CDATA[")) {
+				final int end = indexOf(input, pos + 9, "]]>");
+				if (end < 0) {
+					throw error("CDATA section not ended");
+				}
+				final int length = decode(pos + 9, end);
+				validator.characters(chars, 0, length);
+				pos = end + 3;
+			} else if (startsWith(input, pos, "</")) {
+				endTag();
+			} else {
+				final Element element = startTag();
+				if (element != null) {
+					return element;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scans a run of text, up to the next markup, and passes it on to the
+	 * validator.
+	 */
+	private void text() throws SAXException {
+		if (open.isEmpty()) {
+			throw error("Content is not allowed in prolog.");
+		}
+		final int limit = input.limit();
+		int end = pos;
+		while (end < limit && input.get(end) != '<') {
+			end++;
+		}
+		final int length = value(pos, end, false);
+		validator.characters(chars, 0, length);
+		pos = end;
+	}
+
+	/**
+	 * Scans a start tag and passes it on to the validator.
+	 *
+	 * @return the element, if it is the root or a command
+	 */
+	private Element startTag() throws SAXException, IOException {
+		final int limit = input.limit();
+		pos++;
+		final String name = name();
+		int bound = 0;
+		attributes.clear();
+		/* the root and the commands are handed over; nothing deeper is valid */
+		final boolean handedOver = open.size() < 2;
+		if (handedOver) {
+			integers.clear();
+		}
+		while (true) {
+			final boolean spaced = skipSpace();
+			if (pos >= limit) {
+				throw error("start tag of " + name + " not ended");
+			}
+			final byte b = input.get(pos);
+			if (b == '>' || b == '/') {
+				break;
+			}
+			if (!spaced) {
+				throw error("whitespace required before an attribute of " + name);
+			}
+			final String attribute = name();
+			skipSpace();
+			if (pos >= limit || input.get(pos) != '=') {
+				throw error("attribute " + attribute + " has no value");
+			}
+			pos++;
+			skipSpace();
+			if (pos >= limit
+					|| (input.get(pos) != '"' && input.get(pos) != '\'')) {
+				throw error("value of attribute " + attribute + " not quoted");
+			}
+			final byte quote = input.get(pos);
+			int end = pos + 1;
+			while (end < limit && input.get(end) != quote) {
+				if (input.get(end) == '<') {
+					throw error("'<' in the value of attribute " + attribute);
+				}
+				end++;
+			}
+			if (end >= limit) {
+				throw error("value of attribute " + attribute + " not ended");
+			}
+			final int start = pos + 1;
+			final String value = new String(chars, 0, value(start, end, true));
+			pos = end + 1;
+
+			if (attribute.equals("xmlns") || attribute.startsWith("xmlns:")) {
+				bindings.add(attribute.length() == 5 ? "" : attribute
+						.substring(6));
+				bindings.add(value);
+				bound++;
+			} else {
+				for (int i = 0; i < attributes.getLength(); i++) {
+					if (attributes.getQName(i).equals(attribute)) {
+						throw error("attribute " + attribute
+								+ " given twice in " + name);
+					}
+				}
+				if (handedOver) {
+					integer(attribute, start, end);
+				}
+				attributes.addAttribute("", localName(attribute), attribute,
+						"CDATA", value);
+			}
+		}
+		final boolean empty = input.get(pos) == '/';
+		if (empty) {
+			if (pos + 1 >= limit || input.get(pos + 1) != '>') {
+				throw error("start tag of " + name + " not ended");
+			}
+			pos++;
+		}
+		pos++;
+
+		if (validator == null) {
+			startValidating();
+		}
+		for (int i = bindings.size() - 2 * bound; i < bindings.size(); i += 2) {
+			validator.startPrefixMapping(bindings.get(i), bindings.get(i + 1));
+		}
+		/* only now are all the prefixes of this element bound */
+		for (int i = 0; i < attributes.getLength(); i++) {
+			final String qName = attributes.getQName(i);
+			if (qName.indexOf(':') >= 0) {
+				attributes.setURI(i, namespace(qName));
+			}
+		}
+		open.add(name);
+		if (open.size() > bindingCounts.length) {
+			bindingCounts = Arrays.copyOf(bindingCounts, open.size() << 1);
+		}
+		bindingCounts[open.size() - 1] = bound;
+		validator.startElement(namespace(name), localName(name), name,
+				attributes);
+
+		Element element = null;
+		if (handedOver) {
+			element = document.createElement(localName(name));
+			for (int i = 0; i < attributes.getLength(); i++) {
+				element.setAttribute(attributes.getQName(i), attributes
+						.getValue(i));
+			}
+			integers.setCommand(element);
+		}
+		if (empty) {
+			closeElement();
+		}
+		return element;
+	}
+
+	/**
+	 * Scans an end tag and passes it on to the validator.
+	 */
+	private void endTag() throws SAXException {
+		pos += 2;
+		final String name = name();
+		skipSpace();
+		if (pos >= input.limit() || input.get(pos) != '>') {
+			throw error("end tag of " + name + " not ended");
+		}
+		pos++;
+		if (open.isEmpty() || !open.get(open.size() - 1).equals(name)) {
+			throw error("end tag " + name + " does not match its start tag");
+		}
+		closeElement();
+	}
+
+	/**
+	 * Ends the innermost open element.
+	 */
+	private void closeElement() throws SAXException {
+		final String name = open.remove(open.size() - 1);
+		validator.endElement(namespace(name), localName(name), name);
+		final int bound = bindingCounts[open.size()];
+		for (int i = 0; i < bound; i++) {
+			bindings.remove(bindings.size() - 1);
+			validator.endPrefixMapping(bindings.remove(bindings.size() - 1));
+		}
+		rootEnded = open.isEmpty();
+	}
+
+	/**
+	 * Scans what follows the root element, which may only be whitespace,
+	 * comments and processing instructions, and ends the document.
+	 */
+	private void epilog() throws SAXException {
+		final int limit = input.limit();
+		while (pos < limit) {
+			if (isSpace(input.get(pos))) {
+				pos++;
+			} else if (startsWith(input, pos, "<!--")) {
+				final int end = indexOf(input, pos + 4, "-->");
+				if (end < 0) {
+					throw error("comment not ended");
+				}
+				pos = end + 3;
+			} else if (startsWith(input, pos, "<?")) {
+				final int end = indexOf(input, pos + 2, "?>");
+				if (end < 0) {
+					throw error("processing instruction not ended");
+				}
+				pos = end + 2;
+			} else {
+				throw error("The markup in the document following the root element must be well-formed.");
+			}
+		}
+		validator.endDocument();
+		finished = true;
+	}
+
+	/**
+	 * Sets up the validator for the schema named by the root element being
+	 * scanned.
+	 */
+	private void startValidating() throws SAXException, IOException {
+		String location = "";
+		for (int i = 0; i < attributes.getLength(); i++) {
+			final String qName = attributes.getQName(i);
+			if (localName(qName).equals("noNamespaceSchemaLocation")
+					&& qName.indexOf(':') >= 0
+					&& XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI
+							.equals(namespace(qName))) {
+				location = attributes.getValue(i);
+			}
+		}
+		validator = XmlUtility.getSchema(location).newValidatorHandler();
+		validator.startDocument();
+	}
+
+	/**
+	 * Scans a name.
+	 */
+	private String name() throws SAXException {
+		final int limit = input.limit();
+		final int start = pos;
+		if (start >= limit || !isNameStart(input.get(start))) {
+			throw error("name expected");
+		}
+		int end = start;
+		int hash = 0;
+		byte b;
+		while (end < limit && isNameChar(b = input.get(end))) {
+			hash = 31 * hash + b;
+			end++;
+		}
+		pos = end;
+
+		/* the same few names recur throughout; decode each only once */
+		final int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+		final byte[] cached = nameBytes[slot];
+		if (cached != null && cached.length == end - start) {
+			int i = 0;
+			while (i < cached.length && cached[i] == input.get(start + i)) {
+				i++;
+			}
+			if (i == cached.length) {
+				return names[slot];
+			}
+		}
+		final byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = input.get(start + i);
+		}
+		/* interned, as the validator's symbol table compares them */
+		final String name = new String(chars, 0, decode(start, end)).intern();
+		nameBytes[slot] = bytes;
+		names[slot] = name;
+		return name;
+	}
+
+	/**
+	 * Parses an attribute value straight from its bytes if it is written as
+	 * a plain decimal integer short enough to fit a long: an optional sign
+	 * and at most 18 digits. Anything else is left to be parsed from its
+	 * string, as is whatever the schema makes of it.
+	 *
+	 * @param name
+	 *            name of the attribute
+	 * @param start
+	 *            offset of the first byte of the value
+	 * @param end
+	 *            offset of the closing quote
+	 */
+	private void integer(final String name, final int start, final int end) {
+		int i = start;
+		final boolean negative = i < end && input.get(i) == '-';
+		if (i < end && (negative || input.get(i) == '+')) {
+			i++;
+		}
+		if (i == end || end - i > 18) {
+			return;
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			final byte b = input.get(i);
+			if (b < '0' || b > '9') {
+				return;
+			}
+			value = 10 * value + (b - '0');
+		}
+		integers.add(name, negative ? -value : value);
+	}
+
+	/**
+	 * Skips whitespace.
+	 *
+	 * @return true if there was any
+	 */
+	private boolean skipSpace() {
+		final int limit = input.limit();
+		int end = pos;
+		while (end < limit && isSpace(input.get(end))) {
+			end++;
+		}
+		final boolean skipped = end > pos;
+		pos = end;
+		return skipped;
+	}
+
+	/**
+	 * Gets the namespace URI bound to the prefix of a qualified name, or the
+	 * default namespace for an element name without one.
+	 */
+	private String namespace(final String qName) throws SAXException {
+		final int colon = qName.indexOf(':');
+		final String prefix = colon < 0 ? "" : qName.substring(0, colon);
+		if (prefix.equals("xml")) {
+			return XMLConstants.XML_NS_URI;
+		}
+		for (int i = bindings.size() - 2; i >= 0; i -= 2) {
+			if (bindings.get(i).equals(prefix)) {
+				return bindings.get(i + 1);
+			}
+		}
+		if (colon >= 0) {
+			throw error("The prefix \"" + prefix + "\" is not bound.");
+		}
+		return "";
+	}
+
+	private static String localName(final String qName) {
+		return qName.substring(qName.indexOf(':') + 1);
+	}
+
+	/**
+	 * Decodes a run of text or an attribute value into chars, resolving
+	 * references and, in attribute values, turning whitespace into spaces.
+	 *
+	 * @return number of chars decoded
+	 */
+	private int value(final int start, final int end, final boolean attribute)
+			throws SAXException {
+		int length = decode(start, end);
+		boolean plain = true;
+		for (int i = 0; i < length && plain; i++) {
+			plain = chars[i] != '&' && chars[i] != '\r'
+					&& !(attribute && (chars[i] == '\t' || chars[i] == '\n'));
+		}
+		if (plain) {
+			return length;
+		}
+
+		final StringBuilder out = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			final char c = chars[i];
+			if (c == '&') {
+				final int semicolon = indexOf(chars, i, length, ';');
+				if (semicolon < 0) {
+					throw error("reference not ended with ';'");
+				}
+				reference(new String(chars, i + 1, semicolon - i - 1), out);
+				i = semicolon;
+			} else if (c == '\r') {
+				/* line ends are normalized to a single line feed */
+				if (i + 1 < length && chars[i + 1] == '\n') {
+					i++;
+				}
+				out.append(attribute ? ' ' : '\n');
+			} else if (attribute && (c == '\t' || c == '\n')) {
+				out.append(' ');
+			} else {
+				out.append(c);
+			}
+		}
+		length = out.length();
+		out.getChars(0, length, chars, 0);
+		return length;
+	}
+
+	/**
+	 * Appends what a character or entity reference stands for.
+	 */
+	private void reference(final String name, final StringBuilder out)
+			throws SAXException {
+		if (name.equals("lt")) {
+			out.append('<');
+		} else if (name.equals("gt")) {
+			out.append('>');
+		} else if (name.equals("amp")) {
+			out.append('&');
+		} else if (name.equals("apos")) {
+			out.append('\'');
+		} else if (name.equals("quot")) {
+			out.append('"');
+		} else if (name.startsWith("#")) {
+			try {
+				final int code = name.startsWith("#x") ? Integer.parseInt(name
+						.substring(2), 16) : Integer.parseInt(name.substring(1));
+				out.appendCodePoint(code);
+			} catch (IllegalArgumentException e) {
+				throw error("bad character reference &" + name + ";");
+			}
+		} else {
+			throw error("The entity \"" + name
+					+ "\" was referenced, but not declared.");
+		}
+	}
+
+	/**
+	 * Decodes bytes of the file into chars, growing chars if need be.
+	 *
+	 * @return number of chars decoded
+	 */
+	private int decode(final int start, final int end) throws SAXException {
+		final int length = end - start;
+		if (chars.length < length) {
+			chars = new char[Math.max(length, chars.length << 1)];
+		}
+		for (int i = 0; i < length; i++) {
+			final byte b = input.get(start + i);
+			if (b < 0) {
+				/* not plain ASCII; decode properly */
+				return decodeUTF8(start, end);
+			}
+			chars[i] = (char) b;
+		}
+		return length;
+	}
+
+	private int decodeUTF8(final int start, final int end)
+			throws SAXException {
+		final ByteBuffer bytes = input.duplicate();
+		bytes.limit(end);
+		bytes.position(start);
+		try {
+			final CharBuffer decoded = UTF8.newDecoder().decode(bytes);
+			final int length = decoded.remaining();
+			decoded.get(chars, 0, length);
+			return length;
+		} catch (CharacterCodingException e) {
+			throw error("Invalid byte sequence in UTF-8.");
+		}
+	}
+
+	/**
+	 * Builds the exception reporting a problem at the current offset.
+	 */
+	private SAXParseException error(final String message) {
+		int line = 1;
+		int column = 1;
+		for (int i = 0; i < pos && i < input.limit(); i++) {
+			if (input.get(i) == '\n') {
+				line++;
+				column = 1;
+			} else {
+				column++;
+			}
+		}
+		return new SAXParseException(message, null, null, line, column);
+	}
+
+	private static boolean isSpace(final byte b) {
+		return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+	}
+
+	private static boolean isNameStart(final byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_'
+				|| b == ':' || b < 0;
+	}
+
+	private static boolean isNameChar(final byte b) {
+		return isNameStart(b) || (b >= '0' && b <= '9') || b == '-'
+				|| b == '.';
+	}
+
+	private static boolean startsWith(final ByteBuffer input, final int at,
+			final String prefix) {
+		if (at + prefix.length() > input.limit()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (input.get(at + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(final ByteBuffer input, final int from,
+			final String target) {
+		final int last = input.limit() - target.length();
+		final byte first = (byte) target.charAt(0);
+		for (int i = from; i <= last; i++) {
+			if (input.get(i) == first && startsWith(input, i, target)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(final char[] chars, final int from,
+			final int end, final char target) {
+		for (int i = from; i < end; i++) {
+			if (chars[i] == target) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String ascii(final ByteBuffer input, final int start,
+			final int end) {
+		final StringBuilder out = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			out.append((char) (input.get(i) & 0xff));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Does nothing; the mapping is released once the scanner is no longer
+	 * referred to.
+	 */
+	public void close() {
+	}
+}
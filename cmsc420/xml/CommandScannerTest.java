@@ -0,0 +1,204 @@
+package cmsc420.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.xml.sax.SAXException;
+
+/**
+ * Tests of the command scanner: it hands over the same commands as
+ * CommandReader, carries the integers it parsed from the bytes, rejects
+ * what the schema rejects, and leaves files it cannot scan to CommandReader.
+ */
+public class CommandScannerTest {
+
+	private static final String SCHEMA = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+			+ "<xs:element name=\"commands\"><xs:complexType>"
+			+ "<xs:choice minOccurs=\"0\" maxOccurs=\"unbounded\">"
+			+ "<xs:element name=\"createCity\"><xs:complexType>"
+			+ "<xs:attribute name=\"name\" type=\"xs:string\" use=\"required\"/>"
+			+ "<xs:attribute name=\"x\" type=\"xs:long\" use=\"required\"/>"
+			+ "<xs:attribute name=\"y\" type=\"xs:long\" use=\"required\"/>"
+			+ "<xs:attribute name=\"radius\" type=\"xs:int\" use=\"required\"/>"
+			+ "</xs:complexType></xs:element>"
+			+ "<xs:element name=\"listCities\"><xs:complexType/></xs:element>"
+			+ "</xs:choice>"
+			+ "<xs:attribute name=\"spatialWidth\" type=\"xs:long\"/>"
+			+ "</xs:complexType></xs:element></xs:schema>";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File schema;
+
+	@Before
+	public void writeSchema() throws IOException {
+		schema = write("test.xsd", SCHEMA);
+	}
+
+	@Test
+	public void scannerHandsOverWhatTheReaderDoes() throws Exception {
+		final File input = commands("<!-- cities -->\n"
+				+ "<createCity name=\"A&amp;B\" x=\"-12\" y='+34' radius=\"5\"/>\r\n"
+				+ "<?note ignored?>"
+				+ "<createCity name=\"&#67;\" x=\" 7 \" y=\"9223372036854775807\" radius=\"0\"></createCity>"
+				+ "<listCities/>");
+		final List<Element> scanned = drain(CommandScanner.open(input));
+		final List<Element> read = readAll(input);
+		assertEquals(read.size(), scanned.size());
+		for (int i = 0; i < read.size(); i++) {
+			assertSameCommand(read.get(i), scanned.get(i));
+		}
+	}
+
+	@Test
+	public void integersAreParsedFromTheBytes() throws Exception {
+		final CommandSource source = CommandScanner.open(commands(
+				"<createCity name=\"7\" x=\"-12\" y='+34' radius=\"5\"/>"
+				+ "<createCity name=\"C\" x=\" 7 \" y=\"9223372036854775807\" radius=\"0\"/>"));
+
+		/* the root's own attribute is parsed too */
+		final Element root = source.next();
+		assertEquals(1024, IntegerAttributes.of(root).get("spatialWidth"));
+
+		final Element first = source.next();
+		final IntegerAttributes integers = IntegerAttributes.of(first);
+		assertEquals(-12, integers.get("x"));
+		assertEquals(34, integers.get("y"));
+		assertEquals(5, integers.get("radius"));
+		/* the scanner cannot tell a name that looks like a number */
+		assertEquals(7, integers.get("name"));
+		assertNull(IntegerAttributes.of(root));
+
+		/* padded and 19-digit values are left to be parsed from strings */
+		final Element second = source.next();
+		assertFalse(IntegerAttributes.of(second).contains("x"));
+		assertFalse(IntegerAttributes.of(second).contains("y"));
+		assertEquals(0, IntegerAttributes.of(second).get("radius"));
+
+		/* only the command handed over last carries its values */
+		assertNull(IntegerAttributes.of(first));
+		assertNull(source.next());
+	}
+
+	@Test
+	public void commandsReadInGeneralCarryNoIntegers() throws Exception {
+		for (Element command : readAll(commands("<listCities/>"))) {
+			assertNull(IntegerAttributes.of(command));
+		}
+	}
+
+	@Test
+	public void invalidCommandIsRejected() throws Exception {
+		final CommandSource source = CommandScanner.open(commands(
+				"<createCity name=\"A\" x=\"1\" y=\"2\" radius=\"5\"/>"
+						+ "<createCity name=\"B\" x=\"1\" y=\"2\" radius=\"99999999999\"/>"));
+		assertNotNull(source.next());
+		assertNotNull(source.next());
+		try {
+			source.next();
+			fail("a radius past the range of an int was accepted");
+		} catch (SAXException e) {
+			/* expected */
+		}
+	}
+
+	@Test
+	public void truncatedFileIsRejected() throws Exception {
+		final File input = write("cut.xml", "<commands xmlns:xsi=\""
+				+ "http://www.w3.org/2001/XMLSchema-instance\" "
+				+ "xsi:noNamespaceSchemaLocation=\"" + schema.getPath()
+				+ "\"><listCities/>");
+		final CommandSource source = CommandScanner.open(input);
+		assertNotNull(source.next());
+		assertNotNull(source.next());
+		try {
+			source.next();
+			fail("a file ending inside its root was accepted");
+		} catch (SAXException e) {
+			/* expected */
+		}
+	}
+
+	@Test
+	public void otherEncodingsAreLeftToTheReader() throws Exception {
+		assertNull(CommandScanner.open(write("latin.xml",
+				"<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><commands/>")));
+		assertNull(CommandScanner.open(write("doctype.xml",
+				"<!DOCTYPE commands><commands/>")));
+		assertNull(CommandScanner.open(write("empty.xml", "")));
+	}
+
+	private File commands(String body) throws IOException {
+		return write("commands.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<commands xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+				+ "xsi:noNamespaceSchemaLocation=\"" + schema.getPath()
+				+ "\" spatialWidth=\"1024\">" + body + "</commands>\n");
+	}
+
+	private File write(String name, String contents) throws IOException {
+		final File file = new File(folder.getRoot(), name);
+		final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static List<Element> drain(CommandSource source) throws Exception {
+		assertNotNull(source);
+		final List<Element> commands = new ArrayList<Element>();
+		Element command;
+		while ((command = source.next()) != null) {
+			commands.add(command);
+		}
+		source.close();
+		return commands;
+	}
+
+	private static List<Element> readAll(File file) throws Exception {
+		final InputStream in = new BufferedInputStream(new FileInputStream(
+				file));
+		try {
+			return drain(new CommandReader(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void assertSameCommand(Element expected, Element actual) {
+		assertEquals(expected.getNodeName(), actual.getNodeName());
+		final NamedNodeMap attributes = expected.getAttributes();
+		assertEquals(attributes.getLength(), actual.getAttributes()
+				.getLength());
+		for (int i = 0; i < attributes.getLength(); i++) {
+			final String name = attributes.item(i).getNodeName();
+			assertTrue(actual.hasAttribute(name));
+			assertEquals(expected.getAttribute(name), actual.getAttribute(name));
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package cmsc420.xml;
+
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Source of the commands of a command file, read and validated one at a
+ * time: the root element first, then each of its children in order, each as
+ * a DOM Element belonging to no tree.
+ */
+public interface CommandSource {
+
+	/**
+	 * Reads and validates the next command.
+	 *
+	 * @return next command, or null once the whole input has been read and
+	 *         found valid
+	 * @throws XMLStreamException
+	 *             the input is not well-formed XML
+	 * @throws SAXException
+	 *             the input is not well-formed or not valid against its
+	 *             schema
+	 * @throws IOException
+	 *             problem reading the input or loading the schema
+	 */
+	Element next() throws XMLStreamException, SAXException, IOException;
+
+	/**
+	 * Releases whatever the source holds. Does not close an input stream it
+	 * was given.
+	 *
+	 * @throws XMLStreamException
+	 *             problem releasing the source
+	 */
+	void close() throws XMLStreamException;
+}
@@ -0,0 +1,127 @@
+package cmsc420.xml;
+
+import java.util.Arrays;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Values of the integer attributes of a command, parsed while it was read,
+ * so that coordinates, radii and the like need not be parsed again from
+ * their strings. CommandScanner keeps one of these for the command it
+ * handed over last, attached to the document its commands are created by,
+ * and refills it for each command it hands over. An attribute that is not
+ * here, or a command that has none, has to be parsed from its string as
+ * usual.
+ */
+public final class IntegerAttributes {
+
+	/** key of the user data the values are attached to a document under */
+	static final String KEY = IntegerAttributes.class.getName();
+
+	/** command the values belong to; null while they are being filled */
+	private Element command;
+
+	/** names of the attributes parsed, in the order they were written */
+	private String[] names = new String[8];
+
+	/** values of the attributes parsed */
+	private long[] values = new long[8];
+
+	/** number of attributes parsed */
+	private int count;
+
+	IntegerAttributes() {
+	}
+
+	/**
+	 * Empties the values, to be filled for another command.
+	 */
+	void clear() {
+		command = null;
+		count = 0;
+	}
+
+	/**
+	 * Adds the value of an attribute.
+	 *
+	 * @param name
+	 *            name of the attribute
+	 * @param value
+	 *            its value
+	 */
+	void add(final String name, final long value) {
+		if (count == names.length) {
+			names = Arrays.copyOf(names, count << 1);
+			values = Arrays.copyOf(values, count << 1);
+		}
+		names[count] = name;
+		values[count] = value;
+		count++;
+	}
+
+	/**
+	 * Makes the values those of a command, once they have all been added.
+	 *
+	 * @param command
+	 *            command element
+	 */
+	void setCommand(final Element command) {
+		this.command = command;
+	}
+
+	/**
+	 * Gets the values parsed for a command.
+	 *
+	 * @param command
+	 *            command element
+	 * @return its values, or null if it was not handed over last by a
+	 *         CommandScanner
+	 */
+	public static IntegerAttributes of(final Element command) {
+		final Document document = command.getOwnerDocument();
+		final Object values = document == null ? null : document
+				.getUserData(KEY);
+		return values instanceof IntegerAttributes
+				&& ((IntegerAttributes) values).command == command ? (IntegerAttributes) values
+				: null;
+	}
+
+	/**
+	 * Tells whether an attribute was parsed.
+	 *
+	 * @param name
+	 *            name of the attribute
+	 * @return true if its value is here
+	 */
+	public boolean contains(final String name) {
+		return indexOf(name) >= 0;
+	}
+
+	/**
+	 * Gets the value of an attribute that was parsed.
+	 *
+	 * @param name
+	 *            name of the attribute
+	 * @return its value
+	 * @throws IllegalArgumentException
+	 *             the attribute was not parsed
+	 */
+	public long get(final String name) {
+		final int i = indexOf(name);
+		if (i < 0) {
+			throw new IllegalArgumentException("attribute " + name
+					+ " was not parsed");
+		}
+		return values[i];
+	}
+
+	private int indexOf(final String name) {
+		for (int i = 0; i < count; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
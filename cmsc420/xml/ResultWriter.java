@@ -0,0 +1,271 @@
+package cmsc420.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes a results document one result at a time with an XMLStreamWriter,
+ * so that each result can be written as soon as its command has finished
+ * and dropped from memory.
+ * <p>
+ * The bytes written are exactly those XmlUtility produces for the whole
+ * document: the same XML declaration, attributes in the order the DOM keeps
+ * them, and elements indented by two spaces per level. Output is gathered
+ * in a buffer and passed on to the underlying stream in chunks of
+ * FLUSH_SIZE bytes, except that nothing is passed on until a window of
+ * bytes has been filled; until then, everything written can still be
+ * discarded. Once bytes have been passed on, abort ends the document early
+ * instead: the results passed on stay, and a fatalError element follows
+ * them.
+ * <p>
+ * Like PrintWriter, write does not throw: the first problem writing is
+ * kept, later results are dropped, and finish reports the problem.
+ */
+public class ResultWriter {
+
+	/** number of bytes gathered before they are passed on */
+	static final int FLUSH_SIZE = 1 << 16;
+
+	/** the XML declaration XmlUtility writes */
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n";
+
+	/** spaces each level of elements is indented by */
+	private static final int INDENT = 2;
+
+	/** factory of StAX writers */
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory
+			.newInstance();
+
+	/** stream the results are passed on to */
+	private final OutputStream out;
+
+	/** bytes held back before anything is passed on */
+	private final int window;
+
+	/** bytes not yet passed on */
+	private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(
+			FLUSH_SIZE + (FLUSH_SIZE >> 2));
+
+	/** the underlying StAX writer, writing into chunk */
+	private final XMLStreamWriter writer;
+
+	/** whether any result has been written */
+	private boolean started;
+
+	/** whether any bytes have been passed on */
+	private boolean passedOn;
+
+	/** first problem writing, if any */
+	private IOException error;
+
+	/**
+	 * Constructs a writer of a results document, starting with its XML
+	 * declaration.
+	 *
+	 * @param out
+	 *            stream the document is written to
+	 * @throws XMLStreamException
+	 *             problem setting up the writer
+	 */
+	public ResultWriter(final OutputStream out) throws XMLStreamException {
+		this(out, FLUSH_SIZE);
+	}
+
+	/**
+	 * Constructs a writer of a results document that holds back a window of
+	 * bytes before passing anything on.
+	 *
+	 * @param out
+	 *            stream the document is written to
+	 * @param window
+	 *            number of bytes held back before the first are passed on
+	 * @throws XMLStreamException
+	 *             problem setting up the writer
+	 */
+	public ResultWriter(final OutputStream out, final int window)
+			throws XMLStreamException {
+		this.out = out;
+		this.window = window;
+		writeDeclaration();
+		writer = outputFactory.createXMLStreamWriter(chunk, "UTF-8");
+	}
+
+	/**
+	 * Puts the XML declaration ahead of everything else.
+	 */
+	private void writeDeclaration() {
+		final byte[] bytes = DECLARATION.getBytes(Charset.forName("UTF-8"));
+		chunk.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes a result as the next child of the results element.
+	 *
+	 * @param result
+	 *            result to be written, with everything below it
+	 */
+	public void write(final Element result) {
+		if (error != null) {
+			return;
+		}
+		try {
+			if (!started) {
+				writer.writeStartElement("results");
+				started = true;
+			}
+			writeElement(result, 1);
+			writer.flush();
+			if (chunk.size() >= (passedOn ? FLUSH_SIZE : window)) {
+				passOn();
+			}
+		} catch (XMLStreamException e) {
+			error = new IOException(e);
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Returns if a problem has kept a result from being written.
+	 *
+	 * @return true if writing has failed
+	 */
+	public boolean checkError() {
+		return error != null;
+	}
+
+	/**
+	 * Writes an element on a line of its own, indented for its depth.
+	 */
+	private void writeElement(final Element element, final int depth)
+			throws XMLStreamException {
+		indent(depth);
+		final boolean empty = !element.hasChildNodes();
+		if (empty) {
+			writer.writeEmptyElement(element.getTagName());
+		} else {
+			writer.writeStartElement(element.getTagName());
+		}
+		final NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			final Attr attribute = (Attr) attributes.item(i);
+			writer.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+		if (empty) {
+			return;
+		}
+		boolean text = false;
+		for (Node child = element.getFirstChild(); child != null; child = child
+				.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				writeElement((Element) child, depth + 1);
+			} else if (child.getNodeType() == Node.TEXT_NODE) {
+				/* text is written as it is, without indenting */
+				writer.writeCharacters(child.getNodeValue());
+				text = true;
+			}
+		}
+		if (!text) {
+			indent(depth);
+		}
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Starts a new line, indented for a depth.
+	 */
+	private void indent(final int depth) throws XMLStreamException {
+		final char[] spaces = new char[1 + depth * INDENT];
+		Arrays.fill(spaces, ' ');
+		spaces[0] = '\n';
+		writer.writeCharacters(spaces, 0, spaces.length);
+	}
+
+	/**
+	 * Passes everything gathered on to the underlying stream.
+	 */
+	private void passOn() throws IOException {
+		chunk.writeTo(out);
+		out.flush();
+		chunk.reset();
+		passedOn = true;
+	}
+
+	/**
+	 * Ends the results element and the document, and passes everything
+	 * left on. The underlying stream is not closed.
+	 *
+	 * @throws XMLStreamException
+	 *             problem writing the end of the document
+	 * @throws IOException
+	 *             problem passing the output on, or a result was not
+	 *             written
+	 */
+	public void finish() throws XMLStreamException, IOException {
+		if (error != null) {
+			throw error;
+		}
+		if (started) {
+			indent(0);
+			writer.writeEndElement();
+		} else {
+			writer.writeEmptyElement("results");
+		}
+		writer.writeCharacters("\n");
+		writer.flush();
+		passOn();
+	}
+
+	/**
+	 * Ends the document early, after a fatal error found once results have
+	 * been passed on. Everything not yet passed on is dropped, and the
+	 * results element is closed with a fatalError element as its last
+	 * child. Results are passed on whole, so the document stays well formed.
+	 * The underlying stream is not closed.
+	 *
+	 * @throws XMLStreamException
+	 *             problem writing the end of the document
+	 * @throws IOException
+	 *             problem passing the output on, or a result was not
+	 *             written
+	 */
+	public void abort() throws XMLStreamException, IOException {
+		if (error != null) {
+			throw error;
+		}
+		chunk.reset();
+		if (!started) {
+			writer.writeStartElement("results");
+		}
+		indent(1);
+		writer.writeEmptyElement("fatalError");
+		indent(0);
+		writer.writeEndElement();
+		writer.writeCharacters("\n");
+		writer.flush();
+		passOn();
+	}
+
+	/**
+	 * Discards everything not yet passed on.
+	 *
+	 * @return true if nothing had been passed on, so the whole document has
+	 *         been discarded
+	 */
+	public boolean discard() {
+		chunk.reset();
+		return !passedOn;
+	}
+}
@@ -0,0 +1,119 @@
+package cmsc420.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests of what a fatal error leaves of the results written so far: nothing
+ * within the window, and otherwise the results passed on followed by a
+ * fatalError element.
+ */
+public class ResultWriterTest {
+
+	private Document results;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Before
+	public void createDocument() throws Exception {
+		results = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.newDocument();
+	}
+
+	@Test
+	public void finishWritesEveryResult() throws Exception {
+		final ResultWriter writer = new ResultWriter(out, 1 << 20);
+		for (int i = 0; i < 3; i++) {
+			writer.write(result(i));
+		}
+		assertEquals(0, out.size());
+		writer.finish();
+		assertResults(parse(), 0, 1, 2);
+	}
+
+	@Test
+	public void discardWithinTheWindowDropsEverything() throws Exception {
+		final ResultWriter writer = new ResultWriter(out, 1 << 20);
+		for (int i = 0; i < 3; i++) {
+			writer.write(result(i));
+		}
+		assertTrue(writer.discard());
+		assertEquals(0, out.size());
+	}
+
+	@Test
+	public void abortPastTheWindowEndsWithFatalError() throws Exception {
+		/* the first result fills the window and goes out at once */
+		final ResultWriter writer = new ResultWriter(out, 1);
+		for (int i = 0; i < 3; i++) {
+			writer.write(result(i));
+		}
+		assertTrue(out.size() > 0);
+		assertFalse(writer.discard());
+		writer.abort();
+
+		/* the results held back are gone, and the document is well formed */
+		final NodeList children = parse().getDocumentElement()
+				.getElementsByTagName("*");
+		assertEquals(2, children.getLength());
+		assertEquals("success", children.item(0).getNodeName());
+		assertEquals("0", ((Element) children.item(0)).getAttribute("id"));
+		assertEquals("fatalError", children.item(1).getNodeName());
+	}
+
+	@Test
+	public void abortAfterManyChunks() throws Exception {
+		final ResultWriter writer = new ResultWriter(out, 1);
+		final int count = 4 * ResultWriter.FLUSH_SIZE / 20;
+		for (int i = 0; i < count; i++) {
+			writer.write(result(i));
+		}
+		final int passedOn = out.size();
+		writer.abort();
+
+		final NodeList children = parse().getDocumentElement()
+				.getElementsByTagName("*");
+		assertTrue(children.getLength() > 1);
+		assertTrue(children.getLength() <= count);
+		for (int i = 0; i < children.getLength() - 1; i++) {
+			assertEquals(Integer.toString(i), ((Element) children.item(i))
+					.getAttribute("id"));
+		}
+		assertEquals("fatalError", children.item(children.getLength() - 1)
+				.getNodeName());
+		assertTrue(out.size() > passedOn);
+	}
+
+	private Element result(int id) {
+		final Element result = results.createElement("success");
+		result.setAttribute("id", Integer.toString(id));
+		return result;
+	}
+
+	private Document parse() throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static void assertResults(Document document, int... ids) {
+		final NodeList children = document.getDocumentElement()
+				.getElementsByTagName("success");
+		assertEquals(ids.length, children.getLength());
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(Integer.toString(ids[i]), ((Element) children
+					.item(i)).getAttribute("id"));
+		}
+	}
+}
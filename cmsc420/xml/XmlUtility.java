@@ -23,6 +23,8 @@ import java.io.PipedWriter;
 import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
 import javax.naming.OperationNotSupportedException;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -83,6 +85,11 @@ public class XmlUtility {
 	 */
 	private static SchemaFactory schemaFactory;
 
+	/**
+	 * Schemas already compiled, by the location they were loaded from.
+	 */
+	private static final Map<String, Schema> schemas = new HashMap<String, Schema>();
+
 	/**
 	 * Factory used to transform XML documents to output stream/file.
 	 */
@@ -488,8 +495,48 @@ public class XmlUtility {
 
 		/* load XML schema, represented by a Schema instance */
 		final Element root = document.getDocumentElement();
-		final String schemaFileName = root
-				.getAttribute("xsi:noNamespaceSchemaLocation");
+		final Schema schema = getSchema(root
+				.getAttribute("xsi:noNamespaceSchemaLocation"));
+
+		/* create a Validator instance */
+		final Validator validator = schema.newValidator();
+
+		/* validate the DOM tree. throws an exception if there is a problem */
+		validator.validate(new DOMSource(document));
+
+		/* return the valid document */
+		return document;
+	}
+
+	/**
+	 * Gets the schema at a location, from a file or, if given a URL, from an
+	 * HTTP server. Each location is loaded and compiled once; later calls
+	 * get the same Schema, which is safe to share.
+	 * 
+	 * @param schemaFileName
+	 *            file name or HTTP URL of the schema
+	 * @return the schema
+	 * @throws SAXException
+	 *             problem parsing the schema
+	 * @throws IOException
+	 *             problem reading the schema
+	 */
+	public static synchronized Schema getSchema(final String schemaFileName)
+			throws SAXException, IOException {
+		Schema schema = schemas.get(schemaFileName);
+		if (schema == null) {
+			schema = loadSchema(schemaFileName);
+			schemas.put(schemaFileName, schema);
+		}
+		return schema;
+	}
+
+	/**
+	 * Loads and compiles a schema from a file, or from an HTTP server if
+	 * given a URL.
+	 */
+	private static Schema loadSchema(final String schemaFileName)
+			throws SAXException, IOException {
 		final Source schemaSource;
 		if (schemaFileName.startsWith("http://")) {
 			/* download the schema from HTTP server */
@@ -500,15 +547,6 @@ public class XmlUtility {
 		} else {
 			schemaSource = new StreamSource(new File(schemaFileName));
 		}
-		final Schema schema = schemaFactory.newSchema(schemaSource);
-
-		/* create a Validator instance */
-		final Validator validator = schema.newValidator();
-
-		/* validate the DOM tree. throws an exception if there is a problem */
-		validator.validate(new DOMSource(document));
-
-		/* return the valid document */
-		return document;
+		return schemaFactory.newSchema(schemaSource);
 	}
 }
\ No newline at end of file